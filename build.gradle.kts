@@ -54,6 +54,7 @@ extra.apply {
     set("clickHouseDriverVersion", "0.3.2-patch10")
     set("kafkaVersion", "2.6.0")
     set("avroVersion", "1.9.2")
+    set("zookeeperVersion", "3.6.3")
 
     // Testing dependencies
     set("junitJupiterVersion", "5.8.1")
@@ -66,6 +67,9 @@ extra.apply {
     set("scalaVersion", "2.13")
     set("curatorVersion", "2.9.0")
     set("connectUtilsVersion", "0.4+")
+
+    // Benchmark dependencies
+    set("jmhVersion", "1.36")
 }
 
 val clickhouseDependencies: Configuration by configurations.creating
@@ -76,6 +80,11 @@ dependencies {
     implementation("com.clickhouse:clickhouse-http-client:${project.extra["clickHouseDriverVersion"]}")
     implementation("io.lettuce:lettuce-core:6.2.0.RELEASE")
     implementation("com.google.code.gson:gson:2.10")
+    implementation("org.apache.avro:avro:${project.extra["avroVersion"]}")
+    implementation("org.apache.zookeeper:zookeeper:${project.extra["zookeeperVersion"]}") {
+        exclude(group = "log4j", module = "log4j")
+        exclude(group = "org.slf4j", module = "slf4j-log4j12")
+    }
 
     // TODO: need to remove ???
     implementation("org.slf4j:slf4j-reload4j:1.7.36")
@@ -87,6 +96,11 @@ dependencies {
     clickhouseDependencies("com.clickhouse:clickhouse-client:${project.extra["clickHouseDriverVersion"]}")
     clickhouseDependencies("com.clickhouse:clickhouse-http-client:${project.extra["clickHouseDriverVersion"]}")
     clickhouseDependencies("com.google.code.gson:gson:2.10")
+    clickhouseDependencies("org.apache.avro:avro:${project.extra["avroVersion"]}")
+    clickhouseDependencies("org.apache.zookeeper:zookeeper:${project.extra["zookeeperVersion"]}") {
+        exclude(group = "log4j", module = "log4j")
+        exclude(group = "org.slf4j", module = "slf4j-log4j12")
+    }
 
     // Unit Tests
     testImplementation(platform("org.junit:junit-bom:${project.extra["junitJupiterVersion"]}"))
@@ -127,6 +141,32 @@ tasks.create("integrationTest", Test::class.java) {
     mustRunAfter("test")
 }
 
+/*
+ * Microbenchmarks of the hot paths, ./gradlew jmh -PjmhArgs="<JMH options>" e.g. -PjmhArgs="EncodingBenchmark -p shape=WIDE"
+ */
+sourceSets.create("jmh") {
+    java.srcDir("src/jmh/java")
+    compileClasspath += sourceSets["main"].output + configurations["runtimeClasspath"]
+    runtimeClasspath += output + compileClasspath
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:${project.extra["jmhVersion"]}")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:${project.extra["jmhVersion"]}")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks, results in build/reports/jmh/results.json"
+    group = "verification"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val results = file("$buildDir/reports/jmh/results.json")
+    val jmhArgs = (project.findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotBlank() }
+    args(listOf("-rf", "json", "-rff", results.absolutePath) + jmhArgs)
+    doFirst { results.parentFile.mkdirs() }
+    outputs.upToDateWhen { false }
+}
+
 tasks.withType<Test> {
     tasks.getByName("check").dependsOn(this)
     systemProperty("file.encoding", "windows-1252") // run tests with different encoding
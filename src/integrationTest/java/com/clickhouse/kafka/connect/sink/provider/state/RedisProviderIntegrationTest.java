@@ -4,11 +4,14 @@ import com.clickhouse.kafka.connect.sink.state.State;
 import com.clickhouse.kafka.connect.sink.state.StateRecord;
 import com.clickhouse.kafka.connect.sink.state.provider.RedisStateProvider;
 import jdk.jfr.Description;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.containers.GenericContainer;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -46,6 +49,26 @@ public class RedisProviderIntegrationTest {
 
     }
 
+    @Test
+    @Description("Redis batch get set test")
+    public void batchGetSetTest() {
+        RedisStateProvider rsp = new RedisStateProvider(redis.getHost(), redis.getMappedPort(6379), Optional.empty());
+
+        assertEquals(State.NONE, rsp.getStateRecord("redis-batch-test", 0).getState(), "Check missing key");
+        rsp.setStateRecords(List.of(
+                new StateRecord("redis-batch-test", 0, 10, 0, State.BEFORE_PROCESSING),
+                new StateRecord("redis-batch-test", 1, 20, 5, State.AFTER_PROCESSING)));
+
+        Map<TopicPartition, StateRecord> stateRecords = rsp.getStateRecords(List.of(
+                new TopicPartition("redis-batch-test", 0),
+                new TopicPartition("redis-batch-test", 1),
+                new TopicPartition("redis-batch-test", 2)));
+        assertEquals(State.BEFORE_PROCESSING, stateRecords.get(new TopicPartition("redis-batch-test", 0)).getState(), "Check state");
+        assertEquals(5, stateRecords.get(new TopicPartition("redis-batch-test", 1)).getMinOffset(), "Check min offset");
+        assertEquals(State.NONE, stateRecords.get(new TopicPartition("redis-batch-test", 2)).getState(), "Check missing key");
+        rsp.stop();
+    }
+
     @AfterAll
     protected static void tearDown() {
         redis.close();
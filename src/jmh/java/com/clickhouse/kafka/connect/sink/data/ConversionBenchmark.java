@@ -0,0 +1,68 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import com.clickhouse.kafka.connect.sink.data.convert.SchemalessRecordConvertor;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.helper.BenchmarkData;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of sink records into records of the connector, before any encoding. Scores are per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(ConversionBenchmark.BATCH_SIZE)
+public class ConversionBenchmark {
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"NARROW", "WIDE", "MAP_HEAVY", "ARRAY_HEAVY"})
+    public BenchmarkData.Shape shape;
+
+    private Table table;
+    private List<SinkRecord> structRecords;
+    private List<SinkRecord> mapRecords;
+    private SchemalessRecordConvertor schemalessConvertor;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = new BenchmarkData(shape);
+        table = data.getTable();
+        structRecords = data.structRecords(BATCH_SIZE);
+        mapRecords = data.mapRecords(BATCH_SIZE);
+        schemalessConvertor = new SchemalessRecordConvertor();
+    }
+
+    @Benchmark
+    public void structToJsonMap(Blackhole blackhole) {
+        for (SinkRecord record : structRecords) {
+            blackhole.consume(StructToJsonMap.toJsonMap((Struct) record.value()));
+        }
+    }
+
+    @Benchmark
+    public void schemalessConvert(Blackhole blackhole) {
+        for (SinkRecord record : mapRecords) {
+            blackhole.consume(schemalessConvertor.convert(record, table, false));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.clickhouse.kafka.connect.sink.db;
+
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.convert.SchemaRecordConvertor;
+import com.clickhouse.kafka.connect.sink.data.convert.SchemalessRecordConvertor;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.helper.BenchmarkData;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Encoding of a batch into the body of an insert, written to memory instead of a server. Scores are per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(EncodingBenchmark.BATCH_SIZE)
+public class EncodingBenchmark {
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"NARROW", "WIDE", "MAP_HEAVY", "ARRAY_HEAVY"})
+    public BenchmarkData.Shape shape;
+
+    private ClickHouseWriter writer;
+    private Table table;
+    // Converted against the table, as inserted with RowBinary
+    private List<Record> rowBinaryRecords;
+    // Converted without a table, the Struct is kept and inserted as JSON
+    private List<Record> jsonRecords;
+    private List<Record> schemalessRecords;
+    private ByteArrayOutputStream sink;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = new BenchmarkData(shape);
+        writer = new ClickHouseWriter();
+        table = data.getTable();
+        List<SinkRecord> structs = data.structRecords(BATCH_SIZE);
+        SchemaRecordConvertor schemaConvertor = new SchemaRecordConvertor();
+        rowBinaryRecords = structs.stream().map(r -> schemaConvertor.convert(r, table, false)).collect(Collectors.toList());
+        jsonRecords = structs.stream().map(r -> schemaConvertor.convert(r, null, false)).collect(Collectors.toList());
+        SchemalessRecordConvertor schemalessConvertor = new SchemalessRecordConvertor();
+        schemalessRecords = data.mapRecords(BATCH_SIZE).stream().map(r -> schemalessConvertor.convert(r, table, false)).collect(Collectors.toList());
+        sink = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public int rowBinary() throws IOException {
+        sink.reset();
+        writer.writeRowBinary(table, rowBinaryRecords, sink);
+        return sink.size();
+    }
+
+    @Benchmark
+    public int jsonSchema() throws IOException {
+        sink.reset();
+        writer.writeJson(jsonRecords, sink);
+        return sink.size();
+    }
+
+    @Benchmark
+    public int jsonSchemaless() throws IOException {
+        sink.reset();
+        writer.writeJson(schemalessRecords, sink);
+        return sink.size();
+    }
+}
@@ -0,0 +1,178 @@
+package com.clickhouse.kafka.connect.sink.helper;
+
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Records and their table for the benchmarks, in a few representative shapes. Values are generated from a fixed
+ * seed so that runs before & after a change encode the same bytes.
+ */
+public class BenchmarkData {
+    public static final String TOPIC = "benchmark";
+    private static final int WIDE_COLUMNS = 64;
+    private static final int MAPS = 4;
+    private static final int MAP_ENTRIES = 16;
+    private static final int ARRAYS = 4;
+    private static final int ARRAY_ELEMENTS = 32;
+
+    public enum Shape {
+        // A handful of scalar columns
+        NARROW,
+        // 64 scalar columns
+        WIDE,
+        // 4 Map(String, Int64) of 16 entries
+        MAP_HEAVY,
+        // 4 Array(Int32) / Array(String) of 32 elements
+        ARRAY_HEAVY
+    }
+
+    private final Shape shape;
+    private final Schema schema;
+    private final Table table;
+
+    public BenchmarkData(Shape shape) {
+        this.shape = shape;
+        SchemaBuilder builder = SchemaBuilder.struct().name(shape.name().toLowerCase());
+        table = new Table(TOPIC);
+        builder.field("id", Schema.INT64_SCHEMA);
+        table.addColumn(Column.extractColumn("id", "Int64", false));
+        switch (shape) {
+            case NARROW:
+                builder.field("name", Schema.STRING_SCHEMA);
+                builder.field("score", Schema.FLOAT64_SCHEMA);
+                builder.field("count", Schema.INT32_SCHEMA);
+                builder.field("active", Schema.BOOLEAN_SCHEMA);
+                table.addColumn(Column.extractColumn("name", "String", false));
+                table.addColumn(Column.extractColumn("score", "Float64", false));
+                table.addColumn(Column.extractColumn("count", "Int32", false));
+                table.addColumn(Column.extractColumn("active", "Bool", false));
+                break;
+            case WIDE:
+                for (int i = 0; i < WIDE_COLUMNS; i++) {
+                    builder.field("c" + i, wideSchema(i));
+                    table.addColumn(Column.extractColumn("c" + i, wideType(i), false));
+                }
+                break;
+            case MAP_HEAVY:
+                for (int i = 0; i < MAPS; i++) {
+                    builder.field("m" + i, SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.INT64_SCHEMA).build());
+                    table.addColumn(Column.extractColumn("m" + i, "Map(String, Int64)", false));
+                }
+                break;
+            case ARRAY_HEAVY:
+                for (int i = 0; i < ARRAYS; i++) {
+                    boolean strings = i % 2 == 1;
+                    builder.field("a" + i, SchemaBuilder.array(strings ? Schema.STRING_SCHEMA : Schema.INT32_SCHEMA).build());
+                    table.addColumn(Column.extractColumn("a" + i, strings ? "Array(String)" : "Array(Int32)", false));
+                }
+                break;
+        }
+        schema = builder.build();
+    }
+
+    public Table getTable() {
+        return table;
+    }
+
+    private static Schema wideSchema(int column) {
+        switch (column % 4) {
+            case 0: return Schema.INT64_SCHEMA;
+            case 1: return Schema.STRING_SCHEMA;
+            case 2: return Schema.FLOAT64_SCHEMA;
+            default: return Schema.INT32_SCHEMA;
+        }
+    }
+
+    private static String wideType(int column) {
+        switch (column % 4) {
+            case 0: return "Int64";
+            case 1: return "String";
+            case 2: return "Float64";
+            default: return "Int32";
+        }
+    }
+
+    /**
+     * @return the values of a row by field name, the schemaless form of the row
+     */
+    private Map<String, Object> row(Random random, long id) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        switch (shape) {
+            case NARROW:
+                row.put("name", "name-" + random.nextInt(100000));
+                row.put("score", random.nextDouble());
+                row.put("count", random.nextInt());
+                row.put("active", random.nextBoolean());
+                break;
+            case WIDE:
+                for (int i = 0; i < WIDE_COLUMNS; i++) {
+                    switch (i % 4) {
+                        case 0: row.put("c" + i, random.nextLong()); break;
+                        case 1: row.put("c" + i, "value-" + random.nextInt(100000)); break;
+                        case 2: row.put("c" + i, random.nextDouble()); break;
+                        default: row.put("c" + i, random.nextInt()); break;
+                    }
+                }
+                break;
+            case MAP_HEAVY:
+                for (int i = 0; i < MAPS; i++) {
+                    Map<String, Long> map = new HashMap<>();
+                    for (int e = 0; e < MAP_ENTRIES; e++) {
+                        map.put("key-" + e, random.nextLong());
+                    }
+                    row.put("m" + i, map);
+                }
+                break;
+            case ARRAY_HEAVY:
+                for (int i = 0; i < ARRAYS; i++) {
+                    List<Object> array = new ArrayList<>(ARRAY_ELEMENTS);
+                    for (int e = 0; e < ARRAY_ELEMENTS; e++) {
+                        array.add(i % 2 == 1 ? "element-" + random.nextInt(1000) : (Object) random.nextInt());
+                    }
+                    row.put("a" + i, array);
+                }
+                break;
+        }
+        return row;
+    }
+
+    /**
+     * @return records with a Struct value, as the AVRO/Protobuf/JSON Schema converters produce them
+     */
+    public List<SinkRecord> structRecords(int count) {
+        Random random = new Random(42);
+        List<SinkRecord> records = new ArrayList<>(count);
+        for (int offset = 0; offset < count; offset++) {
+            Struct struct = new Struct(schema);
+            for (Map.Entry<String, Object> value : row(random, offset).entrySet()) {
+                struct.put(value.getKey(), value.getValue());
+            }
+            records.add(new SinkRecord(TOPIC, 0, null, null, schema, struct, offset));
+        }
+        return records;
+    }
+
+    /**
+     * @return records with a Map value, as the JSON converter without schemas produces them
+     */
+    public List<SinkRecord> mapRecords(int count) {
+        Random random = new Random(42);
+        List<SinkRecord> records = new ArrayList<>(count);
+        for (int offset = 0; offset < count; offset++) {
+            records.add(new SinkRecord(TOPIC, 0, null, null, null, row(random, offset), offset));
+        }
+        return records;
+    }
+}
@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -74,7 +75,9 @@ public class ClickHouseSinkConnector extends SinkConnector {
     public List<Map<String, String>> taskConfigs(int maxTasks) {
         ArrayList<Map<String, String>> configs = new ArrayList<>();
         for (int i = 0; i < maxTasks; i++) {
-            configs.add(settings);
+            Map<String, String> config = new HashMap<>(settings);
+            config.put(ClickHouseSinkConfig.TASK_ID, String.valueOf(i));
+            configs.add(config);
         }
         return configs;
     }
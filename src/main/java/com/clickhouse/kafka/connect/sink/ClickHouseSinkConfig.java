@@ -5,6 +5,7 @@ import java.lang.reflect.Type;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigException;
 import org.slf4j.Logger;
@@ -28,6 +29,31 @@ public class ClickHouseSinkConfig {
     public static final String RETRY_COUNT = "retryCount";
     public static final String EXACTLY_ONCE = "exactlyOnce";
     public static final String HASH_FUNCTION_NAME = "hashFunctionName";
+    public static final String SHARD_ROUTING = "shardRouting";
+    public static final String SHARD_PARTITION_MAP = "shardPartitionMap";
+    public static final String SHARD_QUEUE_MAX_RECORDS = "shardQueueMaxRecords";
+    public static final String PARTITION_PARALLELISM = "partitionParallelism";
+    public static final String STATE_CACHE_ENABLED = "stateCacheEnabled";
+    public static final String STATE_STORE = "stateStore";
+    public static final String ZOOKEEPER_CONNECT = "zookeeperConnect";
+    public static final String ZOOKEEPER_PATH = "zookeeperPath";
+    public static final String REDIS_URI = "redisUri";
+    public static final String REDIS_CLUSTER = "redisCluster";
+    public static final String STATE_WAL_DIR = "stateWalDir";
+    public static final String STATE_WAL_ENTRIES = "stateWalEntries";
+    public static final String INSERT_DEDUPLICATION_TOKEN = "insertDeduplicationToken";
+    public static final String EXACTLY_ONCE_BATCH_OFFSETS = "exactlyOnceBatchOffsets";
+    public static final String EXACTLY_ONCE_BATCH_TIMEOUT_MS = "exactlyOnceBatchTimeoutMs";
+    public static final String PARALLEL_CONVERSION_THRESHOLD = "parallelConversionThreshold";
+    public static final String RAW_JSON_INSERT_FORMAT = "rawJsonInsertFormat";
+    public static final String AVRO_SCHEMA_PATH = "avroSchemaPath";
+    public static final String TRACE_SAMPLE_INTERVAL = "traceSampleInterval";
+    public static final String METRICS_PORT = "metricsPort";
+    public static final String COLUMN_PROFILE_SAMPLE_INTERVAL = "columnProfileSampleInterval";
+    public static final String SERVER_STATS_INTERVAL_MS = "serverStatsIntervalMs";
+    // Set by Connect & ClickHouseSinkConnector.taskConfigs, not part of the ConfigDef
+    public static final String CONNECTOR_NAME = "name";
+    public static final String TASK_ID = "taskId";
 
     public static final int MILLI_IN_A_SEC = 1000;
     private static final String databaseDefault = "default";
@@ -43,11 +69,46 @@ public class ClickHouseSinkConfig {
     public static final Integer retryCountDefault = 3;
     public static final Boolean exactlyOnceDefault = Boolean.FALSE;
     public static final String hashFunctionNameDefault = "default";
+    public static final String shardRoutingDefault = "RECORD";
+    public static final String shardPartitionMapDefault = "";
+    public static final Integer shardQueueMaxRecordsDefault = 0;
+    public static final Integer partitionParallelismDefault = 1;
+    public static final Boolean stateCacheEnabledDefault = Boolean.TRUE;
+    public static final String stateStoreDefault = "KEEPER_MAP";
+    public static final String zookeeperConnectDefault = "localhost:9181";
+    public static final String zookeeperPathDefault = "/clickhouse-kafka-connect";
+    public static final String redisUriDefault = "redis://localhost:6379/0";
+    public static final Boolean redisClusterDefault = Boolean.FALSE;
+    public static final String stateWalDirDefault = "clickhouse-kafka-connect-state";
+    public static final Integer stateWalEntriesDefault = 65536;
+    public static final Boolean insertDeduplicationTokenDefault = Boolean.FALSE;
+    public static final Integer exactlyOnceBatchOffsetsDefault = 0;
+    public static final Integer exactlyOnceBatchTimeoutMsDefault = 30000;
+    public static final Integer parallelConversionThresholdDefault = 0;
+    public static final String rawJsonInsertFormatDefault = "JSON_EACH_ROW";
+    public static final String avroSchemaPathDefault = "";
+    public static final Integer traceSampleIntervalDefault = 100;
+    public static final Integer metricsPortDefault = 0;
+    public static final Integer columnProfileSampleIntervalDefault = 0;
+    public static final Long serverStatsIntervalMsDefault = 0L;
+    public static final String connectorNameDefault = "ClickHouseSinkConnector";
+    public static final Integer taskIdDefault = 0;
+    public enum RawJsonInsertFormats {
+        JSON_EACH_ROW,
+        ROW_BINARY,
+    }
     public enum StateStores {
         NONE,
         IN_MEMORY,
         REDIS,
-        KEEPER_MAP
+        KEEPER_MAP,
+        ZOOKEEPER,
+        LOCAL_WAL
+    }
+
+    public enum ShardRouting {
+        RECORD, // hash every record, a partition may be spread over several shards
+        PARTITION // keep a whole topic partition on one shard (required for exactly-once)
     }
 
     private Map<String, String> settings = null;
@@ -62,6 +123,30 @@ public class ClickHouseSinkConfig {
     private boolean sslEnabled;
     private boolean exactlyOnce;
     private String hashFunctionName;
+    private ShardRouting shardRouting;
+    private Map<TopicPartition, Integer> shardPartitionMap;
+    private int shardQueueMaxRecords;
+    private int partitionParallelism;
+    private boolean stateCacheEnabled;
+    private StateStores stateStore;
+    private String zookeeperConnect;
+    private String zookeeperPath;
+    private String redisUri;
+    private boolean redisCluster;
+    private String stateWalDir;
+    private int stateWalEntries;
+    private boolean insertDeduplicationToken;
+    private int exactlyOnceBatchOffsets;
+    private int exactlyOnceBatchTimeoutMs;
+    private int parallelConversionThreshold;
+    private RawJsonInsertFormats rawJsonInsertFormat;
+    private String avroSchemaPath;
+    private int traceSampleInterval;
+    private int metricsPort;
+    private int columnProfileSampleInterval;
+    private long serverStatsIntervalMs;
+    private String connectorName;
+    private int taskId;
 
     private int timeout;
 
@@ -87,6 +172,39 @@ public class ClickHouseSinkConfig {
         }
     }
 
+    /**
+     * Accepts the (case insensitive) names of the constants of an enum.
+     */
+    public static class EnumValue implements ConfigDef.Validator {
+        private final Class<? extends Enum<?>> type;
+
+        public EnumValue(Class<? extends Enum<?>> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void ensureValid(String name, Object o) {
+            String value = o == null ? "" : o.toString().trim().toUpperCase();
+            for (Enum<?> constant : type.getEnumConstants()) {
+                if (constant.name().equals(value)) {
+                    return;
+                }
+            }
+            throw new ConfigException(name, o, "Expected one of " + this);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(type.getEnumConstants());
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, Map<String, String> props, String name, String defaultValue) {
+        String value = props.getOrDefault(name, defaultValue);
+        new EnumValue(type).ensureValid(name, value);
+        return Enum.valueOf(type, value.trim().toUpperCase());
+    }
+
     public ClickHouseSinkConfig(Map<String, String> props) {
         // Extracting configuration
         endpoints = props.getOrDefault(ENDPOINTS, endpointsDefault); //choose either endpoints or shards
@@ -117,6 +235,30 @@ public class ClickHouseSinkConfig {
         exactlyOnce = Boolean.parseBoolean(props.getOrDefault(EXACTLY_ONCE,"false"));
         hashFunctionName = props.getOrDefault(HASH_FUNCTION_NAME, hashFunctionNameDefault);
         shardReplicaWriteSelection = props.getOrDefault(SHARD_REPLICA_WRITE_SELECTION,shardReplicaWriteSelectionDefault);
+        shardRouting = parseEnum(ShardRouting.class, props, SHARD_ROUTING, shardRoutingDefault);
+        shardPartitionMap = parseShardPartitionMap(props.getOrDefault(SHARD_PARTITION_MAP, shardPartitionMapDefault));
+        shardQueueMaxRecords = Integer.parseInt(props.getOrDefault(SHARD_QUEUE_MAX_RECORDS, shardQueueMaxRecordsDefault.toString()));
+        partitionParallelism = Integer.parseInt(props.getOrDefault(PARTITION_PARALLELISM, partitionParallelismDefault.toString()));
+        stateCacheEnabled = Boolean.parseBoolean(props.getOrDefault(STATE_CACHE_ENABLED, stateCacheEnabledDefault.toString()));
+        stateStore = parseEnum(StateStores.class, props, STATE_STORE, stateStoreDefault);
+        zookeeperConnect = props.getOrDefault(ZOOKEEPER_CONNECT, zookeeperConnectDefault);
+        zookeeperPath = props.getOrDefault(ZOOKEEPER_PATH, zookeeperPathDefault);
+        redisUri = props.getOrDefault(REDIS_URI, redisUriDefault);
+        redisCluster = Boolean.parseBoolean(props.getOrDefault(REDIS_CLUSTER, redisClusterDefault.toString()));
+        stateWalDir = props.getOrDefault(STATE_WAL_DIR, stateWalDirDefault);
+        stateWalEntries = Integer.parseInt(props.getOrDefault(STATE_WAL_ENTRIES, stateWalEntriesDefault.toString()));
+        insertDeduplicationToken = Boolean.parseBoolean(props.getOrDefault(INSERT_DEDUPLICATION_TOKEN, insertDeduplicationTokenDefault.toString()));
+        exactlyOnceBatchOffsets = Integer.parseInt(props.getOrDefault(EXACTLY_ONCE_BATCH_OFFSETS, exactlyOnceBatchOffsetsDefault.toString()));
+        exactlyOnceBatchTimeoutMs = Integer.parseInt(props.getOrDefault(EXACTLY_ONCE_BATCH_TIMEOUT_MS, exactlyOnceBatchTimeoutMsDefault.toString()));
+        parallelConversionThreshold = Integer.parseInt(props.getOrDefault(PARALLEL_CONVERSION_THRESHOLD, parallelConversionThresholdDefault.toString()));
+        rawJsonInsertFormat = parseEnum(RawJsonInsertFormats.class, props, RAW_JSON_INSERT_FORMAT, rawJsonInsertFormatDefault);
+        avroSchemaPath = props.getOrDefault(AVRO_SCHEMA_PATH, avroSchemaPathDefault).trim();
+        traceSampleInterval = Integer.parseInt(props.getOrDefault(TRACE_SAMPLE_INTERVAL, traceSampleIntervalDefault.toString()));
+        metricsPort = Integer.parseInt(props.getOrDefault(METRICS_PORT, metricsPortDefault.toString()));
+        columnProfileSampleInterval = Integer.parseInt(props.getOrDefault(COLUMN_PROFILE_SAMPLE_INTERVAL, columnProfileSampleIntervalDefault.toString()));
+        serverStatsIntervalMs = Long.parseLong(props.getOrDefault(SERVER_STATS_INTERVAL_MS, serverStatsIntervalMsDefault.toString()));
+        connectorName = props.getOrDefault(CONNECTOR_NAME, connectorNameDefault);
+        taskId = Integer.parseInt(props.getOrDefault(TASK_ID, taskIdDefault.toString()));
         LOGGER.info("exactlyOnce: " + exactlyOnce);
         LOGGER.info("props: " + props);
     }
@@ -221,6 +363,35 @@ public class ClickHouseSinkConfig {
                 ++orderInGroup,
                 ConfigDef.Width.MEDIUM,
                 "shard replica write selection strategy.");
+        configDef.define(SHARD_ROUTING,
+                ConfigDef.Type.STRING,
+                shardRoutingDefault,
+                new EnumValue(ShardRouting.class),
+                ConfigDef.Importance.LOW,
+                "shard routing mode: RECORD or PARTITION",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "shard routing mode. PARTITION keeps every topic partition on a single shard.");
+        configDef.define(SHARD_PARTITION_MAP,
+                ConfigDef.Type.STRING,
+                shardPartitionMapDefault,
+                ConfigDef.Importance.LOW,
+                "explicit topic partition to shard assignment (topic:partition=shardIndex separated with ',')",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.LONG,
+                "explicit shard assignment for PARTITION routing.");
+        configDef.define(SHARD_QUEUE_MAX_RECORDS,
+                ConfigDef.Type.INT,
+                shardQueueMaxRecordsDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "max records queued per shard before its partitions are paused, 0 writes synchronously",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "per shard queue size (records).");
         configDef.define(TIMEOUT_SECONDS,
                 ConfigDef.Type.INT,
                 timeoutSecondsDefault,
@@ -241,6 +412,16 @@ public class ClickHouseSinkConfig {
                 ++orderInGroup,
                 ConfigDef.Width.SHORT,
                 "ClickHouse driver retry");
+        configDef.define(PARTITION_PARALLELISM,
+                ConfigDef.Type.INT,
+                partitionParallelismDefault,
+                ConfigDef.Range.between(1, 64),
+                ConfigDef.Importance.LOW,
+                "number of topic partitions processed in parallel per put, state writes are group committed. default: 1",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "partition parallelism.");
         configDef.define(EXACTLY_ONCE,
                 ConfigDef.Type.BOOLEAN,
                 exactlyOnceDefault,
@@ -251,6 +432,180 @@ public class ClickHouseSinkConfig {
                 ConfigDef.Width.MEDIUM,
                 "enable exactly once semantics.");
 
+        configDef.define(STATE_CACHE_ENABLED,
+                ConfigDef.Type.BOOLEAN,
+                stateCacheEnabledDefault,
+                ConfigDef.Importance.LOW,
+                "serve exactly once state reads from a local write-through cache. default: true",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "enable local state cache.");
+        configDef.define(STATE_STORE,
+                ConfigDef.Type.STRING,
+                stateStoreDefault,
+                new EnumValue(StateStores.class),
+                ConfigDef.Importance.LOW,
+                "exactly once state store: KEEPER_MAP, ZOOKEEPER, REDIS or LOCAL_WAL (single node only). default: KEEPER_MAP",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "exactly once state store.");
+        configDef.define(ZOOKEEPER_CONNECT,
+                ConfigDef.Type.STRING,
+                zookeeperConnectDefault,
+                ConfigDef.Importance.LOW,
+                "Keeper/ZooKeeper connect string (host:port separated with ',') for the ZOOKEEPER state store",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.LONG,
+                "Keeper connect string.");
+        configDef.define(ZOOKEEPER_PATH,
+                ConfigDef.Type.STRING,
+                zookeeperPathDefault,
+                ConfigDef.Importance.LOW,
+                "root znode of the ZOOKEEPER state store",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.MEDIUM,
+                "Keeper root path.");
+        configDef.define(REDIS_URI,
+                ConfigDef.Type.STRING,
+                redisUriDefault,
+                ConfigDef.Importance.LOW,
+                "redis uri(s) for the REDIS state store, cluster seed nodes are separated with ','",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.LONG,
+                "Redis uri.");
+        configDef.define(REDIS_CLUSTER,
+                ConfigDef.Type.BOOLEAN,
+                redisClusterDefault,
+                ConfigDef.Importance.LOW,
+                "connect to a redis cluster. default: false",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "Redis cluster mode.");
+        configDef.define(STATE_WAL_DIR,
+                ConfigDef.Type.STRING,
+                stateWalDirDefault,
+                ConfigDef.Importance.LOW,
+                "directory of the LOCAL_WAL state store",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.MEDIUM,
+                "local state log directory.");
+        configDef.define(STATE_WAL_ENTRIES,
+                ConfigDef.Type.INT,
+                stateWalEntriesDefault,
+                ConfigDef.Range.atLeast(16),
+                ConfigDef.Importance.LOW,
+                "number of LOCAL_WAL log entries before it is compacted into a snapshot",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "local state log size (entries).");
+        configDef.define(INSERT_DEDUPLICATION_TOKEN,
+                ConfigDef.Type.BOOLEAN,
+                insertDeduplicationTokenDefault,
+                ConfigDef.Importance.LOW,
+                "set insert_deduplication_token from topic, partition and offset range of every insert and keep the exactly once state in memory only. " +
+                        "Non replicated tables need non_replicated_deduplication_window. default: false",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "offset based insert deduplication.");
+        configDef.define(EXACTLY_ONCE_BATCH_OFFSETS,
+                ConfigDef.Type.INT,
+                exactlyOnceBatchOffsetsDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "with exactly once, buffer records across puts and insert batches cut every N offsets, 0 inserts every put as is. default: 0",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "exactly once batch size (offsets).");
+        configDef.define(EXACTLY_ONCE_BATCH_TIMEOUT_MS,
+                ConfigDef.Type.INT,
+                exactlyOnceBatchTimeoutMsDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "max time records wait in an incomplete exactly once batch. default: 30000",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "exactly once batch timeout (ms).");
+        configDef.define(PARALLEL_CONVERSION_THRESHOLD,
+                ConfigDef.Type.INT,
+                parallelConversionThresholdDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "puts with at least this many records are converted in chunks on the common fork-join pool (shared with the rest of the worker JVM), e.g. 10000 to opt in. 0 always converts on the task thread. default: 0",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "parallel conversion threshold.");
+        configDef.define(RAW_JSON_INSERT_FORMAT,
+                ConfigDef.Type.STRING,
+                rawJsonInsertFormatDefault,
+                new EnumValue(RawJsonInsertFormats.class),
+                ConfigDef.Importance.LOW,
+                "insert format of JSON String/byte[] values: JSON_EACH_ROW (parsed by ClickHouse) or ROW_BINARY (transcoded by the connector, tables with defaults, dates or 128/256 bit integers stay on JSON_EACH_ROW). default: JSON_EACH_ROW",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "raw JSON insert format.");
+        configDef.define(AVRO_SCHEMA_PATH,
+                ConfigDef.Type.STRING,
+                avroSchemaPathDefault,
+                ConfigDef.Importance.LOW,
+                "directory of Avro schemas ([topic].avsc or [schema id].avsc) used to transcode Avro binary values (ByteArrayConverter) straight into RowBinary, other byte[] values are inserted as raw JSON. default: '' (disabled)",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.LONG,
+                "Avro schema path.");
+        configDef.define(TRACE_SAMPLE_INTERVAL,
+                ConfigDef.Type.INT,
+                traceSampleIntervalDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "one put out of traceSampleInterval is traced stage by stage (conversion, state, encoding, send...), logged and kept in the task MBean. 0 disables it. default: 100",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "trace sample interval.");
+        configDef.define(METRICS_PORT,
+                ConfigDef.Type.INT,
+                metricsPortDefault,
+                ConfigDef.Range.between(0, 65535),
+                ConfigDef.Importance.LOW,
+                "port of the HTTP endpoint (/metrics) serving the connector metrics in OpenMetrics format, shared by the tasks of a worker. 0 disables it. default: 0",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "metrics port.");
+        configDef.define(COLUMN_PROFILE_SAMPLE_INTERVAL,
+                ConfigDef.Type.INT,
+                columnProfileSampleIntervalDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "one row out of columnProfileSampleInterval of the RowBinary inserts is profiled column by column (encoding time & bytes), exposed in a profile MBean per table and logged when the task stops. 0 disables it. default: 0",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "column profile sample interval.");
+        configDef.define(SERVER_STATS_INTERVAL_MS,
+                ConfigDef.Type.LONG,
+                serverStatsIntervalMsDefault,
+                ConfigDef.Range.atLeast(0),
+                ConfigDef.Importance.LOW,
+                "interval in ms at which the elapsed time, memory usage and parts created of the recent inserts are read from system.query_log & system.part_log (joined on the query ids of the inserts) into the topic MBeans. 0 disables it. default: 0",
+                group,
+                ++orderInGroup,
+                ConfigDef.Width.SHORT,
+                "server stats interval.");
+
         return configDef;
     }
     public String getEndpointsRaw() { return endpoints; }
@@ -266,13 +621,14 @@ public class ClickHouseSinkConfig {
         Arrays.sort(eps); // Consistently sort endpoints.
         return Arrays.asList(eps);
     }
-    public Set<String[]> getShards() {
-        Set<String[]> shardsSet = new HashSet<>();
+    public List<String[]> getShards() {
+        // Keep the configured order, shard indexes must be stable for partition routing.
+        List<String[]> shardsList = new ArrayList<>();
         String[] replicas = shards.split(";");
         for (String rep : replicas){
-            shardsSet.add(rep.split(","));
+            shardsList.add(rep.split(","));
         }
-        return shardsSet;
+        return shardsList;
     }
     public String getHostname() {
         return hostname;
@@ -298,6 +654,10 @@ public class ClickHouseSinkConfig {
         return sslEnabled;
     }
     public String getHashFunctionName() {return hashFunctionName; }
+    public ShardRouting getShardRouting() { return shardRouting; }
+    public Map<TopicPartition, Integer> getShardPartitionMap() { return shardPartitionMap; }
+    public int getShardQueueMaxRecords() { return shardQueueMaxRecords; }
+    public int getPartitionParallelism() { return partitionParallelism; }
     public String getShardReplicaWriteSelection() {return shardReplicaWriteSelection;}
 
     public int getTimeout() {
@@ -305,6 +665,53 @@ public class ClickHouseSinkConfig {
     }
     public int getRetry() { return retry; }
     public boolean getExactlyOnce() { return exactlyOnce; }
+    public boolean isStateCacheEnabled() { return stateCacheEnabled; }
+    public StateStores getStateStore() { return stateStore; }
+    public String getZooKeeperConnect() { return zookeeperConnect; }
+    public String getZooKeeperPath() { return zookeeperPath; }
+    public String getRedisUri() { return redisUri; }
+    public boolean isRedisCluster() { return redisCluster; }
+    public String getStateWalDir() { return stateWalDir; }
+    public int getStateWalEntries() { return stateWalEntries; }
+    public boolean isInsertDeduplicationToken() { return insertDeduplicationToken; }
+    public int getExactlyOnceBatchOffsets() { return exactlyOnceBatchOffsets; }
+    public int getExactlyOnceBatchTimeoutMs() { return exactlyOnceBatchTimeoutMs; }
+    public int getParallelConversionThreshold() { return parallelConversionThreshold; }
+    public RawJsonInsertFormats getRawJsonInsertFormat() { return rawJsonInsertFormat; }
+    public String getAvroSchemaPath() { return avroSchemaPath; }
+    public int getTraceSampleInterval() { return traceSampleInterval; }
+    public int getMetricsPort() { return metricsPort; }
+    public int getColumnProfileSampleInterval() { return columnProfileSampleInterval; }
+    public long getServerStatsIntervalMs() { return serverStatsIntervalMs; }
+    public String getConnectorName() { return connectorName; }
+    public int getTaskId() { return taskId; }
+
+    /**
+     * Parses "topic:partition=shardIndex" entries separated with ','
+     */
+    private static Map<TopicPartition, Integer> parseShardPartitionMap(String value) {
+        Map<TopicPartition, Integer> partitionMap = new HashMap<>();
+        for (String entry : value.split(",")) {
+            String assignment = entry.strip();
+            if (assignment.isEmpty()) {
+                continue;
+            }
+            int colon = assignment.lastIndexOf(':');
+            int equals = assignment.lastIndexOf('=');
+            if (colon <= 0 || equals < colon) {
+                throw new ConfigException(SHARD_PARTITION_MAP, value, "Expected topic:partition=shardIndex but got " + assignment);
+            }
+            try {
+                String topic = assignment.substring(0, colon).strip();
+                int partition = Integer.parseInt(assignment.substring(colon + 1, equals).strip());
+                int shardIndex = Integer.parseInt(assignment.substring(equals + 1).strip());
+                partitionMap.put(new TopicPartition(topic, partition), shardIndex);
+            } catch (NumberFormatException e) {
+                throw new ConfigException(SHARD_PARTITION_MAP, value, "Expected topic:partition=shardIndex but got " + assignment);
+            }
+        }
+        return partitionMap;
+    }
 
     public void updateHostNameAndPort(String hostnameAndPort) {
         if (hostnameAndPort.contains(":")) {
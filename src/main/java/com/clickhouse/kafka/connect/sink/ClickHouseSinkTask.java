@@ -2,7 +2,9 @@ package com.clickhouse.kafka.connect.sink;
 
 import com.clickhouse.kafka.connect.sink.db.helper.ClickHouseHelperClient;
 import com.clickhouse.kafka.connect.sink.dlq.ErrorReporter;
+import com.clickhouse.kafka.connect.sink.hashing.PartitionHash;
 import com.clickhouse.kafka.connect.sink.hashing.RecordHash;
+import com.clickhouse.kafka.connect.util.jfr.ShardRoutingEvent;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.errors.ConnectException;
@@ -22,8 +24,11 @@ public class ClickHouseSinkTask extends SinkTask {
     private static final Logger LOGGER = LoggerFactory.getLogger(ClickHouseSinkTask.class);
 
     private List<ProxySinkTask> proxySinkTasks = new ArrayList<>();
+    private List<ShardWriter> shardWriters = new ArrayList<>();
     private int numConnections;
     private String hashFunctionName;
+    private ClickHouseSinkConfig.ShardRouting shardRouting;
+    private Map<TopicPartition, Integer> shardPartitionMap;
 
     @Override
     public String version() {
@@ -69,6 +74,29 @@ public class ClickHouseSinkTask extends SinkTask {
             this.proxySinkTasks.add(new ProxySinkTask(clickHouseSinkConfig, createErrorReporter()));
             this.numConnections = 1;
         }
+        this.shardRouting = clickHouseSinkConfig.getShardRouting();
+        this.shardPartitionMap = clickHouseSinkConfig.getShardPartitionMap();
+        if (this.numConnections > 1) {
+            for (Map.Entry<TopicPartition, Integer> entry : this.shardPartitionMap.entrySet()) {
+                if (entry.getValue() < 0 || entry.getValue() >= this.numConnections) {
+                    throw new ConnectException(String.format("Shard index %d for %s is out of range, only %d connections are available",
+                            entry.getValue(), entry.getKey(), this.numConnections));
+                }
+            }
+            if (clickHouseSinkConfig.getExactlyOnce() && this.shardRouting == ClickHouseSinkConfig.ShardRouting.RECORD) {
+                LOGGER.warn("exactlyOnce with RECORD shard routing splits a partition over several shards, use PARTITION routing instead.");
+            }
+            if (clickHouseSinkConfig.getShardQueueMaxRecords() > 0) {
+                // Offsets are committed per partition, so a partition must belong to a single shard
+                if (this.shardRouting != ClickHouseSinkConfig.ShardRouting.PARTITION) {
+                    throw new ConnectException(String.format("%s requires %s=PARTITION",
+                            ClickHouseSinkConfig.SHARD_QUEUE_MAX_RECORDS, ClickHouseSinkConfig.SHARD_ROUTING));
+                }
+                for (int i = 0; i < this.proxySinkTasks.size(); i++) {
+                    this.shardWriters.add(new ShardWriter(this.proxySinkTasks.get(i), clickHouseSinkConfig.getShardQueueMaxRecords(), i));
+                }
+            }
+        }
     }
 
 
@@ -76,24 +104,119 @@ public class ClickHouseSinkTask extends SinkTask {
     public void put(Collection<SinkRecord> records) {
         if (this.numConnections ==1){
             this.proxySinkTasks.get(this.proxySinkTasks.size()-1).put(records);
+        } else if (this.numConnections >1 && !this.shardWriters.isEmpty()) {
+            putQueued(records);
         } else if (this.numConnections >1) {
-            List<Collection<SinkRecord>> split_records = consistentSplitting(records, this.proxySinkTasks.size());
+            List<Collection<SinkRecord>> split_records = this.shardRouting == ClickHouseSinkConfig.ShardRouting.PARTITION
+                    ? partitionSplitting(records, this.proxySinkTasks.size())
+                    : consistentSplitting(records, this.proxySinkTasks.size());
             for (int i = 0; i < this.proxySinkTasks.size(); i++) {
+                ShardRoutingEvent event = new ShardRoutingEvent();
+                event.begin();
                 this.proxySinkTasks.get(i).put(split_records.get(i));
+                commit(event, this.shardRouting, i, split_records.get(i).size(), false, false);
             }
         } else {
             LOGGER.error("no sink connections are found");
         }
     }
 
+    /**
+     * Hands the records over to the shard queues. Shards over their high watermark get their partitions paused,
+     * and resumed once they drained, the other shards keep going.
+     */
+    private void putQueued(Collection<SinkRecord> records) {
+        for (ShardWriter shardWriter : this.shardWriters) {
+            if (shardWriter.getFailure() != null) {
+                throw new ConnectException("Shard writer failed", shardWriter.getFailure());
+            }
+            if (shardWriter.isPaused() && shardWriter.isDrained()) {
+                LOGGER.info(String.format("Resuming %d partitions, shard queue drained to %d records", shardWriter.getPartitions().size(), shardWriter.getQueuedRecords()));
+                context.resume(shardWriter.getPartitions().toArray(new TopicPartition[0]));
+                shardWriter.setPaused(false);
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        List<Collection<SinkRecord>> split_records = partitionSplitting(records, this.shardWriters.size());
+        for (int i = 0; i < this.shardWriters.size(); i++) {
+            ShardWriter shardWriter = this.shardWriters.get(i);
+            ShardRoutingEvent event = new ShardRoutingEvent();
+            event.begin();
+            List<TopicPartition> added = shardWriter.enqueue(split_records.get(i));
+            boolean paused = false;
+            if (shardWriter.isPaused() && !added.isEmpty()) {
+                // Assigned after the shard was paused, held back like its other partitions
+                context.pause(added.toArray(new TopicPartition[0]));
+            }
+            if (!shardWriter.isPaused() && shardWriter.isFull()) {
+                LOGGER.warn(String.format("Pausing %d partitions, shard queue is full with %d records", shardWriter.getPartitions().size(), shardWriter.getQueuedRecords()));
+                context.pause(shardWriter.getPartitions().toArray(new TopicPartition[0]));
+                shardWriter.setPaused(true);
+                paused = true;
+            }
+            commit(event, ClickHouseSinkConfig.ShardRouting.PARTITION, i, split_records.get(i).size(), true, paused);
+        }
+    }
+
+    private void commit(ShardRoutingEvent event, ClickHouseSinkConfig.ShardRouting routing, int shard, int records, boolean queued, boolean paused) {
+        if (event.shouldCommit()) {
+            event.routing = routing.name();
+            event.shard = shard;
+            event.shards = this.numConnections;
+            event.records = records;
+            event.queued = queued;
+            event.paused = paused;
+            event.commit();
+        }
+    }
+
     // TODO: can be removed ss
     @Override
     public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
         LOGGER.trace("Test");
     }
 
+    /**
+     * Commits per partition only what was written to ClickHouse, records still queued for a shard are not committed.
+     */
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        Map<TopicPartition, OffsetAndMetadata> committedOffsets = new HashMap<>();
+        for (TopicPartition topicPartition : currentOffsets.keySet()) {
+            long flushedOffset = -1;
+            for (ProxySinkTask task : this.proxySinkTasks) {
+                flushedOffset = Math.max(flushedOffset, task.getFlushedOffset(topicPartition));
+            }
+            if (flushedOffset >= 0) {
+                committedOffsets.put(topicPartition, new OffsetAndMetadata(flushedOffset + 1));
+            }
+        }
+        return committedOffsets;
+    }
+
+    @Override
+    public void open(Collection<TopicPartition> partitions) {
+        for (ProxySinkTask task : this.proxySinkTasks) { task.open(partitions); }
+    }
+
+    /**
+     * Returns once nothing of the revoked partitions is queued or being written anymore.
+     */
+    @Override
+    public void close(Collection<TopicPartition> partitions) {
+        if (!this.shardWriters.isEmpty()) {
+            // Every ProxySinkTask has its writer, which closes it between two batches
+            for (ShardWriter shardWriter : this.shardWriters) { shardWriter.close(partitions); }
+            return;
+        }
+        for (ProxySinkTask task : this.proxySinkTasks) { task.close(partitions); }
+    }
+
     @Override
     public void stop() {
+        for (ShardWriter shardWriter : this.shardWriters) { shardWriter.stop(); }
         for (ProxySinkTask task : this.proxySinkTasks) { task.stop(); }
     }
 
@@ -102,8 +225,11 @@ public class ClickHouseSinkTask extends SinkTask {
     }
 
 
+    /**
+     * @return null when records can't be reported, so they don't have to be kept after conversion
+     */
     private ErrorReporter createErrorReporter() {
-        ErrorReporter result = devNullErrorReporter();
+        ErrorReporter result = null;
         if (context != null) {
             try {
                 ErrantRecordReporter errantRecordReporter = context.errantRecordReporter();
@@ -120,11 +246,6 @@ public class ClickHouseSinkTask extends SinkTask {
         return result;
     }
 
-    static ErrorReporter devNullErrorReporter() {
-        return (record, e) -> {
-        };
-    }
-
     private List<Collection<SinkRecord>> consistentSplitting(Collection<SinkRecord> records, int n_splits) {
         assert n_splits > 0;
         List<Collection<SinkRecord>> buckets = new ArrayList<>();
@@ -157,6 +278,37 @@ public class ClickHouseSinkTask extends SinkTask {
         return buckets;
     }
 
+    /**
+     * Routes whole topic partitions, either from the explicit map or by consistent hashing of the partition.
+     * Records keep their offset order inside each bucket.
+     */
+    private List<Collection<SinkRecord>> partitionSplitting(Collection<SinkRecord> records, int n_splits) {
+        assert n_splits > 0;
+        List<Collection<SinkRecord>> buckets = new ArrayList<>();
+        for (int i=0;i<n_splits; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (SinkRecord record : records) {
+            int index = shardIndex(record.topic(), record.kafkaPartition(), n_splits);
+            if (index < 0){
+                LOGGER.error("Partition hash bucket return "+index+" for record "+record);
+                continue;
+            }
+            buckets.get(index).add(record);
+        }
+        return buckets;
+    }
+
+    private int shardIndex(String topic, int partition, int n_splits) {
+        if (!this.shardPartitionMap.isEmpty()) {
+            Integer index = this.shardPartitionMap.get(new TopicPartition(topic, partition));
+            if (index != null) {
+                return index;
+            }
+        }
+        return PartitionHash.getBucketIndex(topic, partition, n_splits);
+    }
+
     private boolean isResponsive(ClickHouseSinkConfig csc) {
         ClickHouseHelperClient chc = new ClickHouseHelperClient.ClickHouseClientBuilder(csc.getHostname(), csc.getPort())
                 .setDatabase(csc.getDatabase())
@@ -1,25 +1,54 @@
 package com.clickhouse.kafka.connect.sink;
 
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.convert.AvroRecordConvertor;
+import com.clickhouse.kafka.connect.sink.data.convert.ParallelRecordConvertor;
+import com.clickhouse.kafka.connect.sink.data.convert.RecordConvertor;
 import com.clickhouse.kafka.connect.sink.db.ClickHouseWriter;
 import com.clickhouse.kafka.connect.sink.db.DBWriter;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import com.clickhouse.kafka.connect.sink.dlq.ErrorReporter;
+import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
+import com.clickhouse.kafka.connect.sink.kafka.TopicPartitionKey;
+import com.clickhouse.kafka.connect.sink.processing.PartitionBuffer;
 import com.clickhouse.kafka.connect.sink.processing.Processing;
 import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.provider.CachingStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.GroupCommitStateProvider;
 import com.clickhouse.kafka.connect.sink.state.provider.InMemoryState;
 import com.clickhouse.kafka.connect.sink.state.provider.KeeperStateProvider;
-import com.clickhouse.kafka.connect.util.jmx.MBeanServerUtils;
+import com.clickhouse.kafka.connect.sink.state.provider.LocalWalStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.RedisStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.TimedStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.WriteBehindStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.ZooKeeperStateProvider;
+import com.clickhouse.kafka.connect.util.LongObjectHashMap;
+import com.clickhouse.kafka.connect.util.jmx.OpenMetricsServer;
+import com.clickhouse.kafka.connect.util.jmx.PipelineTrace;
 import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import com.clickhouse.kafka.connect.util.jmx.Stage;
 import com.clickhouse.kafka.connect.util.jmx.Timer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class ProxySinkTask {
 
@@ -28,27 +57,116 @@ public class ProxySinkTask {
     private Processing processing = null;
     private StateProvider stateProvider = null;
     private DBWriter dbWriter = null;
+    private ExecutorService partitionExecutor = null;
+    private CachingStateProvider stateCache = null;
+    // Only set while exactly once batches are buffered across puts
+    private Map<TopicPartition, PartitionBuffer> partitionBuffers = null;
+    private long batchOffsets;
+    private long batchTimeoutMs;
+    // Per topic & partition record lists reused across puts, keyed by TopicPartitionKey. Not thread-safe, every
+    // access holds its lock since close may run on another thread than put
+    private final LongObjectHashMap<List<Record>> partitionRecords = new LongObjectHashMap<>();
+    // Lists of partitionRecords filled by the current put, in order of first appearance
+    private final List<List<Record>> groupedRecords = new ArrayList<>();
 
 
     private final SinkTaskStatistics statistics;
+    // Whether this task holds a reference on the shared metrics endpoint
+    private final boolean metricsServed;
     private int id = NEXT_ID.getAndAdd(1);
+    // Highest offset per partition that went through processing, read by ClickHouseSinkTask.preCommit
+    private final Map<TopicPartition, Long> flushedOffsets = new ConcurrentHashMap<>();
+    // Records are only kept whole when failures can be reported
+    private final boolean keepSinkRecords;
+    private final int parallelConversionThreshold;
+    private final RecordConvertor recordConvertor;
 
     public ProxySinkTask(final ClickHouseSinkConfig clickHouseSinkConfig, final ErrorReporter errorReporter) {
+        this(clickHouseSinkConfig, errorReporter, null);
+    }
+
+    /**
+     * @param writerOverride null to insert into the ClickHouse of the config
+     */
+    ProxySinkTask(final ClickHouseSinkConfig clickHouseSinkConfig, final ErrorReporter errorReporter, final DBWriter writerOverride) {
+        this.statistics = new SinkTaskStatistics(clickHouseSinkConfig.getTraceSampleInterval());
         LOGGER.info(String.format("enable ExactlyOnce %s", Boolean.toString(clickHouseSinkConfig.getExactlyOnce())));
-        if ( clickHouseSinkConfig.getExactlyOnce() ) {
-            this.stateProvider = new KeeperStateProvider(clickHouseSinkConfig);
+        if ( clickHouseSinkConfig.getExactlyOnce() && clickHouseSinkConfig.isInsertDeduplicationToken() ) {
+            // Retries are deduplicated by ClickHouse, the state machine only needs to survive within this task
+            LOGGER.info("exactly once through insert_deduplication_token, state is kept in memory");
+            this.stateProvider = new InMemoryState();
+        } else if ( clickHouseSinkConfig.getExactlyOnce() ) {
+            LOGGER.info(String.format("state store %s", clickHouseSinkConfig.getStateStore()));
+            switch (clickHouseSinkConfig.getStateStore()) {
+                case ZOOKEEPER:
+                    this.stateProvider = new ZooKeeperStateProvider(clickHouseSinkConfig);
+                    break;
+                case REDIS:
+                    this.stateProvider = new RedisStateProvider(clickHouseSinkConfig);
+                    break;
+                case LOCAL_WAL:
+                    this.stateProvider = LocalWalStateProvider.open(Paths.get(clickHouseSinkConfig.getStateWalDir()), clickHouseSinkConfig.getStateWalEntries());
+                    break;
+                case KEEPER_MAP:
+                    this.stateProvider = new KeeperStateProvider(clickHouseSinkConfig);
+                    break;
+                default:
+                    throw new ConnectException(String.format("State store %s is not supported for exactly once", clickHouseSinkConfig.getStateStore()));
+            }
         } else {
             this.stateProvider = new InMemoryState();
         }
-        this.dbWriter = new ClickHouseWriter();
+        if (clickHouseSinkConfig.getPartitionParallelism() > 1) {
+            // Partitions write their state concurrently, group commit them into batched writes
+            this.stateProvider = new GroupCommitStateProvider(this.stateProvider);
+            AtomicInteger threadId = new AtomicInteger();
+            this.partitionExecutor = Executors.newFixedThreadPool(clickHouseSinkConfig.getPartitionParallelism(), runnable -> {
+                Thread thread = new Thread(runnable, String.format("clickhouse-sink-task-%d-partition-%d", id, threadId.getAndIncrement()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else if (clickHouseSinkConfig.getExactlyOnce()) {
+            // Partitions are processed one after the other, fold each AFTER write into the next write
+            this.stateProvider = new WriteBehindStateProvider(this.stateProvider);
+        }
+        if (clickHouseSinkConfig.getExactlyOnce() && !clickHouseSinkConfig.isInsertDeduplicationToken() && clickHouseSinkConfig.isStateCacheEnabled()) {
+            this.stateCache = new CachingStateProvider(this.stateProvider);
+            this.stateProvider = this.stateCache;
+        }
+        this.stateProvider = new TimedStateProvider(this.stateProvider, statistics);
+        if (clickHouseSinkConfig.getExactlyOnce() && clickHouseSinkConfig.getExactlyOnceBatchOffsets() > 0) {
+            LOGGER.info(String.format("buffering exactly once batches of %d offsets (timeout %d ms)", clickHouseSinkConfig.getExactlyOnceBatchOffsets(), clickHouseSinkConfig.getExactlyOnceBatchTimeoutMs()));
+            this.partitionBuffers = new ConcurrentHashMap<>();
+            this.batchOffsets = clickHouseSinkConfig.getExactlyOnceBatchOffsets();
+            this.batchTimeoutMs = clickHouseSinkConfig.getExactlyOnceBatchTimeoutMs();
+        }
+        this.dbWriter = writerOverride != null ? writerOverride : new ClickHouseWriter(statistics, clickHouseSinkConfig.getConnectorName() + "-" + clickHouseSinkConfig.getTaskId());
 
         // Add dead letter queue
         boolean isStarted = dbWriter.start(clickHouseSinkConfig);
         if (!isStarted)
             throw new RuntimeException("Connection to ClickHouse is not active.");
-        processing = new Processing(stateProvider, dbWriter, errorReporter);
+        this.keepSinkRecords = errorReporter != null;
+        this.parallelConversionThreshold = clickHouseSinkConfig.getParallelConversionThreshold();
+        if (clickHouseSinkConfig.getAvroSchemaPath().isEmpty()) {
+            this.recordConvertor = Record::convert;
+        } else {
+            LOGGER.info(String.format("transcoding Avro binary values with the schemas of %s", clickHouseSinkConfig.getAvroSchemaPath()));
+            this.recordConvertor = new AvroRecordConvertor(Paths.get(clickHouseSinkConfig.getAvroSchemaPath()));
+        }
+        ErrorReporter countingErrorReporter = null;
+        if (errorReporter != null) {
+            countingErrorReporter = (record, e) -> {
+                Timer dlqTime = Timer.start();
+                errorReporter.report(record, e);
+                statistics.dlqRecord(record.topic());
+                statistics.stage(Stage.DLQ, dlqTime);
+            };
+        }
+        processing = new Processing(stateProvider, dbWriter, countingErrorReporter, statistics);
 
-        this.statistics = MBeanServerUtils.registerMBean(new SinkTaskStatistics(), getMBeanNAme());
+        this.statistics.register(getMBeanNAme());
+        this.metricsServed = clickHouseSinkConfig.getMetricsPort() > 0 && OpenMetricsServer.acquire(clickHouseSinkConfig.getMetricsPort());
     }
 
     private String getMBeanNAme() {
@@ -56,29 +174,264 @@ public class ProxySinkTask {
     }
 
     public void stop() {
-        MBeanServerUtils.unregisterMBean(getMBeanNAme());
+        if (partitionExecutor != null) {
+            partitionExecutor.shutdownNow();
+        }
+        if (partitionBuffers != null) {
+            partitionBuffers.clear();
+        }
+        stateProvider.stop();
+        dbWriter.stop();
+        String columnProfiles = statistics.dumpColumnProfiles();
+        if (!columnProfiles.isEmpty()) {
+            LOGGER.info("Column profiles:\n" + columnProfiles);
+        }
+        statistics.unregister();
+        if (metricsServed) {
+            OpenMetricsServer.release();
+        }
+    }
+
+    /**
+     * @return the highest processed offset of the partition or -1 if we haven't processed any of its records
+     */
+    public long getFlushedOffset(TopicPartition topicPartition) {
+        return flushedOffsets.getOrDefault(topicPartition, -1L);
+    }
+
+    public void open(final Collection<TopicPartition> partitions) {
+        if (stateCache != null) {
+            stateCache.invalidate(partitions);
+        }
+    }
+
+    /**
+     * Forgets the revoked partitions, so we never commit a stale offset if they come back later.
+     */
+    public void close(final Collection<TopicPartition> partitions) {
+        partitions.forEach(flushedOffsets::remove);
+        partitions.forEach(statistics::removePartition);
+        synchronized (partitionRecords) {
+            partitions.forEach(tp -> partitionRecords.remove(TopicPartitionKey.of(tp.topic(), tp.partition())));
+        }
+        if (partitionBuffers != null) {
+            // Not committed, they are redelivered to the next owner
+            partitions.forEach(partitionBuffers::remove);
+        }
+        if (stateCache != null) {
+            stateCache.invalidate(partitions);
+        }
     }
 
     public void put(final Collection<SinkRecord> records) {
-        if (records.isEmpty()) {
+        if (records.isEmpty() && (partitionBuffers == null || partitionBuffers.isEmpty())) {
             LOGGER.trace("No records send to SinkTask");
             return;
         }
-        // Group by topic & partition
         Timer taskTime = Timer.start();
         statistics.receivedRecords(records.size());
         LOGGER.trace(String.format("Got %d records from put API.", records.size()));
-        Timer processingTime = Timer.start();
-        Map<String, List<Record>> dataRecords = records.stream()
-                .map(v -> Record.convert(v))
-                .collect(Collectors.groupingBy(Record::getTopicAndPartition));
-        statistics.recordProcessingTime(processingTime);
-        // TODO - Multi process???
-        for (String topicAndPartition : dataRecords.keySet()) {
-            // Running on etch topic & partition
-            List<Record> rec = dataRecords.get(topicAndPartition);
-            processing.doLogic(rec);
+        PipelineTrace trace = statistics.startTrace(records.size());
+        PipelineTrace.attach(trace);
+        try {
+            // Group by topic & partition
+            Timer processingTime = Timer.start();
+            List<List<Record>> dataRecords;
+            synchronized (partitionRecords) {
+                dataRecords = groupByPartition(records);
+            }
+            statistics.recordProcessingTime(processingTime);
+            for (List<Record> rec : dataRecords) {
+                OffsetContainer first = rec.get(0).getRecordOffsetContainer();
+                statistics.receivedRecords(first.getTopic(), rec.size());
+                long minOffset = Long.MAX_VALUE;
+                long maxOffset = -1;
+                for (Record record : rec) {
+                    long offset = record.getRecordOffsetContainer().getOffset();
+                    minOffset = Math.min(minOffset, offset);
+                    maxOffset = Math.max(maxOffset, offset);
+                }
+                statistics.partition(first.getTopic(), first.getPartition()).received(minOffset, maxOffset);
+            }
+            // Batches to insert per topic & partition, in order
+            Map<TopicPartition, List<List<Record>>> batches = new LinkedHashMap<>();
+            Map<TopicPartition, StateRecord> stateRecords;
+            if (partitionBuffers == null) {
+                Timer groupingTime = Timer.start();
+                for (List<Record> rec : dataRecords) {
+                    batches.put(topicPartition(rec), Collections.singletonList(Processing.inOffsetOrder(rec)));
+                }
+                statistics.stage(Stage.GROUPING, groupingTime);
+                // Fetch the state of every partition in one go instead of a round-trip per partition
+                stateRecords = stateProvider.getStateRecords(batches.keySet());
+            } else {
+                stateRecords = cutBufferedBatches(dataRecords, batches);
+            }
+            if (partitionExecutor != null && batches.size() > 1) {
+                processInParallel(batches, stateRecords, trace);
+            } else {
+                for (Map.Entry<TopicPartition, List<List<Record>>> entry : batches.entrySet()) {
+                    // Running on etch topic & partition
+                    processPartition(entry.getValue(), stateRecords.get(entry.getKey()));
+                }
+            }
+            stateProvider.flush();
+        } catch (RetriableException e) {
+            // The put is retried, by Connect or by the shard writer
+            statistics.retry();
+            throw e;
+        } finally {
+            // Keep the lists (and their capacity) for the next put, but not the records
+            groupedRecords.forEach(List::clear);
+            groupedRecords.clear();
+            PipelineTrace.detach(trace);
+            statistics.finishTrace(trace, taskTime);
         }
         statistics.taskProcessingTime(taskTime);
     }
+
+    /**
+     * Converts the records into the reused per topic & partition lists, without building a String key per record.
+     *
+     * @return the non empty lists, in order of first appearance
+     */
+    private List<List<Record>> groupByPartition(Collection<SinkRecord> records) {
+        // Most puts bring the same partitions again, new lists start at the average size of the known ones
+        int expectedSize = Math.max(16, records.size() / Math.max(1, partitionRecords.size()));
+        Timer conversionTime = Timer.start();
+        if (parallelConversionThreshold > 0 && records.size() >= parallelConversionThreshold) {
+            // Only the conversion runs in parallel, records are added in their original order
+            Record[] converted = ParallelRecordConvertor.convert(records.toArray(new SinkRecord[0]), dbWriter::getTable, keepSinkRecords, recordConvertor);
+            statistics.stage(Stage.CONVERSION, conversionTime);
+            Timer groupingTime = Timer.start();
+            for (Record record : converted) {
+                addToPartition(record, expectedSize);
+            }
+            statistics.stage(Stage.GROUPING, groupingTime);
+            return groupedRecords;
+        }
+        String topic = null;
+        Table table = null;
+        for (SinkRecord sinkRecord : records) {
+            if (!sinkRecord.topic().equals(topic)) {
+                // Records mostly come topic after topic, only look the table up when the topic changes
+                topic = sinkRecord.topic();
+                table = dbWriter.getTable(topic);
+            }
+            addToPartition(recordConvertor.convert(sinkRecord, table, keepSinkRecords), expectedSize);
+        }
+        // Adding to the partition lists is cheap next to the conversion, it isn't timed on its own here
+        statistics.stage(Stage.CONVERSION, conversionTime);
+        return groupedRecords;
+    }
+
+    private void addToPartition(Record record, int expectedSize) {
+        OffsetContainer offsetContainer = record.getRecordOffsetContainer();
+        long key = TopicPartitionKey.of(offsetContainer.getTopic(), offsetContainer.getPartition());
+        List<Record> rec = partitionRecords.get(key);
+        if (rec == null) {
+            rec = new ArrayList<>(expectedSize);
+            partitionRecords.put(key, rec);
+        }
+        if (rec.isEmpty()) {
+            groupedRecords.add(rec);
+        }
+        rec.add(record);
+    }
+
+    /**
+     * Adds the records to the partition buffers and moves the batches that are ready into batches.
+     *
+     * @return the state of the buffered partitions
+     */
+    private Map<TopicPartition, StateRecord> cutBufferedBatches(Collection<List<Record>> partitions, Map<TopicPartition, List<List<Record>>> batches) {
+        long now = System.currentTimeMillis();
+        Timer groupingTime = Timer.start();
+        for (List<Record> rec : partitions) {
+            partitionBuffers.computeIfAbsent(topicPartition(rec), tp -> new PartitionBuffer(batchOffsets, batchTimeoutMs)).add(rec, now);
+        }
+        statistics.stage(Stage.GROUPING, groupingTime);
+        List<TopicPartition> buffered = new ArrayList<>();
+        for (Map.Entry<TopicPartition, PartitionBuffer> entry : partitionBuffers.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                buffered.add(entry.getKey());
+            }
+        }
+        Map<TopicPartition, StateRecord> stateRecords = stateProvider.getStateRecords(buffered);
+        for (TopicPartition topicPartition : buffered) {
+            List<List<Record>> ready = partitionBuffers.get(topicPartition).cut(stateRecords.get(topicPartition), now);
+            if (!ready.isEmpty()) {
+                batches.put(topicPartition, ready);
+            }
+        }
+        return stateRecords;
+    }
+
+    private static TopicPartition topicPartition(List<Record> rec) {
+        OffsetContainer first = rec.get(0).getRecordOffsetContainer();
+        return new TopicPartition(first.getTopic(), first.getPartition());
+    }
+
+    /**
+     * @param stateRecord state of the partition before the first batch, the following batches read the state again
+     */
+    private void processPartition(List<List<Record>> batches, StateRecord stateRecord) {
+        for (List<Record> rec : batches) {
+            if (stateRecord != null) {
+                processing.doLogic(rec, stateRecord);
+                stateRecord = null;
+            } else {
+                processing.doLogic(rec);
+            }
+            long maxOffset = -1;
+            for (Record record : rec) {
+                maxOffset = Math.max(maxOffset, record.getRecordOffsetContainer().getOffset());
+            }
+            TopicPartition topicPartition = topicPartition(rec);
+            if (partitionBuffers != null) {
+                // Written, the batch can't be cut again
+                PartitionBuffer partitionBuffer = partitionBuffers.get(topicPartition);
+                if (partitionBuffer != null) {
+                    partitionBuffer.release(maxOffset, System.currentTimeMillis());
+                }
+            }
+            flushedOffsets.merge(topicPartition, maxOffset, Math::max);
+            statistics.partition(topicPartition.topic(), topicPartition.partition()).committed(maxOffset);
+        }
+    }
+
+    /**
+     * One partition per thread, a partition is still handled by a single thread at a time.
+     * Waits for every partition before rethrowing the first failure, so nothing overlaps with a redelivery.
+     */
+    private void processInParallel(Map<TopicPartition, List<List<Record>>> partitions, Map<TopicPartition, StateRecord> stateRecords, PipelineTrace trace) {
+        List<Future<?>> futures = new ArrayList<>(partitions.size());
+        for (Map.Entry<TopicPartition, List<List<Record>>> entry : partitions.entrySet()) {
+            StateRecord stateRecord = stateRecords.get(entry.getKey());
+            futures.add(partitionExecutor.submit(() -> {
+                PipelineTrace.attach(trace);
+                try {
+                    processPartition(entry.getValue(), stateRecord);
+                } finally {
+                    PipelineTrace.detach(trace);
+                }
+            }));
+        }
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 }
@@ -0,0 +1,261 @@
+package com.clickhouse.kafka.connect.sink;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue and writer thread in front of a single shard's ProxySinkTask.
+ * The task thread enqueues and decides on pause/resume, the writer thread drains the queue,
+ * so a slow shard only holds back the partitions routed to it.
+ * Revoked partitions are closed on the writer thread too, between two batches, so the ProxySinkTask is only ever
+ * used from one thread.
+ */
+public class ShardWriter implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardWriter.class);
+    private static final long MIN_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final ProxySinkTask proxySinkTask;
+    private final int maxQueuedRecords;
+    private final LinkedBlockingDeque<Collection<SinkRecord>> queue = new LinkedBlockingDeque<>();
+    private final AtomicInteger queuedRecords = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Exception failure = null;
+    // Set by the task thread while it waits in close for the writer thread to revoke the partitions
+    private volatile Revocation revocation = null;
+
+    // Only touched from the task thread
+    private final Set<TopicPartition> partitions = new HashSet<>();
+    private boolean paused = false;
+
+    public ShardWriter(ProxySinkTask proxySinkTask, int maxQueuedRecords, int shardIndex) {
+        this.proxySinkTask = proxySinkTask;
+        this.maxQueuedRecords = maxQueuedRecords;
+        this.thread = new Thread(this, "clickhouse-shard-writer-" + shardIndex);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private static class Revocation {
+        private final Set<TopicPartition> partitions;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Revocation(Collection<TopicPartition> partitions) {
+            this.partitions = new HashSet<>(partitions);
+        }
+    }
+
+    /**
+     * @return the partitions this shard didn't have yet, they must be paused as well if the shard is paused
+     */
+    public List<TopicPartition> enqueue(Collection<SinkRecord> records) {
+        List<TopicPartition> added = new ArrayList<>();
+        if (records.isEmpty()) {
+            return added;
+        }
+        String topic = null;
+        int partition = -1;
+        for (SinkRecord record : records) {
+            if (!record.topic().equals(topic) || record.kafkaPartition() != partition) {
+                topic = record.topic();
+                partition = record.kafkaPartition();
+                TopicPartition topicPartition = new TopicPartition(topic, partition);
+                if (partitions.add(topicPartition)) {
+                    added.add(topicPartition);
+                }
+            }
+        }
+        queuedRecords.addAndGet(records.size());
+        queue.add(records);
+        return added;
+    }
+
+    /**
+     * Discards the queued records of the revoked partitions and closes them in the ProxySinkTask. Returns once the
+     * batch being written is done, so nothing of these partitions is inserted after they moved to another task.
+     */
+    public void close(Collection<TopicPartition> revoked) {
+        partitions.removeAll(revoked);
+        Revocation request = new Revocation(revoked);
+        revocation = request;
+        try {
+            while (!request.done.isDone()) {
+                if (!thread.isAlive()) {
+                    // Nothing is written anymore, revoke from here
+                    revoke(request);
+                    break;
+                }
+                try {
+                    request.done.get(100, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Writer still busy with its batch
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        } finally {
+            revocation = null;
+        }
+    }
+
+    private synchronized void revoke(Revocation request) {
+        if (request.done.isDone()) {
+            return;
+        }
+        try {
+            List<Collection<SinkRecord>> kept = new ArrayList<>();
+            queue.drainTo(kept);
+            int discarded = 0;
+            for (Collection<SinkRecord> records : kept) {
+                List<SinkRecord> remaining = new ArrayList<>(records.size());
+                for (SinkRecord record : records) {
+                    if (request.partitions.contains(new TopicPartition(record.topic(), record.kafkaPartition()))) {
+                        discarded++;
+                    } else {
+                        remaining.add(record);
+                    }
+                }
+                if (!remaining.isEmpty()) {
+                    queue.add(remaining);
+                }
+            }
+            queuedRecords.addAndGet(-discarded);
+            if (discarded > 0) {
+                LOGGER.info(String.format("%s discarded %d queued records of revoked partitions, they will be redelivered", thread.getName(), discarded));
+            }
+            proxySinkTask.close(request.partitions);
+            request.done.complete(null);
+        } catch (RuntimeException e) {
+            request.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Above the high watermark the partitions of this shard should be paused.
+     */
+    public boolean isFull() {
+        return queuedRecords.get() >= maxQueuedRecords;
+    }
+
+    /**
+     * Resume only once the queue drained below half of its capacity, so we don't flap between pause and resume.
+     */
+    public boolean isDrained() {
+        return queuedRecords.get() <= maxQueuedRecords / 2;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public Set<TopicPartition> getPartitions() {
+        return partitions;
+    }
+
+    public int getQueuedRecords() {
+        return queuedRecords.get();
+    }
+
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Revocation request = revocation;
+            if (request != null) {
+                revoke(request);
+            }
+            Collection<SinkRecord> records;
+            try {
+                records = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (records == null) {
+                continue;
+            }
+            Boolean written = write(records);
+            if (written == null) {
+                // Back in front of the queue, the revocation filters it like any queued batch
+                queue.addFirst(records);
+                continue;
+            }
+            if (!written) {
+                break;
+            }
+            queuedRecords.addAndGet(-records.size());
+        }
+    }
+
+    /**
+     * Writes one batch, retrying retriable failures with a backoff until we are stopped.
+     *
+     * @return null if the batch wasn't written because partitions are being revoked, false if the writer stops
+     */
+    private Boolean write(Collection<SinkRecord> records) {
+        long backoff = MIN_BACKOFF_MS;
+        while (running) {
+            try {
+                proxySinkTask.put(records);
+                return true;
+            } catch (RetriableException e) {
+                if (revocation != null) {
+                    LOGGER.warn(String.format("%s failed to write %d records, revoking partitions before the retry", thread.getName(), records.size()), e);
+                    return null;
+                }
+                LOGGER.warn(String.format("%s failed to write %d records, retrying in %d ms", thread.getName(), records.size(), backoff), e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    return false;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            } catch (Exception e) {
+                LOGGER.error(String.format("%s failed to write %d records", thread.getName(), records.size()), e);
+                failure = e;
+                running = false;
+                return false;
+            }
+        }
+        return false;
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            LOGGER.info(String.format("%s stopped with %d queued records, they will be redelivered", thread.getName(), queuedRecords.get()));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import org.apache.avro.Schema;
+
+/**
+ * Avro binary value of an AVRO record and its writer schema, decoded straight into the insert.
+ */
+public final class AvroValue {
+    private final Schema schema;
+    private final byte[] bytes;
+    // Start of the Avro datum, after the schema registry header if any
+    private final int offset;
+
+    public AvroValue(Schema schema, byte[] bytes, int offset) {
+        this.schema = schema;
+        this.bytes = bytes;
+        this.offset = offset;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
@@ -1,9 +1,11 @@
 package com.clickhouse.kafka.connect.sink.data;
 
 import com.clickhouse.kafka.connect.sink.data.convert.EmptyRecordConvertor;
+import com.clickhouse.kafka.connect.sink.data.convert.RawRecordConvertor;
 import com.clickhouse.kafka.connect.sink.data.convert.RecordConvertor;
 import com.clickhouse.kafka.connect.sink.data.convert.SchemalessRecordConvertor;
 import com.clickhouse.kafka.connect.sink.data.convert.SchemaRecordConvertor;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
 import org.apache.kafka.connect.data.Field;
 import org.apache.kafka.connect.data.Schema;
@@ -13,21 +15,30 @@ import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public class Record {
+    public static final long NO_TIMESTAMP = -1;
     private OffsetContainer recordOffsetContainer = null;
-    private Object value;
-    private Map<String, Data> jsonMap = null;
-    private List<Field> fields = null;
     private SchemaType schemaType;
+    private RowLayout layout;
+    // Indexed by the ordinals of the layout, null for an empty (tombstone) record
+    private Object[] values;
+    // Original value: the Struct of a record inserted into a table with defaults, byte[] for RAW, AvroValue for AVRO
+    private Object value;
+    // Only kept when failed records can be reported to the DLQ
     private SinkRecord sinkRecord = null;
+    // Kafka timestamp in milliseconds, NO_TIMESTAMP if the record has none
+    private long timestamp;
 
-    public Record(SchemaType schemaType, OffsetContainer recordOffsetContainer, List<Field> fields, Map<String, Data> jsonMap, SinkRecord sinkRecord) {
+    public Record(SchemaType schemaType, OffsetContainer recordOffsetContainer, RowLayout layout, Object[] values, Object value, SinkRecord sinkRecord, long timestamp) {
         this.recordOffsetContainer = recordOffsetContainer;
-        this.fields = fields;
-        this.jsonMap = jsonMap;
+        this.timestamp = timestamp;
+        this.layout = layout;
+        this.values = values;
+        this.value = value;
         this.sinkRecord = sinkRecord;
         this.schemaType = schemaType;
     }
@@ -40,18 +51,55 @@ public class Record {
         return recordOffsetContainer;
     }
 
-    public Map<String, Data> getJsonMap() {
-        return jsonMap;
+    public RowLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the converted value of the field or RowLayout.MISSING
+     */
+    public Object getValue(int ordinal) {
+        return values[ordinal];
+    }
+
+    /**
+     * @return false for an empty (tombstone) record
+     */
+    public boolean hasValue() {
+        return values != null;
+    }
+
+    /**
+     * Original Struct of a record inserted into a table with defaults, null for other SCHEMA & SCHEMA_LESS records
+     * (inserted from their row). The JSON bytes of a RAW record, the AvroValue of an AVRO one.
+     */
+    public Object getValue() {
+        return value;
     }
 
     public List<Field> getFields() {
-        return fields;
+        return layout.getFields();
     }
 
+    /**
+     * @return the record as received or null when it isn't kept (no DLQ)
+     */
     public SinkRecord getSinkRecord() {
         return sinkRecord;
     }
 
+    /**
+     * @return the Kafka timestamp in milliseconds or NO_TIMESTAMP
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public static long timestamp(SinkRecord sinkRecord) {
+        Long timestamp = sinkRecord.timestamp();
+        return timestamp == null ? NO_TIMESTAMP : timestamp;
+    }
+
     public String getTopic() {
         return recordOffsetContainer.getTopic();
     }
@@ -63,6 +111,7 @@ public class Record {
     private static RecordConvertor schemaRecordConvertor = new SchemaRecordConvertor();
     private static RecordConvertor schemalessRecordConvertor = new SchemalessRecordConvertor();
     private static RecordConvertor emptyRecordConvertor = new EmptyRecordConvertor();
+    private static RecordConvertor rawRecordConvertor = new RawRecordConvertor();
     private static RecordConvertor getConvertor(Schema schema, Object data) {
         if (data == null ) {
             return emptyRecordConvertor;
@@ -73,16 +122,41 @@ public class Record {
         if (data instanceof Map) {
             return schemalessRecordConvertor;
         }
+        if (data instanceof String || data instanceof byte[]) {
+            return rawRecordConvertor;
+        }
         throw new DataException(String.format("No converter was found due to unexpected object type %s", data.getClass().getName()));
     }
 
     public static Record convert(SinkRecord sinkRecord) {
+        return convert(sinkRecord, null, true);
+    }
+
+    /**
+     * @param table target table of the record, only its columns are converted. null to convert every field
+     * @param keepSinkRecord whether the record must stay available for the DLQ
+     */
+    public static Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord) {
         RecordConvertor recordConvertor = getConvertor(sinkRecord.valueSchema(), sinkRecord.value());
-        return recordConvertor.convert(sinkRecord);
+        return recordConvertor.convert(sinkRecord, table, keepSinkRecord);
     }
 
     public static Record newRecord(SchemaType schemaType, String topic, int partition, long offset, List<Field> fields, Map<String, Data> jsonMap, SinkRecord sinkRecord) {
-        return new Record(schemaType, new OffsetContainer(topic, partition, offset), fields, jsonMap, sinkRecord);
+        RowLayout layout = RowLayout.EMPTY;
+        Object[] values = null;
+        if (jsonMap != null) {
+            List<Field> layoutFields = new ArrayList<>(jsonMap.size());
+            Schema.Type[] types = new Schema.Type[jsonMap.size()];
+            values = new Object[jsonMap.size()];
+            int i = 0;
+            for (Map.Entry<String, Data> entry : jsonMap.entrySet()) {
+                layoutFields.add(new Field(entry.getKey(), i, Schema.STRING_SCHEMA));
+                types[i] = entry.getValue().getFieldType();
+                values[i++] = entry.getValue().getObject();
+            }
+            layout = new RowLayout(fields != null && fields.size() == layoutFields.size() ? fields : layoutFields, types);
+        }
+        return new Record(schemaType, new OffsetContainer(topic, partition, offset), layout, values, sinkRecord == null ? null : sinkRecord.value(), sinkRecord, sinkRecord == null ? NO_TIMESTAMP : timestamp(sinkRecord));
     }
 
 }
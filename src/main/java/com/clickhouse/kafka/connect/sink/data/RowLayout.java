@@ -0,0 +1,156 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Field names & types of a row, shared by every record converted from the same schema into the same table.
+ * Rows are Object[] indexed by the ordinals of their layout, MISSING marks a field the record doesn't have.
+ */
+public class RowLayout {
+
+    public static final Object MISSING = new Object();
+    public static final RowLayout EMPTY = new RowLayout(Collections.emptyList(), new Schema.Type[0]);
+    // Bound the caches in case a converter hands out a new schema instance per record
+    private static final int MAX_CACHED_LAYOUTS = 1024;
+    private static final Map<LayoutKey, RowLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    private final List<Field> fields;
+    private final Schema.Type[] types;
+    private final Map<String, Integer> ordinals;
+
+    RowLayout(List<Field> fields, Schema.Type[] types) {
+        this.fields = fields;
+        this.types = types;
+        this.ordinals = new HashMap<>(fields.size() * 2);
+        for (int i = 0; i < fields.size(); i++) {
+            ordinals.put(fields.get(i).name(), i);
+        }
+    }
+
+    /**
+     * Layout of the schema fields that have a column in the table, in column order.
+     *
+     * @param table target table, null to keep every field of the schema
+     */
+    public static RowLayout forSchema(Schema schema, Table table) {
+        return cached(new LayoutKey(schema, table), () -> {
+            List<Field> fields;
+            if (table == null) {
+                fields = schema.fields();
+            } else {
+                fields = new ArrayList<>(table.getColumns().size());
+                for (Column column : table.getColumns()) {
+                    Field field = schema.field(column.getName());
+                    if (field != null) {
+                        fields.add(field);
+                    }
+                }
+            }
+            Schema.Type[] types = new Schema.Type[fields.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = fields.get(i).schema().type();
+            }
+            return new RowLayout(fields, types);
+        });
+    }
+
+    /**
+     * Layout of schemaless records inserted into the table: every column. The values are kept as they are in the map,
+     * they are only serialized into JSON.
+     */
+    public static RowLayout forSchemaless(Table table) {
+        return cached(new LayoutKey(null, table), () -> {
+            List<String> names = new ArrayList<>(table.getColumns().size());
+            for (Column column : table.getColumns()) {
+                names.add(column.getName());
+            }
+            return ofStrings(names);
+        });
+    }
+
+    /**
+     * Layout that isn't shared, for records whose fields are only known once they are read.
+     */
+    public static RowLayout ofStrings(List<String> names) {
+        List<Field> fields = new ArrayList<>(names.size());
+        Schema.Type[] types = new Schema.Type[names.size()];
+        for (int i = 0; i < types.length; i++) {
+            fields.add(new Field(names.get(i), i, Schema.STRING_SCHEMA));
+            types[i] = Schema.Type.STRING;
+        }
+        return new RowLayout(fields, types);
+    }
+
+    private static RowLayout cached(LayoutKey key, Supplier<RowLayout> supplier) {
+        RowLayout layout = LAYOUTS.get(key);
+        if (layout == null) {
+            if (LAYOUTS.size() >= MAX_CACHED_LAYOUTS) {
+                LAYOUTS.clear();
+            }
+            layout = LAYOUTS.computeIfAbsent(key, k -> supplier.get());
+        }
+        return layout;
+    }
+
+    /**
+     * @return the ordinal of the field or -1 if the layout doesn't have it
+     */
+    public int ordinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    public String getName(int ordinal) {
+        return fields.get(ordinal).name();
+    }
+
+    public Schema.Type getType(int ordinal) {
+        return types[ordinal];
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Schemas and tables are compared by identity, an equals on a schema walks all of its fields.
+     */
+    private static final class LayoutKey {
+        private final Schema schema;
+        private final Table table;
+
+        LayoutKey(Schema schema, Table table) {
+            this.schema = schema;
+            this.table = table;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LayoutKey)) {
+                return false;
+            }
+            LayoutKey other = (LayoutKey) o;
+            return schema == other.schema && table == other.table;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(schema) + System.identityHashCode(table);
+        }
+    }
+}
@@ -3,4 +3,8 @@ package com.clickhouse.kafka.connect.sink.data;
 public enum SchemaType {
     SCHEMA,
     SCHEMA_LESS,
+    // JSON object as String/byte[] (StringConverter, ByteArrayConverter), inserted as received
+    RAW,
+    // Avro binary (ByteArrayConverter) with a schema from avroSchemaPath, transcoded into RowBinary
+    AVRO,
 }
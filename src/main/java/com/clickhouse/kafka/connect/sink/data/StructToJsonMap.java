@@ -1,6 +1,5 @@
 package com.clickhouse.kafka.connect.sink.data;
 
-import com.clickhouse.kafka.connect.sink.db.ClickHouseWriter;
 import org.apache.kafka.connect.data.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,64 +19,69 @@ public class StructToJsonMap {
         Map<String, Data> jsonMap = new HashMap<String, Data>(0);
         List<Field> fields = struct.schema().fields();
         for (Field field : fields) {
-            String fieldName = field.name();
-            Schema.Type fieldType = field.schema().type();
-            String schemaName = field.schema().name();
-            LOGGER.debug(String.format("fieldName [%s] fieldType [%s] schemaName [%s]" , fieldName, fieldType.name(), schemaName));
-            switch (fieldType) {
-                case STRING:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.getString(fieldName)));
-                    break;
-                case INT32:
-                    if (Date.LOGICAL_NAME.equals(schemaName) || Time.LOGICAL_NAME.equals(schemaName)) {
-                        jsonMap.put(fieldName, new Data(fieldType, (java.util.Date) struct.get(fieldName)));
-                    } else {
-                        jsonMap.put(fieldName, new Data(fieldType, struct.getInt32(fieldName)));
-                    }
-                    break;
-                case INT16:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.getInt16(fieldName)));
-                    break;
-                case INT64:
-                    if (Timestamp.LOGICAL_NAME.equals(schemaName)) {
-                        jsonMap.put(fieldName, new Data(fieldType, (java.util.Date) struct.get(fieldName)));
-                    } else {
-                        jsonMap.put(fieldName, new Data(fieldType, struct.getInt64(fieldName)));
-                    }
-                    break;
-                case FLOAT32:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.getFloat32(fieldName)));
-                    break;
-                case FLOAT64:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.getFloat64(fieldName)));
-                    break;
-                case BOOLEAN:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.getBoolean(fieldName)));
-                    break;
-                case ARRAY:
-                    List<Object> fieldArray = struct.getArray(fieldName);
-                    if (fieldArray.size() > 0 && fieldArray.get(0) instanceof Struct) {
-                        // If Array contains list of Structs
-                        List<Object> jsonArray = new ArrayList<>();
-                        fieldArray.forEach(item -> {
-                            jsonArray.add(toJsonMap((Struct) item));
-                        });
-                        jsonMap.put(fieldName, new Data(fieldType, jsonArray));
-                    } else {
-                        jsonMap.put(fieldName, new Data(fieldType, fieldArray));
-                    }
-                    break;
-                case STRUCT:
-                    jsonMap.put(fieldName, new Data(fieldType, toJsonMap(struct.getStruct(fieldName))));
-                    break;
-                case MAP:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.getMap(fieldName)));
-                    break;
-                default:
-                    jsonMap.put(fieldName, new Data(fieldType, struct.get(fieldName)));
-                    break;
-            }
+            jsonMap.put(field.name(), new Data(field.schema().type(), toValue(struct, field)));
         }
         return jsonMap;
     }
+
+    /**
+     * Converts the fields of the layout (all resolved against the schema of the struct), the others
+     * (and their nested structs) are never read.
+     */
+    public static Object[] toRow(Struct struct, RowLayout layout) {
+        List<Field> fields = layout.getFields();
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toValue(struct, fields.get(i));
+        }
+        return values;
+    }
+
+    private static Object toValue(Struct struct, Field field) {
+        String fieldName = field.name();
+        Schema.Type fieldType = field.schema().type();
+        String schemaName = field.schema().name();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("fieldName [%s] fieldType [%s] schemaName [%s]" , fieldName, fieldType.name(), schemaName));
+        }
+        switch (fieldType) {
+            case STRING:
+                return struct.getString(fieldName);
+            case INT32:
+                if (Date.LOGICAL_NAME.equals(schemaName) || Time.LOGICAL_NAME.equals(schemaName)) {
+                    return (java.util.Date) struct.get(fieldName);
+                }
+                return struct.getInt32(fieldName);
+            case INT16:
+                return struct.getInt16(fieldName);
+            case INT64:
+                if (Timestamp.LOGICAL_NAME.equals(schemaName)) {
+                    return (java.util.Date) struct.get(fieldName);
+                }
+                return struct.getInt64(fieldName);
+            case FLOAT32:
+                return struct.getFloat32(fieldName);
+            case FLOAT64:
+                return struct.getFloat64(fieldName);
+            case BOOLEAN:
+                return struct.getBoolean(fieldName);
+            case ARRAY:
+                List<Object> fieldArray = struct.getArray(fieldName);
+                if (fieldArray.size() > 0 && fieldArray.get(0) instanceof Struct) {
+                    // If Array contains list of Structs
+                    List<Object> jsonArray = new ArrayList<>();
+                    fieldArray.forEach(item -> {
+                        jsonArray.add(toJsonMap((Struct) item));
+                    });
+                    return jsonArray;
+                }
+                return fieldArray;
+            case STRUCT:
+                return toJsonMap(struct.getStruct(fieldName));
+            case MAP:
+                return struct.getMap(fieldName);
+            default:
+                return struct.get(fieldName);
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package com.clickhouse.kafka.connect.sink.data.convert;
+
+import com.clickhouse.kafka.connect.sink.data.AvroValue;
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaParseException;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps Avro binary values (ByteArrayConverter) as bytes with their writer schema, they are transcoded straight
+ * into RowBinary instead of going through a Connect Struct (as JSON when the table has defaults or the schema doesn't
+ * fit it). Schemas are read from a local directory:
+ * [topic].avsc for plain Avro values, otherwise [id].avsc with the id of the schema registry header
+ * (magic byte 0 followed by a 4 bytes id). Schema files are read once. Other values, byte[] without a topic schema
+ * nor a header (raw JSON) included, are converted as usual.
+ */
+public class AvroRecordConvertor implements RecordConvertor {
+
+    private static final byte MAGIC_BYTE = 0;
+    private static final int HEADER_SIZE = 5;
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final Path schemaPath;
+    // By file name, empty when there is no such file
+    private final Map<String, Optional<Schema>> schemas = new ConcurrentHashMap<>();
+
+    public AvroRecordConvertor(Path schemaPath) {
+        this.schemaPath = schemaPath;
+    }
+
+    @Override
+    public Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord) {
+        if (!(sinkRecord.value() instanceof byte[])) {
+            return Record.convert(sinkRecord, table, keepSinkRecord);
+        }
+        String topic = sinkRecord.topic();
+        int partition = sinkRecord.kafkaPartition().intValue();
+        long offset = sinkRecord.kafkaOffset();
+        byte[] bytes = (byte[]) sinkRecord.value();
+        Schema schema = schema(topic + ".avsc");
+        int start = 0;
+        if (schema == null) {
+            if (bytes.length < HEADER_SIZE || bytes[0] != MAGIC_BYTE) {
+                return Record.convert(sinkRecord, table, keepSinkRecord);
+            }
+            int id = (bytes[1] & 0xff) << 24 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 8 | (bytes[4] & 0xff);
+            schema = schema(id + ".avsc");
+            if (schema == null) {
+                throw new DataException(String.format("Schema %d of topic [%s] partition [%d] offset [%d] is missing from %s", id, topic, partition, offset, schemaPath));
+            }
+            start = HEADER_SIZE;
+        }
+        return new Record(SchemaType.AVRO, new OffsetContainer(topic, partition, offset), RowLayout.EMPTY, NO_VALUES, new AvroValue(schema, bytes, start), keepSinkRecord ? sinkRecord : null, Record.timestamp(sinkRecord));
+    }
+
+    private Schema schema(String fileName) {
+        return schemas.computeIfAbsent(fileName, this::load).orElse(null);
+    }
+
+    private Optional<Schema> load(String fileName) {
+        File file = schemaPath.resolve(fileName).toFile();
+        if (!file.isFile()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new Schema.Parser().parse(file));
+        } catch (IOException | SchemaParseException e) {
+            throw new DataException(String.format("Unable to read Avro schema %s", file), e);
+        }
+    }
+}
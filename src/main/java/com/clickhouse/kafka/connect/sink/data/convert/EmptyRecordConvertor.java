@@ -1,25 +1,18 @@
 package com.clickhouse.kafka.connect.sink.data.convert;
 
-import com.clickhouse.kafka.connect.sink.data.Data;
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
 import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
-import org.apache.kafka.connect.data.Field;
-import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.SinkRecord;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 public class EmptyRecordConvertor implements RecordConvertor {
     @Override
-    public Record convert(SinkRecord sinkRecord) {
+    public Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord) {
         String topic = sinkRecord.topic();
         int partition = sinkRecord.kafkaPartition().intValue();
         long offset = sinkRecord.kafkaOffset();
-        List<Field> fields = new ArrayList<>();
-        return new Record(SchemaType.SCHEMA_LESS, new OffsetContainer(topic, partition, offset), fields, null, sinkRecord);
+        return new Record(SchemaType.SCHEMA_LESS, new OffsetContainer(topic, partition, offset), RowLayout.EMPTY, null, null, keepSinkRecord ? sinkRecord : null, Record.timestamp(sinkRecord));
     }
 }
@@ -0,0 +1,77 @@
+package com.clickhouse.kafka.connect.sink.data.convert;
+
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Converts large puts on the common fork-join pool. The records are split in chunks that each write their own
+ * slice of the result array, so the result keeps the order of the input and needs no synchronization.
+ */
+public class ParallelRecordConvertor extends RecursiveAction {
+
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private final SinkRecord[] sinkRecords;
+    private final Record[] records;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+    private final Function<String, Table> tables;
+    private final boolean keepSinkRecord;
+    private final RecordConvertor convertor;
+
+    private ParallelRecordConvertor(SinkRecord[] sinkRecords, Record[] records, int from, int to, int chunkSize, Function<String, Table> tables, boolean keepSinkRecord, RecordConvertor convertor) {
+        this.sinkRecords = sinkRecords;
+        this.records = records;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+        this.tables = tables;
+        this.keepSinkRecord = keepSinkRecord;
+        this.convertor = convertor;
+    }
+
+    /**
+     * @param tables target table of a topic, called concurrently
+     * @return the converted records, in the order of sinkRecords
+     */
+    public static Record[] convert(SinkRecord[] sinkRecords, Function<String, Table> tables, boolean keepSinkRecord) {
+        return convert(sinkRecords, tables, keepSinkRecord, Record::convert);
+    }
+
+    /**
+     * @param convertor converts a record, called concurrently
+     */
+    public static Record[] convert(SinkRecord[] sinkRecords, Function<String, Table> tables, boolean keepSinkRecord, RecordConvertor convertor) {
+        Record[] records = new Record[sinkRecords.length];
+        // A few chunks per worker, so a slow chunk doesn't hold the others back
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, sinkRecords.length / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        ForkJoinPool.commonPool().invoke(new ParallelRecordConvertor(sinkRecords, records, 0, sinkRecords.length, chunkSize, tables, keepSinkRecord, convertor));
+        return records;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= chunkSize) {
+            String topic = null;
+            Table table = null;
+            for (int i = from; i < to; i++) {
+                SinkRecord sinkRecord = sinkRecords[i];
+                if (!sinkRecord.topic().equals(topic)) {
+                    topic = sinkRecord.topic();
+                    table = tables.apply(topic);
+                }
+                records[i] = convertor.convert(sinkRecord, table, keepSinkRecord);
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new ParallelRecordConvertor(sinkRecords, records, from, middle, chunkSize, tables, keepSinkRecord, convertor),
+                new ParallelRecordConvertor(sinkRecords, records, middle, to, chunkSize, tables, keepSinkRecord, convertor));
+    }
+}
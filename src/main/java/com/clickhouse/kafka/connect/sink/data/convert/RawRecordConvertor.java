@@ -0,0 +1,49 @@
+package com.clickhouse.kafka.connect.sink.data.convert;
+
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps String/byte[] values (StringConverter, ByteArrayConverter) as bytes, they are streamed into the insert
+ * as is. Only checks that the value looks like a JSON object, ClickHouse does the actual parsing.
+ */
+public class RawRecordConvertor implements RecordConvertor {
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    @Override
+    public Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord) {
+        String topic = sinkRecord.topic();
+        int partition = sinkRecord.kafkaPartition().intValue();
+        long offset = sinkRecord.kafkaOffset();
+        Object value = sinkRecord.value();
+        byte[] bytes = value instanceof byte[] ? (byte[]) value : ((String) value).getBytes(StandardCharsets.UTF_8);
+        if (!isJsonObject(bytes)) {
+            throw new DataException(String.format("Value of topic [%s] partition [%d] offset [%d] is not a JSON object", topic, partition, offset));
+        }
+        return new Record(SchemaType.RAW, new OffsetContainer(topic, partition, offset), RowLayout.EMPTY, NO_VALUES, bytes, keepSinkRecord ? sinkRecord : null, Record.timestamp(sinkRecord));
+    }
+
+    static boolean isJsonObject(byte[] bytes) {
+        int start = 0;
+        int end = bytes.length - 1;
+        while (start <= end && isWhitespace(bytes[start])) {
+            start++;
+        }
+        while (end >= start && isWhitespace(bytes[end])) {
+            end--;
+        }
+        return end > start && bytes[start] == '{' && bytes[end] == '}';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -1,9 +1,17 @@
 package com.clickhouse.kafka.connect.sink.data.convert;
 
-import org.apache.kafka.connect.data.Schema;
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import org.apache.kafka.connect.sink.SinkRecord;
 
 public interface RecordConvertor {
-    Record convert(SinkRecord sinkRecord);
+    default Record convert(SinkRecord sinkRecord) {
+        return convert(sinkRecord, null, true);
+    }
+
+    /**
+     * @param table target table, only its columns are converted. null to convert every field
+     * @param keepSinkRecord whether the record must stay available for the DLQ
+     */
+    Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord);
 }
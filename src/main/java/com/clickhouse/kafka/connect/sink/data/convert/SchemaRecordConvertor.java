@@ -1,26 +1,26 @@
 package com.clickhouse.kafka.connect.sink.data.convert;
 
-import com.clickhouse.kafka.connect.sink.data.Data;
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
 import com.clickhouse.kafka.connect.sink.data.SchemaType;
 import com.clickhouse.kafka.connect.sink.data.StructToJsonMap;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
 import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.sink.SinkRecord;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.Map;
 
 public class SchemaRecordConvertor implements RecordConvertor{
 
     @Override
-    public Record convert(SinkRecord sinkRecord) {
+    public Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord) {
         String topic = sinkRecord.topic();
         int partition = sinkRecord.kafkaPartition().intValue();
         long offset = sinkRecord.kafkaOffset();
         Struct struct = (Struct) sinkRecord.value();
-        Map<String, Data> data = StructToJsonMap.toJsonMap((Struct) sinkRecord.value());
-        return new Record(SchemaType.SCHEMA, new OffsetContainer(topic, partition, offset), struct.schema().fields(), data, sinkRecord);
+        RowLayout layout = RowLayout.forSchema(struct.schema(), table);
+        Object[] values = StructToJsonMap.toRow(struct, layout);
+        // Tables with defaults are inserted as JSON straight from the struct, other records only need their row
+        Struct value = table == null || table.hasDefaults() ? struct : null;
+        return new Record(SchemaType.SCHEMA, new OffsetContainer(topic, partition, offset), layout, values, value, keepSinkRecord ? sinkRecord : null, Record.timestamp(sinkRecord));
     }
 }
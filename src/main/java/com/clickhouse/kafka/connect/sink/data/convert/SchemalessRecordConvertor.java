@@ -1,35 +1,49 @@
 package com.clickhouse.kafka.connect.sink.data.convert;
 
-import com.clickhouse.kafka.connect.sink.data.Data;
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
 import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
-import org.apache.kafka.connect.data.Field;
-import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.SinkRecord;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SchemalessRecordConvertor implements RecordConvertor {
 
     @Override
-    public Record convert(SinkRecord sinkRecord) {
+    public Record convert(SinkRecord sinkRecord, Table table, boolean keepSinkRecord) {
         String topic = sinkRecord.topic();
         int partition = sinkRecord.kafkaPartition().intValue();
         long offset = sinkRecord.kafkaOffset();
-        List<Field> fields = new ArrayList<>();
         Map<?,?> map = (Map) sinkRecord.value();
-        Map<String, Data> data = new HashMap<>();
-        int index = 0;
-        map.forEach((key,val) -> {
-                    fields.add(new Field(key.toString(), index, Schema.STRING_SCHEMA));
-                    data.put(key.toString(), new Data(Schema.Type.STRING, val == null ? null : val.toString()));
-                });
-        return new Record(SchemaType.SCHEMA_LESS, new OffsetContainer(topic, partition, offset), fields, data, sinkRecord);
+        RowLayout layout;
+        Object[] values;
+        if (table != null) {
+            // Only the keys that have a column are kept, the other values are never serialized
+            layout = RowLayout.forSchemaless(table);
+            values = new Object[layout.size()];
+            for (int i = 0; i < values.length; i++) {
+                String name = layout.getName(i);
+                if (map.containsKey(name)) {
+                    values[i] = map.get(name);
+                } else {
+                    values[i] = RowLayout.MISSING;
+                }
+            }
+        } else {
+            List<String> names = new ArrayList<>(map.size());
+            values = new Object[map.size()];
+            int index = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                names.add(entry.getKey().toString());
+                values[index++] = entry.getValue();
+            }
+            layout = RowLayout.ofStrings(names);
+        }
+        // Schemaless records are inserted as JSON from the row, the map isn't kept
+        return new Record(SchemaType.SCHEMA_LESS, new OffsetContainer(topic, partition, offset), layout, values, null, keepSinkRecord ? sinkRecord : null, Record.timestamp(sinkRecord));
     }
 }
@@ -4,15 +4,24 @@ import com.clickhouse.client.*;
 import com.clickhouse.client.config.ClickHouseClientOption;
 import com.clickhouse.client.data.BinaryStreamUtils;
 import com.clickhouse.kafka.connect.sink.ClickHouseSinkConfig;
-import com.clickhouse.kafka.connect.sink.data.Data;
+import com.clickhouse.kafka.connect.sink.data.AvroValue;
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
 import com.clickhouse.kafka.connect.sink.db.helper.ClickHouseHelperClient;
 import com.clickhouse.kafka.connect.sink.db.mapping.Column;
 import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 import com.clickhouse.kafka.connect.sink.db.mapping.Type;
+import com.clickhouse.kafka.connect.sink.db.transcode.AvroRowBinaryTranscoder;
+import com.clickhouse.kafka.connect.sink.db.transcode.JsonRowBinaryTranscoder;
 import com.clickhouse.kafka.connect.util.Mask;
 
 import com.clickhouse.kafka.connect.util.Utils;
+import com.clickhouse.kafka.connect.util.jfr.InsertEvent;
+import com.clickhouse.kafka.connect.util.jmx.ColumnProfile;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import com.clickhouse.kafka.connect.util.jmx.Stage;
+import com.clickhouse.kafka.connect.util.jmx.Timer;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import org.apache.kafka.connect.data.Field;
@@ -22,7 +31,11 @@ import org.apache.kafka.connect.errors.DataException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
@@ -30,11 +43,15 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class ClickHouseWriter implements DBWriter{
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ClickHouseWriter.class);
+    public static final String QUERY_ID_PREFIX = "clickhouse-kafka-connect:";
 
     private ClickHouseHelperClient chc = null;
     private ClickHouseSinkConfig csc = null;
@@ -43,8 +60,19 @@ public class ClickHouseWriter implements DBWriter{
 
     private boolean isBinary = false;
 
+    private final SinkTaskStatistics statistics;
+    // Query ids of the inserts start with it, unique per task within a worker
+    private final String queryIdPrefix;
+    private ScheduledExecutorService serverStatsExecutor = null;
+
     public ClickHouseWriter() {
+        this(new SinkTaskStatistics(), ClickHouseSinkConfig.connectorNameDefault + "-" + ClickHouseSinkConfig.taskIdDefault);
+    }
+
+    public ClickHouseWriter(SinkTaskStatistics statistics, String taskName) {
         this.mapping = new HashMap<>();
+        this.statistics = statistics;
+        this.queryIdPrefix = QUERY_ID_PREFIX + taskName;
     }
 
     @Override
@@ -85,39 +113,34 @@ public class ClickHouseWriter implements DBWriter{
         for (Table table: tableList) {
             this.mapping.put(table.getName(), table);
         }
+
+        if (csc.getServerStatsIntervalMs() > 0) {
+            ServerStatsSampler sampler = new ServerStatsSampler(chc.getServer(), queryIdPrefix, statistics, csc.getServerStatsIntervalMs());
+            serverStatsExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "clickhouse-server-stats-" + queryIdPrefix);
+                thread.setDaemon(true);
+                return thread;
+            });
+            serverStatsExecutor.scheduleWithFixedDelay(sampler, csc.getServerStatsIntervalMs(), csc.getServerStatsIntervalMs(), TimeUnit.MILLISECONDS);
+        }
         return true;
     }
 
     @Override
     public void stop() {
-
+        if (serverStatsExecutor != null) {
+            serverStatsExecutor.shutdownNow();
+            serverStatsExecutor = null;
+        }
     }
 
     public void setBinary(boolean binary) {
         isBinary = binary;
     }
 
-    // TODO: we need to refactor that
-    private String convertHelper(Object v) {
-        if (v instanceof List) {
-            String value = ((List<?>) v).stream().map( vv -> vv.toString()).collect(Collectors.joining(",","[","]"));
-            return value;
-
-        } else {
-            return v.toString();
-        }
-    }
-    private String convertWithStream(List<Object> values, String prefixChar, String suffixChar, String delimiterChar, String trimChar) {
-        return values
-                .stream().map (
-                    v ->
-                            trimChar + convertHelper(v) + trimChar
-                )
-                .collect(Collectors.joining(delimiterChar, prefixChar, suffixChar));
-    }
-
-    private String extractFields(List<Field> fields, String prefixChar, String suffixChar, String delimiterChar, String trimChar) {
-        return fields.stream().map(v -> trimChar + v.name() + trimChar).collect(Collectors.joining(delimiterChar, prefixChar, suffixChar));
+    @Override
+    public Table getTable(String topic) {
+        return this.mapping.get(Utils.escapeTopicName(topic));
     }
 
     public ClickHouseNode getServer() {
@@ -130,9 +153,13 @@ public class ClickHouseWriter implements DBWriter{
             return;
 
         try {
-            Record first = records.get(0);
-            String topic = first.getTopic();
-            Table table = this.mapping.get(Utils.escapeTopicName(topic));
+            Table table = table(records);
+            // The format is picked from the records that have a value, an empty (tombstone) one has no type of its own
+            Record first = records.stream().filter(Record::hasValue).findFirst().orElse(null);
+            if (first == null) {
+                LOGGER.debug(String.format("Only empty records, nothing to insert into table [%s]", table.getName()));
+                return;
+            }
 
             switch (first.getSchemaType()) {
                 case SCHEMA:
@@ -146,8 +173,23 @@ public class ClickHouseWriter implements DBWriter{
                 case SCHEMA_LESS:
                     doInsertJson(records);
                     break;
+                case RAW:
+                    if (csc != null && csc.getRawJsonInsertFormat() == ClickHouseSinkConfig.RawJsonInsertFormats.ROW_BINARY && !table.hasDefaults() && JsonRowBinaryTranscoder.supports(table)) {
+                        doInsertRawJsonBinary(records);
+                    } else {
+                        doInsertJson(records);
+                    }
+                    break;
+                case AVRO:
+                    if (!table.hasDefaults() && AvroRowBinaryTranscoder.supports(table, records)) {
+                        doInsertAvroBinary(records);
+                    } else {
+                        doInsertJson(records);
+                    }
+                    break;
             }
         } catch (Exception e) {
+            statistics.failedInsert(Utils.escapeTopicName(records.get(0).getTopic()));
             LOGGER.trace("Passing the exception to the exception handler.");
             Utils.handleException(e);
         }
@@ -160,14 +202,15 @@ public class ClickHouseWriter implements DBWriter{
             Type type = col.getType();
             boolean isNullable = col.isNullable();
             if (!isNullable) {
-                Data obj = record.getJsonMap().get(colName);
-                if (obj == null) {
+                int ordinal = record.getLayout().ordinal(colName);
+                if (ordinal < 0 || record.getValue(ordinal) == RowLayout.MISSING) {
                     validSchema = false;
                     LOGGER.error(String.format("Table column name [%s] is not found in data record.", colName));
+                    continue;
                 }
                 if (!onlyFieldsName) {
                     String colTypeName = type.name();
-                    String dataTypeName = obj.getFieldType().getName().toUpperCase();
+                    String dataTypeName = record.getLayout().getType(ordinal).getName().toUpperCase();
                     // TODO: make extra validation for Map/Array type
                     switch (colTypeName) {
                         case "Date":
@@ -201,50 +244,50 @@ public class ClickHouseWriter implements DBWriter{
         return validSchema;
     }
 
-    private void doWriteDates(Type type, ClickHousePipedOutputStream stream, Data value) throws IOException {
+    private void doWriteDates(Type type, OutputStream stream, Schema.Type fieldType, Object value) throws IOException {
         // TODO: develop more specific tests to have better coverage
-        if (value.getObject() == null) {
+        if (value == null) {
             BinaryStreamUtils.writeNull(stream);
             return;
         }
         boolean unsupported = false;
         switch (type) {
             case Date:
-                if (value.getFieldType().equals(Schema.Type.INT32)) {
-                    BinaryStreamUtils.writeUnsignedInt16(stream, ((Integer) value.getObject()).intValue());
+                if (fieldType.equals(Schema.Type.INT32)) {
+                    BinaryStreamUtils.writeUnsignedInt16(stream, ((Integer) value).intValue());
                 } else {
                     unsupported = true;
                 }
                 break;
             case Date32:
-                if (value.getFieldType().equals(Schema.Type.INT32)) {
-                    BinaryStreamUtils.writeInt32(stream, ((Integer) value.getObject()).intValue());
+                if (fieldType.equals(Schema.Type.INT32)) {
+                    BinaryStreamUtils.writeInt32(stream, ((Integer) value).intValue());
                 } else {
                     unsupported = true;
                 }
                 break;
             case DateTime:
-                if (value.getFieldType().equals(Schema.Type.INT64)) {
-                    BinaryStreamUtils.writeUnsignedInt32(stream, ((Long) value.getObject()).longValue());
+                if (fieldType.equals(Schema.Type.INT64)) {
+                    BinaryStreamUtils.writeUnsignedInt32(stream, ((Long) value).longValue());
                 } else {
                     unsupported = true;
                 }
                 break;
             case DateTime64:
-                if (value.getFieldType().equals(Schema.Type.INT64)) {
-                    BinaryStreamUtils.writeInt64(stream, ((Long) value.getObject()).longValue());
+                if (fieldType.equals(Schema.Type.INT64)) {
+                    BinaryStreamUtils.writeInt64(stream, ((Long) value).longValue());
                 } else {
                     unsupported = true;
                 }
                 break;
         }
         if (unsupported) {
-            String msg = String.format("Not implemented conversion. from %s to %s", value.getFieldType(), type);
+            String msg = String.format("Not implemented conversion. from %s to %s", fieldType, type);
             LOGGER.error(msg);
             throw new DataException(msg);
         }
     }
-    private void doWritePrimitive(Type type, ClickHousePipedOutputStream stream, Object value) throws IOException {
+    private void doWritePrimitive(Type type, OutputStream stream, Object value) throws IOException {
         if (value == null) {
             BinaryStreamUtils.writeNull(stream);
             return;
@@ -292,19 +335,21 @@ public class ClickHouseWriter implements DBWriter{
         }
     }
 
-    private void doWriteCol(Record record, Column col, ClickHousePipedOutputStream stream) throws IOException {
+    /**
+     * @param ordinal ordinal of the column in the layout of the record, -1 if the layout doesn't have it
+     */
+    private void doWriteCol(Record record, Column col, int ordinal, OutputStream stream) throws IOException {
 
             String name = col.getName();
             Type colType = col.getType();
-            boolean filedExists = record.getJsonMap().containsKey(name);
+            Object value = ordinal < 0 ? RowLayout.MISSING : record.getValue(ordinal);
+            boolean filedExists = value != RowLayout.MISSING;
             if (filedExists) {
-                Data value = record.getJsonMap().get(name);
-                // TODO: the mapping need to be more efficient
                 // If column is nullable && the object is also null add the not null marker
-                if (col.isNullable() && value.getObject() != null) {
+                if (col.isNullable() && value != null) {
                     BinaryStreamUtils.writeNonNull(stream);
                 }
-                if (col.isNullable() == false && value.getObject() == null) {
+                if (col.isNullable() == false && value == null) {
                     // this the situation when the col is not isNullable, but the data is null here we need to drop the records
                     throw new RuntimeException(("col.isNullable() is false and value is empty"));
                 }
@@ -322,16 +367,16 @@ public class ClickHouseWriter implements DBWriter{
                     case BOOLEAN:
                     case UUID:
                     case STRING:
-                        doWritePrimitive(colType, stream, value.getObject());
+                        doWritePrimitive(colType, stream, value);
                         break;
                     case Date:
                     case Date32:
                     case DateTime:
                     case DateTime64:
-                        doWriteDates(colType, stream, value);
+                        doWriteDates(colType, stream, record.getLayout().getType(ordinal), value);
                         break;
                     case MAP:
-                        Map<?,?> mapTmp = (Map<?,?>)value.getObject();
+                        Map<?,?> mapTmp = (Map<?,?>)value;
                         int mapSize = mapTmp.size();
                         BinaryStreamUtils.writeVarInt(stream, mapSize);
                         mapTmp.entrySet().forEach( v-> {
@@ -345,7 +390,7 @@ public class ClickHouseWriter implements DBWriter{
                         });
                         break;
                     case ARRAY:
-                        List<?> arrObject = (List<?>)value.getObject();
+                        List<?> arrObject = (List<?>)value;
                         int sizeArrObject = arrObject.size();
                         BinaryStreamUtils.writeVarInt(stream, sizeArrObject);
                         arrObject.forEach( v -> {
@@ -369,232 +414,376 @@ public class ClickHouseWriter implements DBWriter{
             }
 
     }
-    public void doInsertRawBinary(List<Record> records) throws IOException, ExecutionException, InterruptedException {
-        long s1 = System.currentTimeMillis();
+    /**
+     * Writes a sampled row column by column, recording the time spent and the bytes written per column.
+     */
+    private void doWriteProfiledRow(Record record, List<Column> columns, int[] ordinals, CountingOutputStream stream, ColumnProfile profile) throws IOException {
+        for (int i = 0; i < ordinals.length; i++) {
+            long bytes = stream.getCount();
+            long start = System.nanoTime();
+            doWriteCol(record, columns.get(i), ordinals[i], stream);
+            profile.column(i, System.nanoTime() - start, stream.getCount() - bytes);
+        }
+        profile.sampledRow();
+    }
 
-        if ( records.isEmpty() )
-            return;
-        int batchSize = records.size();
+    /**
+     * Writes the records that have a value as RowBinary rows of the table, no server involved.
+     */
+    void writeRowBinary(Table table, List<Record> records, OutputStream stream) throws IOException {
+        List<Column> columns = table.getColumns();
+        // Records of a batch mostly share their layout, resolve the column ordinals once per layout
+        RowLayout layout = null;
+        int[] ordinals = new int[columns.size()];
+        int profileInterval = csc == null ? 0 : csc.getColumnProfileSampleInterval();
+        ColumnProfile profile = null;
+        CountingOutputStream counting = null;
+        if (profileInterval > 0) {
+            profile = statistics.columnProfile(table.getName(), columns.stream().map(Column::getName).collect(Collectors.toList()));
+            counting = new CountingOutputStream(stream);
+        }
+        int row = 0;
+        for (Record record: records ) {
+            if (record.hasValue()) {
+                if (record.getLayout() != layout) {
+                    layout = record.getLayout();
+                    for (int i = 0; i < ordinals.length; i++)
+                        ordinals[i] = layout.ordinal(columns.get(i).getName());
+                }
+                if (profile != null && row++ % profileInterval == 0) {
+                    doWriteProfiledRow(record, columns, ordinals, counting, profile);
+                } else {
+                    for (int i = 0; i < ordinals.length; i++)
+                        doWriteCol(record, columns.get(i), ordinals[i], stream);
+                }
+            }
+        }
+    }
 
+    /**
+     * Fields of the row by name, the ones the record doesn't have are left out for ClickHouse to fill in.
+     */
+    private static Map<String, Object> rowMap(Record record) {
+        RowLayout layout = record.getLayout();
+        Map<String, Object> data = new HashMap<>(layout.size() * 2);
+        for (int i = 0; i < layout.size(); i++) {
+            Object value = record.getValue(i);
+            if (value != RowLayout.MISSING) {
+                data.put(layout.getName(i), value);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Writes the records as JSONEachRow rows, no server involved. SCHEMA & SCHEMA_LESS records only have the fields of
+     * their layout.
+     */
+    public void writeJson(List<Record> records, OutputStream stream) throws IOException {
+        //https://devqa.io/how-to-convert-java-map-to-json/
+        Gson gson = new Gson();
+        for (Record record: records ) {
+            if (record.getSchemaType() == SchemaType.RAW) {
+                // Already JSON, streamed as received
+                BinaryStreamUtils.writeBytes(stream, (byte[]) record.getValue());
+                stream.write('\n');
+            } else if (record.hasValue()) {
+                Map<String, Object> data;
+                switch (record.getSchemaType()) {
+                    case SCHEMA:
+                        if (!(record.getValue() instanceof Struct)) {
+                            // The struct is only kept for tables with defaults
+                            data = rowMap(record);
+                            break;
+                        }
+                        data = new HashMap<>(16);
+                        Struct struct = (Struct) record.getValue();
+                        for (Field field : struct.schema().fields()) {
+                            data.put(field.name(), struct.get(field));//Doesn't handle multi-level object depth
+                        }
+                        break;
+                    case AVRO:
+                        // Tables with defaults & schemas that don't fit the table
+                        data = AvroRowBinaryTranscoder.toMap((AvroValue) record.getValue());
+                        break;
+                    default:
+                        data = rowMap(record);
+                        break;
+                }
+
+                java.lang.reflect.Type gsonType = new TypeToken<HashMap>() {}.getType();
+                String gsonString = gson.toJson(data, gsonType);
+                LOGGER.debug(String.format("topic [%s] partition [%d] offset [%d] payload '%s'",
+                        record.getTopic(),
+                        record.getRecordOffsetContainer().getPartition(),
+                        record.getRecordOffsetContainer().getOffset(),
+                        gsonString));
+                BinaryStreamUtils.writeBytes(stream, gsonString.getBytes(StandardCharsets.UTF_8));
+            } else {
+                LOGGER.warn(String.format("Getting empty record skip the insert topic[%s] offset[%d]", record.getTopic(), record.getRecordOffsetContainer().getOffset()));
+            }
+        }
+    }
+
+    /**
+     * Deterministic query id of an insert: task (connector name & task id), topic, partition and offset range of the
+     * batch, to find the batch in system.query_log & system.part_log. A retry, also after a restart, reuses the id of
+     * the attempt it replaces.
+     */
+    String queryId(List<Record> records) {
+        long minOffset = Long.MAX_VALUE;
+        long maxOffset = Long.MIN_VALUE;
+        for (Record record : records) {
+            long offset = record.getRecordOffsetContainer().getOffset();
+            minOffset = Math.min(minOffset, offset);
+            maxOffset = Math.max(maxOffset, offset);
+        }
+        Record first = records.get(0);
+        return String.format("%s:%s:%d:%d-%d", queryIdPrefix, first.getTopic(), first.getRecordOffsetContainer().getPartition(), minOffset, maxOffset);
+    }
+
+    /**
+     * Derives insert_deduplication_token from the topic, partition and offset range of the batch,
+     * so a retried insert of the same range is dropped by ClickHouse without any state lookup.
+     */
+    private void setDeduplicationToken(ClickHouseRequest.Mutation request, List<Record> records) {
+        if (csc == null || !csc.isInsertDeduplicationToken())
+            return;
+        long minOffset = Long.MAX_VALUE;
+        long maxOffset = Long.MIN_VALUE;
+        for (Record record : records) {
+            long offset = record.getRecordOffsetContainer().getOffset();
+            minOffset = Math.min(minOffset, offset);
+            maxOffset = Math.max(maxOffset, offset);
+        }
         Record first = records.get(0);
-        String topic = first.getTopic();
-        LOGGER.info(String.format("Number of records to insert %d to table name %s", batchSize, topic));
-        Table table = this.mapping.get(Utils.escapeTopicName(topic));
+        String token = String.format("%s-%d-%d-%d", first.getTopic(), first.getRecordOffsetContainer().getPartition(), minOffset, maxOffset);
+        LOGGER.debug(String.format("insert_deduplication_token %s", token));
+        request.set("insert_deduplication_token", token);
+    }
+
+    /**
+     * @throws DataException if the topic of the records has no table
+     */
+    private Table table(List<Record> records) {
+        String tableName = Utils.escapeTopicName(records.get(0).getTopic());
+        Table table = this.mapping.get(tableName);
         if (table == null) {
-            //TODO to pick the correct exception here
-            throw new RuntimeException(String.format("Table %s does not exists", topic));
+            throw new DataException(String.format("Table %s does not exist", tableName));
         }
+        return table;
+    }
+
+    public void doInsertRawBinary(List<Record> records) throws IOException, ExecutionException, InterruptedException {
+        if ( records.isEmpty() )
+            return;
+        Table table = table(records);
 
-        if ( !validateDataSchema(table, first, false) )
+        Timer validationTime = Timer.start();
+        boolean valid = validateDataSchema(table, records.get(0), false);
+        statistics.stage(Stage.VALIDATION, validationTime);
+        if ( !valid )
             throw new RuntimeException();
         // Let's test first record
         // Do we have all elements from the table inside the record
 
-        long s2 = System.currentTimeMillis();
-        try (ClickHouseClient client = ClickHouseClient.newInstance(ClickHouseProtocol.HTTP)) {
-            ClickHouseRequest.Mutation request = client.connect(chc.getServer())
-            .write()
-                    .table(table.getName())
-                    .format(ClickHouseFormat.RowBinary)
-                    // this is needed to get meaningful response summary
-                    .set("insert_quorum", 2)
-                    .set("send_progress_in_http_headers", 1);
-
-            ClickHouseConfig config = request.getConfig();
-            CompletableFuture<ClickHouseResponse> future;
+        insert(table, records, ClickHouseFormat.RowBinary, stream -> writeRowBinary(table, records, stream));
+    }
 
-            try (ClickHousePipedOutputStream stream = ClickHouseDataStreamFactory.getInstance()
-                    .createPipedOutputStream(config, null)) {
-                // start the worker thread which transfer data from the input into ClickHouse
-                future = request.data(stream.getInputStream()).send();
-                // write bytes into the piped stream
-                for (Record record: records ) {
-                    if (record.getSinkRecord().value() != null ) {
-                        for (Column col : table.getColumns())
-                            doWriteCol(record, col, stream);
-                    }
-                }
-                // We need to close the stream before getting a response
-                stream.close();
-                ClickHouseResponseSummary summary;
-                try (ClickHouseResponse response = future.get()) {
-                    summary = response.getSummary();
-                    long rows = summary.getWrittenRows();
+    /**
+     * Transcodes RAW JSON records into RowBinary in the connector, instead of having ClickHouse parse JSONEachRow.
+     */
+    public void doInsertRawJsonBinary(List<Record> records) throws IOException, ExecutionException, InterruptedException {
+        if ( records.isEmpty() )
+            return;
+        Table table = table(records);
+        insert(table, records, ClickHouseFormat.RowBinary, stream -> writeRawJsonBinary(table, records, stream));
+    }
 
-                } catch (Exception e) {
-                    LOGGER.debug("Reading results after closing stream to ensure insert happened failed.", e);
-                    throw e;
-                }
-            } catch (Exception e) {
-                LOGGER.trace("Exception", e);
-                throw e;
+    /**
+     * Writes the RAW records that have a value as RowBinary rows of the table, no server involved.
+     */
+    void writeRawJsonBinary(Table table, List<Record> records, OutputStream stream) throws IOException {
+        JsonRowBinaryTranscoder transcoder = new JsonRowBinaryTranscoder(table);
+        for (Record record : records) {
+            // Empty (tombstone) records are skipped like in the JSON insert
+            if (record.hasValue()) {
+                transcoder.transcode((byte[]) record.getValue(), stream);
             }
-        } catch (Exception e) {
-            LOGGER.trace("Exception", e);
-            throw e;
         }
-
-        long s3 = System.currentTimeMillis();
-        LOGGER.info("batchSize {} data ms {} send {}", batchSize, s2 - s1, s3 - s2);
-
     }
 
-
-    public void doInsertJson(List<Record> records) throws IOException, ExecutionException, InterruptedException {
-        //https://devqa.io/how-to-convert-java-map-to-json/
-        Gson gson = new Gson();
-        long s1 = System.currentTimeMillis();
-        long s2 = 0;
-        long s3 = 0;
-
+    /**
+     * Transcodes AVRO records into RowBinary with a plan compiled per writer schema, no Struct is built.
+     */
+    public void doInsertAvroBinary(List<Record> records) throws IOException, ExecutionException, InterruptedException {
         if ( records.isEmpty() )
             return;
-        int batchSize = records.size();
+        Table table = table(records);
+        insert(table, records, ClickHouseFormat.RowBinary, stream -> writeAvroBinary(table, records, stream));
+    }
 
-        Record first = records.get(0);
-        String topic = first.getTopic();
-        LOGGER.info(String.format("Number of records to insert %d to table name %s", batchSize, topic));
-        Table table = this.mapping.get(Utils.escapeTopicName(topic));
-        if (table == null) {
-            //TODO to pick the correct exception here
-            throw new RuntimeException(String.format("Table %s does not exists", topic));
+    /**
+     * Writes the AVRO records that have a value as RowBinary rows of the table, no server involved.
+     */
+    void writeAvroBinary(Table table, List<Record> records, OutputStream stream) throws IOException {
+        AvroRowBinaryTranscoder transcoder = new AvroRowBinaryTranscoder(table);
+        for (Record record : records) {
+            if (record.hasValue()) {
+                transcoder.transcode((AvroValue) record.getValue(), stream);
+            }
         }
+    }
 
+    public void doInsertJson(List<Record> records) throws IOException, ExecutionException, InterruptedException {
+        if ( records.isEmpty() )
+            return;
         // We don't validate the schema for JSON inserts.  ClickHouse will ignore unknown fields based on the
         // input_format_skip_unknown_fields setting, and missing fields will use ClickHouse defaults
+        insert(table(records), records, ClickHouseFormat.JSONEachRow, stream -> writeJson(records, stream));
+    }
 
+    /**
+     * Inserts a batch into the table, the encoder writes the batch in the format while the client streams it to
+     * ClickHouse.
+     */
+    private void insert(Table table, List<Record> records, ClickHouseFormat format, BatchEncoder encoder) throws IOException, ExecutionException, InterruptedException {
+        long s1 = System.currentTimeMillis();
+        int batchSize = records.size();
+        LOGGER.debug(String.format("Number of records to insert %d to table name %s", batchSize, table.getName()));
+
+        InsertEvent insertEvent = new InsertEvent();
+        insertEvent.begin();
         try (ClickHouseClient client = ClickHouseClient.newInstance(ClickHouseProtocol.HTTP)) {
             ClickHouseRequest.Mutation request = client.connect(chc.getServer())
                     .write()
-                    .table(table.getName())
-                    .format(ClickHouseFormat.JSONEachRow)
+                    .table(table.getName(), queryId(records))
+                    .format(format)
                     // this is needed to get meaningful response summary
                     .set("insert_quorum", 2)
-                    .set("input_format_skip_unknown_fields", 1)
                     .set("send_progress_in_http_headers", 1);
-
+            if (format == ClickHouseFormat.JSONEachRow) {
+                request.set("input_format_skip_unknown_fields", 1);
+            }
+            setDeduplicationToken(request, records);
 
             ClickHouseConfig config = request.getConfig();
-            request.option(ClickHouseClientOption.WRITE_BUFFER_SIZE, 8192);
-
+            if (format == ClickHouseFormat.JSONEachRow) {
+                request.option(ClickHouseClientOption.WRITE_BUFFER_SIZE, 8192);
+            }
             CompletableFuture<ClickHouseResponse> future;
 
             try (ClickHousePipedOutputStream stream = ClickHouseDataStreamFactory.getInstance()
                     .createPipedOutputStream(config, null)) {
                 // start the worker thread which transfer data from the input into ClickHouse
-                future = request.data(stream.getInputStream()).send();
+                TimedInputStream input = new TimedInputStream(stream.getInputStream());
+                future = request.data(input).send();
+                Timer encodeTime = Timer.start();
                 // write bytes into the piped stream
-                for (Record record: records ) {
-                    if (record.getSinkRecord().value() != null ) {
-                        Map<String, Object> data;
-                        switch (record.getSchemaType()) {
-                            case SCHEMA:
-                                data = new HashMap<>(16);
-                                Struct struct = (Struct) record.getSinkRecord().value();
-                                for (Field field : struct.schema().fields()) {
-                                    data.put(field.name(), struct.get(field));//Doesn't handle multi-level object depth
-                                }
-                                break;
-                            default:
-                                data = (Map<String, Object>) record.getSinkRecord().value();
-                                break;
-                        }
-                        
-                        java.lang.reflect.Type gsonType = new TypeToken<HashMap>() {}.getType();
-                        String gsonString = gson.toJson(data, gsonType);
-                        LOGGER.debug(String.format("topic [%s] partition [%d] offset [%d] payload '%s'",
-                                record.getTopic(),
-                                record.getRecordOffsetContainer().getPartition(),
-                                record.getRecordOffsetContainer().getOffset(),
-                                gsonString));
-                        BinaryStreamUtils.writeBytes(stream, gsonString.getBytes(StandardCharsets.UTF_8));
-                    } else {
-                        LOGGER.warn(String.format("Getting empty record skip the insert topic[%s] offset[%d]", record.getTopic(), record.getSinkRecord().kafkaOffset()));
-                    }
-                }
-
+                encoder.encode(stream);
+                // We need to close the stream before getting a response
                 stream.close();
-                ClickHouseResponseSummary summary;
-                s2 = System.currentTimeMillis();
+                statistics.stage(Stage.ENCODING, encodeTime);
+                long closedAt = System.nanoTime();
                 try (ClickHouseResponse response = future.get()) {
-                    summary = response.getSummary();
-                    long rows = summary.getWrittenRows();
-                    LOGGER.trace(String.format("insert num of rows %d", rows));
-                } catch (Exception e) {//This is mostly for auto-closing
-                    LOGGER.trace("Exception", e);
+                    ClickHouseResponseSummary summary = response.getSummary();
+                    LOGGER.trace(String.format("insert num of rows %d", summary.getWrittenRows()));
+                    recordInsert(insertEvent, format, table, batchSize, input, closedAt, summary);
+                } catch (Exception e) {
+                    LOGGER.debug("Reading results after closing stream to ensure insert happened failed.", e);
                     throw e;
                 }
-            } catch (Exception e) {//This is mostly for auto-closing
-                LOGGER.trace("Exception", e);
-                throw e;
             }
         } catch (Exception e) {//This is mostly for auto-closing
             LOGGER.trace("Exception", e);
             throw e;
         }
-        s3 = System.currentTimeMillis();
-        LOGGER.info("batchSize {} data ms {} send {}", batchSize, s2 - s1, s3 - s2);
+        LOGGER.debug("batchSize {} ms {}", batchSize, System.currentTimeMillis() - s1);
     }
 
-    public void doInsertSimple(List<Record> records) {
-        // TODO: here we will need to make refactor (not to use query & string , but we can make this optimization later )
-        long s1 = System.currentTimeMillis();
+    /**
+     * Splits the time from the end of the encoding to the response of ClickHouse into sending the rest of the data and
+     * waiting for ClickHouse to process it.
+     */
+    private void recordInsert(InsertEvent insertEvent, ClickHouseFormat format, Table table, int batchSize, TimedInputStream input, long closedAt, ClickHouseResponseSummary summary) {
+        long respondedAt = System.nanoTime();
+        long endOfData = Math.max(closedAt, Math.min(input.getEndOfData(closedAt), respondedAt));
+        statistics.stage(Stage.SEND, endOfData - closedAt);
+        statistics.stage(Stage.RESPONSE_WAIT, respondedAt - endOfData);
+        statistics.insert(table.getName(), batchSize, respondedAt - closedAt, summary.getWrittenRows(), summary.getWrittenBytes());
+        if (insertEvent.shouldCommit()) {
+            insertEvent.table = table.getName();
+            insertEvent.format = format.name();
+            insertEvent.records = batchSize;
+            insertEvent.rows = summary.getWrittenRows();
+            insertEvent.bytes = summary.getWrittenBytes();
+            insertEvent.commit();
+        }
+    }
 
-        if ( records.isEmpty() )
-            return;
-        int batchSize = records.size();
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
 
-        Record first = records.get(0);
-        String topic = first.getTopic();
-        LOGGER.info(String.format("Number of records to insert %d to table name %s", batchSize, topic));
-        // Build the insert SQL
-        StringBuffer sb = new StringBuffer();
-        sb.append(String.format("INSERT INTO %s ", Utils.escapeTopicName(topic)));
-        sb.append(extractFields(first.getFields(), "(", ")", ",", ""));
-        sb.append(" VALUES ");
-        LOGGER.debug("sb {}", sb);
-        for (Record record: records ) {
-            LOGGER.debug("records {}", record.getJsonMap().keySet().stream().collect(Collectors.joining(",", "[", "]")));
-            List<Object> values = record.getFields().
-                    stream().
-                    map(field -> record.getJsonMap().get(field.name())).
-                    collect(Collectors.toList());
-            String valueStr = convertWithStream(values, "(", ")", ",", "'");
-            sb.append(valueStr + ",");
-        }
-        String insertStr = sb.deleteCharAt(sb.length() - 1).toString();
-        long s2 = System.currentTimeMillis();
-        //ClickHouseClient.load(server, ClickHouseFormat.RowBinaryWithNamesAndTypes)
-        LOGGER.debug("*****************");
-        LOGGER.debug(insertStr);
-        LOGGER.debug("*****************");
-        chc.query(insertStr, ClickHouseFormat.RowBinaryWithNamesAndTypes);
-        /*
-        try (ClickHouseClient client = ClickHouseClient.newInstance(ClickHouseProtocol.HTTP);
-             ClickHouseResponse response = client.connect(chc.getServer())  // or client.connect(endpoints)
-                     // you'll have to parse response manually if using a different format
-                     .option(ClickHouseClientOption.CONNECTION_TIMEOUT, csc.getTimeout())
-                     .option(ClickHouseClientOption.SOCKET_TIMEOUT, csc.getTimeout())
-                     .format(ClickHouseFormat.RowBinaryWithNamesAndTypes)
-                     .query(insertStr)
-                     .executeAndWait()) {
-            ClickHouseResponseSummary summary = response.getSummary();
-            long totalRows = summary.getTotalRowsToRead();
-            LOGGER.info("totalRows {}", totalRows);
-
-        } catch (ClickHouseException e) {
-            LOGGER.debug(insertStr);
-            LOGGER.error(String.format("INSERT ErrorCode %d ", e.getErrorCode()), e);
-            throw new RuntimeException(e);
-        }
-
-         */
-        long s3 = System.currentTimeMillis();
-        LOGGER.info("batchSize {} data ms {} send {}", batchSize, s2 - s1, s3 - s2);
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Remembers when the HTTP client read the end of the request body.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private volatile long endOfData;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getEndOfData(long defaultValue) {
+            long end = endOfData;
+            return end == 0 ? defaultValue : end;
+        }
+
+        private int endOfData(int read) {
+            if (read < 0 && endOfData == 0) {
+                endOfData = System.nanoTime();
+            }
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return endOfData(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return endOfData(super.read(b, off, len));
+        }
     }
 
     @Override
     public long recordsInserted() {
-        return 0;
+        return statistics.getInsertedRows();
+    }
+
+    private interface BatchEncoder {
+        void encode(OutputStream stream) throws IOException;
     }
 }
@@ -2,6 +2,7 @@ package com.clickhouse.kafka.connect.sink.db;
 
 import com.clickhouse.kafka.connect.sink.ClickHouseSinkConfig;
 import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
 
 import java.util.List;
 import java.util.Map;
@@ -12,4 +13,11 @@ public interface DBWriter {
     public void stop();
     public void doInsert(List<Record> records);
     public long recordsInserted();
+
+    /**
+     * @return the table the records of the topic are inserted into, null if unknown (records are converted entirely)
+     */
+    public default Table getTable(String topic) {
+        return null;
+    }
 }
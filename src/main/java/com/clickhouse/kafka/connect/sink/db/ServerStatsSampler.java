@@ -0,0 +1,128 @@
+package com.clickhouse.kafka.connect.sink.db;
+
+import com.clickhouse.client.ClickHouseClient;
+import com.clickhouse.client.ClickHouseException;
+import com.clickhouse.client.ClickHouseFormat;
+import com.clickhouse.client.ClickHouseNode;
+import com.clickhouse.client.ClickHouseProtocol;
+import com.clickhouse.client.ClickHouseRecord;
+import com.clickhouse.client.ClickHouseResponse;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the server side cost of the recent inserts of a task (elapsed time, memory usage, parts created) from
+ * system.query_log & system.part_log, joined on the query ids set by ClickHouseWriter, and adds it to the statistics
+ * of their topic.
+ */
+public class ServerStatsSampler implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerStatsSampler.class);
+    // The system logs are flushed every 7.5 seconds by default, rows are only read once both logs have them
+    private static final int FLUSH_DELAY_SECONDS = 15;
+    private static final int SEEN_QUERIES = 65536;
+    private static final int UNKNOWN_TABLE = 60;
+
+    private final ClickHouseNode server;
+    private final String queryIdPrefix;
+    private final SinkTaskStatistics statistics;
+    private final int lookbackSeconds;
+    // Query ids already counted, the windows of consecutive samples overlap
+    private final Set<String> seen = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_QUERIES;
+        }
+    });
+    private boolean partLog = true;
+
+    public ServerStatsSampler(ClickHouseNode server, String queryIdPrefix, SinkTaskStatistics statistics, long intervalMs) {
+        this.server = server;
+        this.queryIdPrefix = queryIdPrefix;
+        this.statistics = statistics;
+        this.lookbackSeconds = (int) Math.max(60, 4 * TimeUnit.MILLISECONDS.toSeconds(intervalMs)) + FLUSH_DELAY_SECONDS;
+    }
+
+    String query() {
+        String window = String.format("q.event_date >= yesterday() AND q.event_time BETWEEN now() - INTERVAL %d SECOND AND now() - INTERVAL %d SECOND",
+                lookbackSeconds, FLUSH_DELAY_SECONDS);
+        // The prefix has the connector name, quoted as a string literal
+        String prefix = queryIdPrefix.replace("\\", "\\\\").replace("'", "\\'");
+        String where = String.format("WHERE q.type = 'QueryFinish' AND startsWith(q.query_id, '%s:') AND %s", prefix, window);
+        if (!partLog) {
+            return "SELECT q.query_id, q.query_duration_ms, q.memory_usage, 0 FROM system.query_log AS q " + where;
+        }
+        // Parts are written before the query finishes, their window starts earlier. No part joined gives 0 parts
+        return String.format("SELECT q.query_id, q.query_duration_ms, q.memory_usage, p.parts FROM system.query_log AS q "
+                        + "LEFT JOIN (SELECT query_id, count() AS parts FROM system.part_log WHERE event_type = 'NewPart' "
+                        + "AND startsWith(query_id, '%s:') AND event_date >= yesterday() AND event_time >= now() - INTERVAL %d SECOND "
+                        + "GROUP BY query_id) AS p ON q.query_id = p.query_id ",
+                prefix, lookbackSeconds + 60) + where;
+    }
+
+    @Override
+    public void run() {
+        try {
+            sample();
+        } catch (Exception e) {
+            // Best effort, never fails the task
+            LOGGER.warn("Unable to sample the server statistics of the inserts", e);
+        }
+    }
+
+    private void sample() throws ClickHouseException {
+        try (ClickHouseClient client = ClickHouseClient.newInstance(ClickHouseProtocol.HTTP);
+             ClickHouseResponse response = client.connect(server)
+                     .format(ClickHouseFormat.RowBinaryWithNamesAndTypes)
+                     .query(query())
+                     .executeAndWait()) {
+            for (ClickHouseRecord r : response.records()) {
+                record(r.getValue(0).asString(), r.getValue(1).asLong(), r.getValue(2).asLong(), r.getValue(3).asLong());
+            }
+        } catch (ClickHouseException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Stops joining system.part_log when the server doesn't have it, other failures are rethrown and the next sample
+     * tries again.
+     */
+    void failed(ClickHouseException e) throws ClickHouseException {
+        if (!partLog || e.getErrorCode() != UNKNOWN_TABLE) {
+            throw e;
+        }
+        LOGGER.warn("system.part_log is not enabled, sampling the server statistics without the parts created", e);
+        partLog = false;
+    }
+
+    /**
+     * @return false if the query was already counted or isn't an insert of this task
+     */
+    boolean record(String queryId, long durationMs, long memoryUsage, long parts) {
+        String topic = topic(queryId);
+        if (topic == null || !seen.add(queryId)) {
+            return false;
+        }
+        statistics.topic(topic).serverInsert(TimeUnit.MILLISECONDS.toNanos(durationMs), memoryUsage, parts);
+        return true;
+    }
+
+    /**
+     * @return the topic of a query id made by ClickHouseWriter.queryId, null if it isn't one of this task
+     */
+    String topic(String queryId) {
+        if (!queryId.startsWith(queryIdPrefix + ":")) {
+            return null;
+        }
+        int start = queryIdPrefix.length() + 1;
+        int end = queryId.indexOf(':', start);
+        return end < 0 ? null : queryId.substring(start, end);
+    }
+}
@@ -15,11 +15,12 @@ public class Column {
         this.subType = null;
     }
 
-    private Column(String name, Type type, boolean isNullable, Type mapKeyType, Type mapValueType) {
+    private Column(String name, Type type, boolean isNullable, Type mapKeyType, Type mapValueType, Column mapValue) {
         this.name = name;
         this.type = type;
         this.isNullable = isNullable;
-        this.subType = null;
+        // The values of a map, with their own nullability & element type
+        this.subType = mapValue;
         this.mapKeyType = mapKeyType;
         this.mapValueType = mapValueType;
     }
@@ -139,10 +140,11 @@ public class Column {
         } else if(valueType.startsWith("Map")) {
             type = Type.MAP;
             String value = valueType.substring("Map".length() + 1, valueType.length() - 1);
-            String val[] = value.split(",");
-            String mapKey = val[0].trim();
-            String mapValue = val[1].trim();
-            return new Column(name, type, false, dispatchPrimitive(mapKey), dispatchPrimitive(mapValue));
+            // Keys are primitive, the value type can have commas of its own: Map(String, Map(String, Int32))
+            int separator = value.indexOf(',');
+            String mapKey = value.substring(0, separator).trim();
+            String mapValue = value.substring(separator + 1).trim();
+            return new Column(name, type, false, dispatchPrimitive(mapKey), dispatchPrimitive(mapValue), extractColumn(name, mapValue, false));
         } else if (valueType.startsWith("LowCardinality")) {
             return extractColumn(name, valueType.substring("LowCardinality".length() + 1, valueType.length() - 1), isNull);
         } else if (valueType.startsWith("Nullable")) {
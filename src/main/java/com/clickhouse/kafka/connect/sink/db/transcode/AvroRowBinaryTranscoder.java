@@ -0,0 +1,710 @@
+package com.clickhouse.kafka.connect.sink.db.transcode;
+
+import com.clickhouse.client.data.BinaryStreamUtils;
+import com.clickhouse.kafka.connect.sink.data.AvroValue;
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.db.mapping.Type;
+import org.apache.avro.Schema;
+import org.apache.kafka.connect.errors.DataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transcodes Avro binary values (AVRO records) into RowBinary rows of a table, without building a Struct or a Map.
+ * The plan of a (writer schema, table) pair is compiled once: the fields are skipped in writer order to locate the
+ * value of every column, then the columns are decoded and written in table order. Floats, doubles and strings are
+ * copied as is, both formats store them the same way.
+ * A schema that doesn't fit the table (a type that can't be converted, a non nullable column missing from the
+ * schema) fails when the plan is compiled. A row is assembled in a buffer first, so a record that fails never leaves
+ * a partial row in the insert, the rows before it are still sent. Not thread safe, use one instance per batch.
+ * Batches with a schema that doesn't fit are inserted as JSON instead, see {@link #supports(Table, List)} &
+ * {@link #toMap(AvroValue)}.
+ */
+public class AvroRowBinaryTranscoder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AvroRowBinaryTranscoder.class);
+
+    private static final int MAX_CACHED_PLANS = 1024;
+    private static final Map<PlanKey, Plan> PLANS = new ConcurrentHashMap<>();
+    // Pairs that failed to compile, not compiled again for every batch
+    private static final Set<PlanKey> REJECTED = ConcurrentHashMap.newKeySet();
+
+    private final Table table;
+    private final Input in = new Input();
+    private final RowBuffer row = new RowBuffer();
+    // Most batches have a single writer schema
+    private Schema schema;
+    private Plan plan;
+    private int[] fieldStart = new int[0];
+
+    public AvroRowBinaryTranscoder(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Writes the Avro record as one RowBinary row of the table.
+     */
+    public void transcode(AvroValue value, OutputStream out) throws IOException {
+        if (value.getSchema() != schema) {
+            schema = value.getSchema();
+            plan = plan(schema, table);
+            if (fieldStart.length < plan.fields.length) {
+                fieldStart = new int[plan.fields.length];
+            }
+        }
+        in.reset(value.getBytes(), value.getOffset());
+        for (int i = 0; i < plan.fields.length; i++) {
+            fieldStart[i] = in.pos;
+            plan.fields[i].skip(in);
+        }
+        row.reset();
+        for (int i = 0; i < plan.columns.length; i++) {
+            int field = plan.columnFields[i];
+            if (field < 0) {
+                BinaryStreamUtils.writeNull(row);
+                continue;
+            }
+            in.pos = fieldStart[field];
+            plan.columns[i].write(in, row);
+        }
+        row.writeTo(out);
+    }
+
+    /**
+     * Whether the writer schemas of the records that have a value all compile into a plan for the table.
+     */
+    public static boolean supports(Table table, List<Record> records) {
+        Schema last = null;
+        for (Record record : records) {
+            if (!record.hasValue()) {
+                continue;
+            }
+            Schema schema = ((AvroValue) record.getValue()).getSchema();
+            if (schema != last && !supports(schema, table)) {
+                return false;
+            }
+            last = schema;
+        }
+        return true;
+    }
+
+    private static boolean supports(Schema schema, Table table) {
+        PlanKey key = new PlanKey(schema, table);
+        if (PLANS.containsKey(key)) {
+            return true;
+        }
+        if (REJECTED.contains(key)) {
+            return false;
+        }
+        try {
+            plan(schema, table);
+            return true;
+        } catch (DataException e) {
+            LOGGER.warn(String.format("Avro schema %s doesn't fit table [%s], its records are inserted as JSON: %s", schema.getFullName(), table.getName(), e.getMessage()));
+            if (REJECTED.size() >= MAX_CACHED_PLANS) {
+                REJECTED.clear();
+            }
+            REJECTED.add(key);
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the Avro record into a map for the JSON insert: strings, bytes & enums as strings, records & maps as
+     * maps, arrays as lists. Logical types keep their underlying value.
+     */
+    public static Map<String, Object> toMap(AvroValue value) {
+        Input in = new Input();
+        in.reset(value.getBytes(), value.getOffset());
+        Schema schema = value.getSchema();
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new DataException(String.format("Avro schema %s is not a record", schema.getFullName()));
+        }
+        return readRecord(schema, in);
+    }
+
+    private static Map<String, Object> readRecord(Schema schema, Input in) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        for (Schema.Field field : schema.getFields()) {
+            record.put(field.name(), read(field.schema(), in));
+        }
+        return record;
+    }
+
+    private static Object read(Schema schema, Input in) {
+        switch (schema.getType()) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readByte() != 0;
+            case INT:
+                return (int) in.readLong();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return Float.intBitsToFloat(in.readIntLittleEndian());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLongLittleEndian());
+            case STRING:
+            case BYTES:
+                return readString(in, in.readLength());
+            case FIXED:
+                return readString(in, schema.getFixedSize());
+            case ENUM:
+                return schema.getEnumSymbols().get(in.readIndex(schema.getEnumSymbols().size()));
+            case ARRAY:
+                List<Object> array = new ArrayList<>();
+                for (long n = in.readLong(); n != 0; n = in.readLong()) {
+                    if (n < 0) {
+                        n = -n;
+                        in.readLong();
+                    }
+                    for (long i = 0; i < n; i++) {
+                        array.add(read(schema.getElementType(), in));
+                    }
+                }
+                return array;
+            case MAP:
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (long n = in.readLong(); n != 0; n = in.readLong()) {
+                    if (n < 0) {
+                        n = -n;
+                        in.readLong();
+                    }
+                    for (long i = 0; i < n; i++) {
+                        String key = readString(in, in.readLength());
+                        map.put(key, read(schema.getValueType(), in));
+                    }
+                }
+                return map;
+            case UNION:
+                return read(schema.getTypes().get(in.readIndex(schema.getTypes().size())), in);
+            case RECORD:
+                return readRecord(schema, in);
+            default:
+                throw new DataException(String.format("Avro type %s is not supported", schema.getType()));
+        }
+    }
+
+    private static String readString(Input in, int length) {
+        int start = in.pos;
+        in.skip(length);
+        return new String(in.bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    private static Plan plan(Schema schema, Table table) {
+        PlanKey key = new PlanKey(schema, table);
+        Plan plan = PLANS.get(key);
+        if (plan == null) {
+            if (PLANS.size() >= MAX_CACHED_PLANS) {
+                PLANS.clear();
+            }
+            plan = PLANS.computeIfAbsent(key, k -> compile(schema, table));
+        }
+        return plan;
+    }
+
+    static Plan compile(Schema schema, Table table) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new DataException(String.format("Avro schema %s is not a record", schema.getFullName()));
+        }
+        List<Schema.Field> fields = schema.getFields();
+        Skipper[] skippers = new Skipper[fields.size()];
+        Map<Schema, Skipper> compiled = new IdentityHashMap<>();
+        Map<String, Integer> fieldIndexes = new HashMap<>();
+        for (int i = 0; i < skippers.length; i++) {
+            skippers[i] = skipper(fields.get(i).schema(), compiled);
+            fieldIndexes.put(fields.get(i).name(), i);
+        }
+        List<Column> tableColumns = table.getColumns();
+        Writer[] writers = new Writer[tableColumns.size()];
+        int[] columnFields = new int[tableColumns.size()];
+        for (int i = 0; i < writers.length; i++) {
+            Column column = tableColumns.get(i);
+            Integer field = fieldIndexes.get(column.getName());
+            if (field == null) {
+                if (!column.isNullable()) {
+                    throw new DataException(String.format("Column [%s] of table [%s] is not nullable and is missing from Avro schema %s", column.getName(), table.getName(), schema.getFullName()));
+                }
+                columnFields[i] = -1;
+                continue;
+            }
+            columnFields[i] = field;
+            writers[i] = writer(fields.get(field).schema(), column.isNullable(), column.getType(), column);
+        }
+        return new Plan(skippers, columnFields, writers);
+    }
+
+    private static Skipper skipper(Schema schema) {
+        return skipper(schema, new IdentityHashMap<>());
+    }
+
+    /**
+     * @param compiled skippers by schema, a recursive record gets the skipper it is being compiled into
+     */
+    private static Skipper skipper(Schema schema, Map<Schema, Skipper> compiled) {
+        Skipper skipper = compiled.get(schema);
+        if (skipper != null) {
+            return skipper;
+        }
+        if (schema.getType() == Schema.Type.RECORD) {
+            Skipper[] fields = new Skipper[schema.getFields().size()];
+            Skipper record = in -> {
+                for (Skipper field : fields) {
+                    field.skip(in);
+                }
+            };
+            compiled.put(schema, record);
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = skipper(schema.getFields().get(i).schema(), compiled);
+            }
+            return record;
+        }
+        skipper = newSkipper(schema, compiled);
+        compiled.put(schema, skipper);
+        return skipper;
+    }
+
+    private static Skipper newSkipper(Schema schema, Map<Schema, Skipper> compiled) {
+        switch (schema.getType()) {
+            case NULL:
+                return in -> { };
+            case BOOLEAN:
+                return in -> in.skip(1);
+            case INT:
+            case LONG:
+            case ENUM:
+                return Input::readLong;
+            case FLOAT:
+                return in -> in.skip(4);
+            case DOUBLE:
+                return in -> in.skip(8);
+            case STRING:
+            case BYTES:
+                return in -> in.skip(in.readLength());
+            case FIXED:
+                int size = schema.getFixedSize();
+                return in -> in.skip(size);
+            case ARRAY:
+                Skipper element = skipper(schema.getElementType(), compiled);
+                return in -> skipBlocks(in, element);
+            case MAP:
+                Skipper value = skipper(schema.getValueType(), compiled);
+                return in -> skipBlocks(in, entry -> {
+                    entry.skip(entry.readLength());
+                    value.skip(entry);
+                });
+            case UNION:
+                Skipper[] branches = new Skipper[schema.getTypes().size()];
+                for (int i = 0; i < branches.length; i++) {
+                    branches[i] = skipper(schema.getTypes().get(i), compiled);
+                }
+                return in -> branches[in.readIndex(branches.length)].skip(in);
+            default:
+                throw new DataException(String.format("Avro type %s is not supported", schema.getType()));
+        }
+    }
+
+    /**
+     * Arrays & maps come in blocks of items, a negative count is followed by the size of the block in bytes.
+     *
+     * @return the number of items
+     */
+    private static int skipBlocks(Input in, Skipper item) {
+        long count = 0;
+        for (long n = in.readLong(); n != 0; n = in.readLong()) {
+            if (n < 0) {
+                // The whole block is skipped at once
+                in.skip(in.readLength());
+                count -= n;
+                continue;
+            }
+            for (long i = 0; i < n; i++) {
+                item.skip(in);
+            }
+            count += n;
+        }
+        return toInt(count);
+    }
+
+    private static Writer writer(Schema schema, boolean nullable, Type type, Column column) {
+        if (schema.getType() == Schema.Type.UNION) {
+            List<Schema> branches = schema.getTypes();
+            int nullBranch = -1;
+            Schema valueSchema = null;
+            for (int i = 0; i < branches.size(); i++) {
+                if (branches.get(i).getType() == Schema.Type.NULL) {
+                    nullBranch = i;
+                } else if (valueSchema == null) {
+                    valueSchema = branches.get(i);
+                } else {
+                    throw new DataException(String.format("Column [%s]: only unions of null and a single type are supported, got %s", column.getName(), branches));
+                }
+            }
+            if (valueSchema == null) {
+                throw unsupported(schema, type, column);
+            }
+            int nullIndex = nullBranch;
+            int branchCount = branches.size();
+            Writer value = writer(valueSchema, false, type, column);
+            return (in, out) -> {
+                if (in.readIndex(branchCount) == nullIndex) {
+                    if (!nullable) {
+                        throw new DataException(String.format("Column [%s] is not nullable and the value is null", column.getName()));
+                    }
+                    BinaryStreamUtils.writeNull(out);
+                    return;
+                }
+                if (nullable) {
+                    BinaryStreamUtils.writeNonNull(out);
+                }
+                value.write(in, out);
+            };
+        }
+        Writer value = valueWriter(schema, type, column);
+        if (!nullable) {
+            return value;
+        }
+        return (in, out) -> {
+            BinaryStreamUtils.writeNonNull(out);
+            value.write(in, out);
+        };
+    }
+
+    private static Writer valueWriter(Schema schema, Type type, Column column) {
+        switch (schema.getType()) {
+            case BOOLEAN:
+                if (type == Type.BOOLEAN || type == Type.INT8 || type == Type.UINT8) {
+                    // 0 or 1 in both formats
+                    return (in, out) -> out.write(in.readByte());
+                }
+                break;
+            case INT:
+            case LONG:
+                Writer number = numberWriter(schema, type);
+                if (number != null) {
+                    return number;
+                }
+                break;
+            case FLOAT:
+                if (type == Type.FLOAT32) {
+                    return (in, out) -> in.copy(out, 4);
+                }
+                if (type == Type.FLOAT64) {
+                    return (in, out) -> BinaryStreamUtils.writeFloat64(out, Float.intBitsToFloat(in.readIntLittleEndian()));
+                }
+                break;
+            case DOUBLE:
+                if (type == Type.FLOAT64) {
+                    return (in, out) -> in.copy(out, 8);
+                }
+                if (type == Type.FLOAT32) {
+                    return (in, out) -> BinaryStreamUtils.writeFloat32(out, (float) Double.longBitsToDouble(in.readLongLittleEndian()));
+                }
+                break;
+            case STRING:
+                if (type == Type.STRING) {
+                    return AvroRowBinaryTranscoder::copyString;
+                }
+                if (type == Type.UUID) {
+                    return (in, out) -> writeUuid(in, out, column);
+                }
+                break;
+            case BYTES:
+                if (type == Type.STRING) {
+                    return AvroRowBinaryTranscoder::copyString;
+                }
+                break;
+            case FIXED:
+                if (type == Type.STRING) {
+                    int size = schema.getFixedSize();
+                    return (in, out) -> {
+                        BinaryStreamUtils.writeVarInt(out, size);
+                        in.copy(out, size);
+                    };
+                }
+                break;
+            case ENUM:
+                if (type == Type.STRING) {
+                    List<String> symbols = schema.getEnumSymbols();
+                    byte[][] names = new byte[symbols.size()][];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = symbols.get(i).getBytes(StandardCharsets.UTF_8);
+                    }
+                    return (in, out) -> {
+                        byte[] name = names[in.readIndex(names.length)];
+                        BinaryStreamUtils.writeVarInt(out, name.length);
+                        out.write(name, 0, name.length);
+                    };
+                }
+                break;
+            case ARRAY:
+                if (type == Type.ARRAY) {
+                    Column subType = column.getSubType();
+                    Skipper skipElement = skipper(schema.getElementType());
+                    Writer element = writer(schema.getElementType(), subType.isNullable(), subType.getType(), subType);
+                    return (in, out) -> writeBlocks(in, out, skipElement, element);
+                }
+                break;
+            case MAP:
+                if (type == Type.MAP && column.getMapKeyType() == Type.STRING) {
+                    Skipper skipValue = skipper(schema.getValueType());
+                    Column valueColumn = column.getSubType();
+                    Writer value = writer(schema.getValueType(), valueColumn.isNullable(), valueColumn.getType(), valueColumn);
+                    return (in, out) -> writeBlocks(in, out, entry -> {
+                        entry.skip(entry.readLength());
+                        skipValue.skip(entry);
+                    }, (entry, entryOut) -> {
+                        copyString(entry, entryOut);
+                        value.write(entry, entryOut);
+                    });
+                }
+                break;
+            default:
+                break;
+        }
+        throw unsupported(schema, type, column);
+    }
+
+    /**
+     * Avro ints & longs are zigzag varints, narrowed to the column like the Struct path does.
+     */
+    private static Writer numberWriter(Schema schema, Type type) {
+        switch (type) {
+            case INT8:
+                return (in, out) -> BinaryStreamUtils.writeInt8(out, (byte) in.readLong());
+            case INT16:
+                return (in, out) -> BinaryStreamUtils.writeInt16(out, (short) in.readLong());
+            case INT32:
+            case Date32:
+                return (in, out) -> BinaryStreamUtils.writeInt32(out, (int) in.readLong());
+            case INT64:
+            case DateTime64:
+                return (in, out) -> BinaryStreamUtils.writeInt64(out, in.readLong());
+            case UINT8:
+                return (in, out) -> BinaryStreamUtils.writeUnsignedInt8(out, (int) in.readLong());
+            case UINT16:
+            case Date:
+                return (in, out) -> BinaryStreamUtils.writeUnsignedInt16(out, (int) in.readLong());
+            case UINT32:
+                return (in, out) -> BinaryStreamUtils.writeUnsignedInt32(out, in.readLong());
+            case UINT64:
+                return (in, out) -> BinaryStreamUtils.writeUnsignedInt64(out, in.readLong());
+            case DateTime:
+                // DateTime is in seconds
+                String logicalType = schema.getProp("logicalType");
+                long divisor = "timestamp-millis".equals(logicalType) ? 1000L : "timestamp-micros".equals(logicalType) ? 1000_000L : 1L;
+                return (in, out) -> BinaryStreamUtils.writeUnsignedInt32(out, in.readLong() / divisor);
+            case FLOAT32:
+                return (in, out) -> BinaryStreamUtils.writeFloat32(out, in.readLong());
+            case FLOAT64:
+                return (in, out) -> BinaryStreamUtils.writeFloat64(out, in.readLong());
+            default:
+                return null;
+        }
+    }
+
+    private static void copyString(Input in, OutputStream out) throws IOException {
+        int length = in.readLength();
+        BinaryStreamUtils.writeVarInt(out, length);
+        in.copy(out, length);
+    }
+
+    private static void writeUuid(Input in, OutputStream out, Column column) throws IOException {
+        int length = in.readLength();
+        int start = in.pos;
+        in.skip(length);
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        int digits = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = in.bytes[i];
+            if (b == '-') {
+                continue;
+            }
+            int digit = Character.digit(b, 16);
+            if (digit < 0 || digits == 32) {
+                digits = -1;
+                break;
+            }
+            if (digits++ < 16) {
+                mostSigBits = (mostSigBits << 4) | digit;
+            } else {
+                leastSigBits = (leastSigBits << 4) | digit;
+            }
+        }
+        if (digits != 32) {
+            throw new DataException(String.format("Value %s of column [%s] is not a UUID", new String(in.bytes, start, length, StandardCharsets.UTF_8), column.getName()));
+        }
+        BinaryStreamUtils.writeUuid(out, new UUID(mostSigBits, leastSigBits));
+    }
+
+    /**
+     * RowBinary starts with the number of items, the blocks are counted first.
+     */
+    private static void writeBlocks(Input in, OutputStream out, Skipper skipItem, Writer item) throws IOException {
+        int start = in.pos;
+        BinaryStreamUtils.writeVarInt(out, skipBlocks(in, skipItem));
+        in.pos = start;
+        for (long n = in.readLong(); n != 0; n = in.readLong()) {
+            if (n < 0) {
+                n = -n;
+                in.readLong();
+            }
+            for (long i = 0; i < n; i++) {
+                item.write(in, out);
+            }
+        }
+    }
+
+    private static int toInt(long value) {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new DataException(String.format("Invalid Avro length or count %d", value));
+        }
+        return (int) value;
+    }
+
+    private static DataException unsupported(Schema schema, Type type, Column column) {
+        return new DataException(String.format("Avro type %s can't be written to column [%s] of type %s", schema.getType(), column.getName(), type));
+    }
+
+    private interface Skipper {
+        void skip(Input in);
+    }
+
+    private interface Writer {
+        void write(Input in, OutputStream out) throws IOException;
+    }
+
+    static final class Plan {
+        // In writer order
+        private final Skipper[] fields;
+        // In table order, the field of each column or -1 (null)
+        private final int[] columnFields;
+        private final Writer[] columns;
+
+        private Plan(Skipper[] fields, int[] columnFields, Writer[] columns) {
+            this.fields = fields;
+            this.columnFields = columnFields;
+            this.columns = columns;
+        }
+    }
+
+    private static final class PlanKey {
+        private final Schema schema;
+        private final Table table;
+
+        PlanKey(Schema schema, Table table) {
+            this.schema = schema;
+            this.table = table;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) o;
+            return schema == other.schema && table == other.table;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(schema) + System.identityHashCode(table);
+        }
+    }
+
+    /**
+     * Reads the Avro binary encoding, every read is bound checked.
+     */
+    private static final class Input {
+        private byte[] bytes;
+        private int pos;
+        private int limit;
+
+        void reset(byte[] bytes, int offset) {
+            this.bytes = bytes;
+            this.pos = offset;
+            this.limit = bytes.length;
+        }
+
+        byte readByte() {
+            if (pos >= limit) {
+                throw truncated();
+            }
+            return bytes[pos++];
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new DataException(String.format("Invalid Avro varint at byte %d", pos));
+        }
+
+        int readIndex(int size) {
+            long index = readLong();
+            if (index < 0 || index >= size) {
+                throw new DataException(String.format("Invalid Avro union or enum index %d at byte %d", index, pos));
+            }
+            return (int) index;
+        }
+
+        int readLength() {
+            return toInt(readLong());
+        }
+
+        int readIntLittleEndian() {
+            check(4);
+            int value = (bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8 | (bytes[pos + 2] & 0xff) << 16 | (bytes[pos + 3] & 0xff) << 24;
+            pos += 4;
+            return value;
+        }
+
+        long readLongLittleEndian() {
+            long low = readIntLittleEndian() & 0xffffffffL;
+            long high = readIntLittleEndian() & 0xffffffffL;
+            return high << 32 | low;
+        }
+
+        void skip(int length) {
+            check(length);
+            pos += length;
+        }
+
+        void copy(OutputStream out, int length) throws IOException {
+            check(length);
+            out.write(bytes, pos, length);
+            pos += length;
+        }
+
+        private void check(int length) {
+            if (length > limit - pos) {
+                throw truncated();
+            }
+        }
+
+        private DataException truncated() {
+            return new DataException(String.format("Truncated Avro value at byte %d", pos));
+        }
+    }
+}
@@ -0,0 +1,773 @@
+package com.clickhouse.kafka.connect.sink.db.transcode;
+
+import com.clickhouse.client.data.BinaryStreamUtils;
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.db.mapping.Type;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Transcodes JSON objects (RAW records) into RowBinary rows of a table, straight from the input bytes.
+ * The object is scanned once to locate the value of every column, then the values are parsed and written in
+ * column order: no Map, Data or String is created (escaped strings are decoded into a reused buffer).
+ * Only tables whose columns can all be transcoded are supported, see {@link #supports(Table)}. A row is assembled in
+ * a buffer first, so a record that fails never leaves a partial row in the insert, the rows before it are still sent.
+ * Not thread safe, use one instance per batch.
+ */
+public class JsonRowBinaryTranscoder {
+
+    // Doubles with up to 15 significant digits and a power of ten up to 22 are exact (both fit a double)
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final BigInteger UINT64_MAX = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final Column[] columns;
+    private final byte[][] names;
+    // Open addressing table of column index + 1 by hash of the name, 0 is empty
+    private final int[] slots;
+    private final int slotMask;
+    private final int[] valueStart;
+    private final int[] valueEnd;
+    private final boolean[] valueEscaped;
+    private final RowBuffer row = new RowBuffer();
+    private byte[] scratch = new byte[256];
+
+    private byte[] input;
+    private int pos;
+    private int limit;
+    // Whether the last string scanned has escape sequences
+    private boolean escaped;
+
+    public JsonRowBinaryTranscoder(Table table) {
+        if (!supports(table)) {
+            throw new DataException(String.format("Table [%s] has columns that can't be transcoded from JSON to RowBinary", table.getName()));
+        }
+        List<Column> tableColumns = table.getColumns();
+        columns = tableColumns.toArray(new Column[0]);
+        names = new byte[columns.length][];
+        valueStart = new int[columns.length];
+        valueEnd = new int[columns.length];
+        valueEscaped = new boolean[columns.length];
+        slots = new int[Integer.highestOneBit(Math.max(2, columns.length * 2) - 1) << 1];
+        slotMask = slots.length - 1;
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = columns[i].getName().getBytes(StandardCharsets.UTF_8);
+            int slot = hash(names[i], 0, names[i].length) & slotMask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & slotMask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Whether every column of the table can be transcoded. Dates come as strings as often as numbers, they are left
+     * to ClickHouse like the types without a case here (Int128, UInt256...).
+     */
+    public static boolean supports(Table table) {
+        for (Column column : table.getColumns()) {
+            if (!supports(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean supports(Column column) {
+        switch (column.getType()) {
+            case ARRAY:
+                return supports(column.getSubType());
+            case MAP:
+                return supports(column.getMapKeyType()) && supports(column.getSubType());
+            default:
+                return supports(column.getType());
+        }
+    }
+
+    private static boolean supports(Type type) {
+        switch (type) {
+            case INT8:
+            case INT16:
+            case INT32:
+            case INT64:
+            case UINT8:
+            case UINT16:
+            case UINT32:
+            case UINT64:
+            case FLOAT32:
+            case FLOAT64:
+            case BOOLEAN:
+            case STRING:
+            case UUID:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes the JSON object as one RowBinary row of the table.
+     */
+    public void transcode(byte[] json, OutputStream out) throws IOException {
+        input = json;
+        pos = 0;
+        limit = json.length;
+        Arrays.fill(valueStart, -1);
+        skipWhitespace();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+        } else {
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("expected a field name");
+                }
+                int keyStart = pos + 1;
+                pos = scanString(pos);
+                boolean keyEscaped = escaped;
+                int keyEnd = pos - 1;
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                int start = pos;
+                skipValue();
+                int column = keyEscaped ? lookupEscaped(keyStart, keyEnd) : lookup(input, keyStart, keyEnd);
+                if (column >= 0) {
+                    valueStart[column] = start;
+                    valueEnd[column] = pos;
+                    valueEscaped[column] = escaped;
+                }
+                skipWhitespace();
+                byte b = next();
+                if (b == '}') {
+                    break;
+                }
+                if (b != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+
+        row.reset();
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            int start = valueStart[i];
+            if (start < 0 || isNull(start, valueEnd[i])) {
+                if (!column.isNullable()) {
+                    throw new DataException(String.format("Column [%s] is not nullable and the value is missing or null", column.getName()));
+                }
+                BinaryStreamUtils.writeNull(row);
+                continue;
+            }
+            if (column.isNullable()) {
+                BinaryStreamUtils.writeNonNull(row);
+            }
+            writeValue(column, column.getType(), start, valueEnd[i], valueEscaped[i]);
+        }
+        row.writeTo(out);
+    }
+
+    private void writeValue(Column column, Type type, int start, int end, boolean isEscaped) throws IOException {
+        switch (type) {
+            case INT8:
+                BinaryStreamUtils.writeInt8(row, (byte) parseLong(column, type, start, end));
+                break;
+            case INT16:
+                BinaryStreamUtils.writeInt16(row, (short) parseLong(column, type, start, end));
+                break;
+            case INT32:
+                BinaryStreamUtils.writeInt32(row, (int) parseLong(column, type, start, end));
+                break;
+            case INT64:
+                BinaryStreamUtils.writeInt64(row, parseLong(column, type, start, end));
+                break;
+            case UINT8:
+                BinaryStreamUtils.writeUnsignedInt8(row, (int) parseLong(column, type, start, end));
+                break;
+            case UINT16:
+                BinaryStreamUtils.writeUnsignedInt16(row, (int) parseLong(column, type, start, end));
+                break;
+            case UINT32:
+                BinaryStreamUtils.writeUnsignedInt32(row, parseLong(column, type, start, end));
+                break;
+            case UINT64:
+                BinaryStreamUtils.writeUnsignedInt64(row, parseLong(column, type, start, end));
+                break;
+            case FLOAT32:
+                BinaryStreamUtils.writeFloat32(row, (float) parseDouble(column, start, end));
+                break;
+            case FLOAT64:
+                BinaryStreamUtils.writeFloat64(row, parseDouble(column, start, end));
+                break;
+            case BOOLEAN:
+                BinaryStreamUtils.writeBoolean(row, parseBoolean(column, start, end));
+                break;
+            case STRING:
+                writeString(start, end, isEscaped);
+                break;
+            case UUID:
+                writeUuid(column, start, end);
+                break;
+            case ARRAY:
+                writeArray(column, start, end);
+                break;
+            case MAP:
+                writeMap(column, start, end);
+                break;
+            default:
+                throw new DataException(String.format("Column [%s] of type %s can't be transcoded from JSON to RowBinary", column.getName(), type));
+        }
+    }
+
+    private void writeString(int start, int end, boolean isEscaped) throws IOException {
+        if (input[start] != '"') {
+            // Numbers, booleans, objects & arrays are kept as their JSON text
+            BinaryStreamUtils.writeVarInt(row, end - start);
+            row.write(input, start, end - start);
+        } else if (!isEscaped) {
+            BinaryStreamUtils.writeVarInt(row, end - start - 2);
+            row.write(input, start + 1, end - start - 2);
+        } else {
+            int length = unescape(start + 1, end - 1);
+            BinaryStreamUtils.writeVarInt(row, length);
+            row.write(scratch, 0, length);
+        }
+    }
+
+    private void writeUuid(Column column, int start, int end) throws IOException {
+        if (end - start != 38 || input[start] != '"') {
+            throw valueError(column, start, end);
+        }
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        int digits = 0;
+        for (int i = start + 1; i < end - 1; i++) {
+            byte b = input[i];
+            if (b == '-') {
+                continue;
+            }
+            int digit = Character.digit(b, 16);
+            if (digit < 0) {
+                throw valueError(column, start, end);
+            }
+            if (digits++ < 16) {
+                mostSigBits = (mostSigBits << 4) | digit;
+            } else {
+                leastSigBits = (leastSigBits << 4) | digit;
+            }
+        }
+        if (digits != 32) {
+            throw valueError(column, start, end);
+        }
+        BinaryStreamUtils.writeUuid(row, new UUID(mostSigBits, leastSigBits));
+    }
+
+    private void writeArray(Column column, int start, int end) throws IOException {
+        if (input[start] != '[') {
+            throw valueError(column, start, end);
+        }
+        Column subType = column.getSubType();
+        // RowBinary starts with the number of elements, count them first
+        int count = 0;
+        pos = start + 1;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+        } else {
+            while (true) {
+                skipWhitespace();
+                skipValue();
+                count++;
+                skipWhitespace();
+                byte b = next();
+                if (b == ']') {
+                    break;
+                }
+                if (b != ',') {
+                    throw error("expected ',' or ']'");
+                }
+            }
+        }
+        BinaryStreamUtils.writeVarInt(row, count);
+        int next = start + 1;
+        for (int n = 0; n < count; n++) {
+            pos = next;
+            skipWhitespace();
+            int elementStart = pos;
+            skipValue();
+            int elementEnd = pos;
+            boolean elementEscaped = escaped;
+            skipWhitespace();
+            next = pos + 1;
+            if (isNull(elementStart, elementEnd)) {
+                if (!subType.isNullable()) {
+                    throw valueError(column, start, end);
+                }
+                BinaryStreamUtils.writeNull(row);
+                continue;
+            }
+            if (subType.isNullable()) {
+                BinaryStreamUtils.writeNonNull(row);
+            }
+            // Nested arrays move pos, elements are located from next
+            writeValue(subType, subType.getType(), elementStart, elementEnd, elementEscaped);
+        }
+    }
+
+    private void writeMap(Column column, int start, int end) throws IOException {
+        if (input[start] != '{') {
+            throw valueError(column, start, end);
+        }
+        int count = 0;
+        pos = start + 1;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+        } else {
+            while (true) {
+                skipWhitespace();
+                skipValue();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                skipValue();
+                count++;
+                skipWhitespace();
+                byte b = next();
+                if (b == '}') {
+                    break;
+                }
+                if (b != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+        BinaryStreamUtils.writeVarInt(row, count);
+        pos = start + 1;
+        for (int n = 0; n < count; n++) {
+            skipWhitespace();
+            int keyStart = pos;
+            skipValue();
+            int keyEnd = pos;
+            boolean keyEscaped = escaped;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            int entryStart = pos;
+            skipValue();
+            int entryEnd = pos;
+            boolean entryEscaped = escaped;
+            skipWhitespace();
+            pos++;
+            int next = pos;
+            writeValue(column, column.getMapKeyType(), keyStart, keyEnd, keyEscaped);
+            Column value = column.getSubType();
+            if (isNull(entryStart, entryEnd)) {
+                if (!value.isNullable()) {
+                    throw valueError(column, start, end);
+                }
+                BinaryStreamUtils.writeNull(row);
+            } else {
+                if (value.isNullable()) {
+                    BinaryStreamUtils.writeNonNull(row);
+                }
+                // Nested arrays & maps move pos, the next entry is located from next
+                writeValue(value, value.getType(), entryStart, entryEnd, entryEscaped);
+            }
+            pos = next;
+        }
+    }
+
+    /**
+     * Parses an integer of the type, values out of its range are rejected instead of wrapped.
+     */
+    private long parseLong(Column column, Type type, int start, int end) {
+        if (input[start] == '"') {
+            // Quoted numbers, also how map keys come
+            start++;
+            end--;
+        }
+        int i = start;
+        boolean negative = input[i] == '-';
+        if (negative || input[i] == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw valueError(column, start, end);
+        }
+        long value = 0;
+        if (end - i > 18) {
+            // Might not fit a long
+            BigInteger big;
+            try {
+                big = new BigInteger(new String(input, start, end - start, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw valueError(column, start, end);
+            }
+            if (type == Type.UINT64 && big.signum() >= 0 && big.compareTo(UINT64_MAX) <= 0) {
+                return big.longValue();
+            }
+            if (big.bitLength() > 63) {
+                throw valueError(column, start, end);
+            }
+            value = big.longValue();
+        } else {
+            for (; i < end; i++) {
+                int digit = input[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw valueError(column, start, end);
+                }
+                value = value * 10 + digit;
+            }
+            value = negative ? -value : value;
+        }
+        if (value < minValue(type) || value > maxValue(type)) {
+            throw valueError(column, start, end);
+        }
+        return value;
+    }
+
+    private static long minValue(Type type) {
+        switch (type) {
+            case INT8:
+                return Byte.MIN_VALUE;
+            case INT16:
+                return Short.MIN_VALUE;
+            case INT32:
+                return Integer.MIN_VALUE;
+            case UINT8:
+            case UINT16:
+            case UINT32:
+            case UINT64:
+                return 0;
+            default:
+                return Long.MIN_VALUE;
+        }
+    }
+
+    private static long maxValue(Type type) {
+        switch (type) {
+            case INT8:
+                return Byte.MAX_VALUE;
+            case INT16:
+                return Short.MAX_VALUE;
+            case INT32:
+                return Integer.MAX_VALUE;
+            case UINT8:
+                return 0xffL;
+            case UINT16:
+                return 0xffffL;
+            case UINT32:
+                return 0xffffffffL;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    private double parseDouble(Column column, int start, int end) {
+        if (input[start] == '"') {
+            start++;
+            end--;
+        }
+        int i = start;
+        boolean negative = input[i] == '-';
+        if (negative || input[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean digits = false;
+        for (; i < end && isDigit(input[i]); i++) {
+            digits = true;
+            if (mantissa != 0 || input[i] != '0') {
+                mantissa = mantissa * 10 + (input[i] - '0');
+                significantDigits++;
+            }
+        }
+        if (i < end && input[i] == '.') {
+            for (i++; i < end && isDigit(input[i]); i++) {
+                digits = true;
+                if (mantissa != 0 || input[i] != '0') {
+                    mantissa = mantissa * 10 + (input[i] - '0');
+                    significantDigits++;
+                }
+                exponent--;
+            }
+        }
+        if (digits && i < end && (input[i] == 'e' || input[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < end && input[i] == '-';
+            if (i < end && (input[i] == '-' || input[i] == '+')) {
+                i++;
+            }
+            int value = 0;
+            int exponentStart = i;
+            for (; i < end && isDigit(input[i]) && value < 10000; i++) {
+                value = value * 10 + (input[i] - '0');
+            }
+            digits = i > exponentStart;
+            exponent += negativeExponent ? -value : value;
+        }
+        if (digits && i == end) {
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+            if (significantDigits <= 15 && exponent >= -22 && exponent <= 22) {
+                double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+        }
+        // Slow path: too many digits, large exponents, NaN...
+        try {
+            return Double.parseDouble(new String(input, start, end - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw valueError(column, start, end);
+        }
+    }
+
+    private boolean parseBoolean(Column column, int start, int end) {
+        if (matches(start, end, "true")) {
+            return true;
+        }
+        if (matches(start, end, "false")) {
+            return false;
+        }
+        return parseLong(column, Type.INT64, start, end) != 0;
+    }
+
+    /**
+     * Decodes the escape sequences of the string between from & to into scratch.
+     *
+     * @return the number of bytes in scratch
+     */
+    private int unescape(int from, int to) {
+        // The decoded string is never longer than the escaped one
+        if (scratch.length < to - from) {
+            scratch = new byte[Math.max(to - from, scratch.length * 2)];
+        }
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            byte b = input[i];
+            if (b != '\\') {
+                scratch[length++] = b;
+                continue;
+            }
+            b = input[++i];
+            switch (b) {
+                case 'b':
+                    scratch[length++] = '\b';
+                    break;
+                case 'f':
+                    scratch[length++] = '\f';
+                    break;
+                case 'n':
+                    scratch[length++] = '\n';
+                    break;
+                case 'r':
+                    scratch[length++] = '\r';
+                    break;
+                case 't':
+                    scratch[length++] = '\t';
+                    break;
+                case 'u':
+                    int codePoint = hex4(i + 1);
+                    i += 4;
+                    if (Character.isHighSurrogate((char) codePoint) && i + 6 < to && input[i + 1] == '\\' && input[i + 2] == 'u') {
+                        int low = hex4(i + 3);
+                        if (Character.isLowSurrogate((char) low)) {
+                            codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                            i += 6;
+                        }
+                    }
+                    length = encodeUtf8(codePoint, length);
+                    break;
+                default:
+                    // \" \\ \/
+                    scratch[length++] = b;
+                    break;
+            }
+        }
+        return length;
+    }
+
+    private int hex4(int from) {
+        if (from + 4 > limit) {
+            throw error("truncated unicode escape");
+        }
+        int value = 0;
+        for (int i = from; i < from + 4; i++) {
+            int digit = Character.digit(input[i], 16);
+            if (digit < 0) {
+                throw error("invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private int encodeUtf8(int codePoint, int length) {
+        if (codePoint < 0x80) {
+            scratch[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            scratch[length++] = (byte) (0xc0 | (codePoint >> 6));
+            scratch[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            scratch[length++] = (byte) (0xe0 | (codePoint >> 12));
+            scratch[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            scratch[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+            scratch[length++] = (byte) (0xf0 | (codePoint >> 18));
+            scratch[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            scratch[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            scratch[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        }
+        return length;
+    }
+
+    private int lookupEscaped(int from, int to) {
+        int length = unescape(from, to);
+        return lookup(scratch, 0, length);
+    }
+
+    private int lookup(byte[] bytes, int from, int to) {
+        for (int slot = hash(bytes, from, to) & slotMask; slots[slot] != 0; slot = (slot + 1) & slotMask) {
+            int column = slots[slot] - 1;
+            if (Arrays.equals(names[column], 0, names[column].length, bytes, from, to)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param from position of the opening quote
+     * @return the position after the closing quote
+     */
+    private int scanString(int from) {
+        boolean hasEscape = false;
+        for (int i = from + 1; i < limit; i++) {
+            byte b = input[i];
+            if (b == '\\') {
+                hasEscape = true;
+                i++;
+            } else if (b == '"') {
+                escaped = hasEscape;
+                return i + 1;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private void skipValue() {
+        escaped = false;
+        byte b = peek();
+        if (b == '"') {
+            pos = scanString(pos);
+            return;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < limit) {
+                b = input[pos];
+                if (b == '"') {
+                    pos = scanString(pos);
+                    continue;
+                }
+                pos++;
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if ((b == '}' || b == ']') && --depth == 0) {
+                    escaped = false;
+                    return;
+                }
+            }
+            throw error("unterminated object or array");
+        }
+        // Number or literal
+        int start = pos;
+        while (pos < limit && (b = input[pos]) != ',' && b != '}' && b != ']' && !isWhitespace(b)) {
+            pos++;
+        }
+        if (pos == start) {
+            throw error("expected a value");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < limit && isWhitespace(input[pos])) {
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= limit) {
+            throw error("unexpected end of input");
+        }
+        return input[pos];
+    }
+
+    private byte next() {
+        byte b = peek();
+        pos++;
+        return b;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw error(String.format("expected '%c'", c));
+        }
+    }
+
+    private boolean isNull(int start, int end) {
+        return matches(start, end, "null");
+    }
+
+    private boolean matches(int start, int end, String literal) {
+        if (end - start != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (input[start + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private DataException error(String message) {
+        return new DataException(String.format("Invalid JSON at byte %d: %s", pos, message));
+    }
+
+    private DataException valueError(Column column, int start, int end) {
+        return new DataException(String.format("Value %s can't be written to column [%s] of type %s", new String(input, start, end - start, StandardCharsets.UTF_8), column.getName(), column.getType()));
+    }
+}
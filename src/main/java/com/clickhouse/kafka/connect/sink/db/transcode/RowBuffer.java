@@ -0,0 +1,40 @@
+package com.clickhouse.kafka.connect.sink.db.transcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * ByteArrayOutputStream without the synchronization, transcoders assemble a row in it before writing it out.
+ */
+final class RowBuffer extends OutputStream {
+    private byte[] buffer = new byte[1024];
+    private int count;
+
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(count + length, buffer.length * 2));
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    void reset() {
+        count = 0;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+}
@@ -0,0 +1,39 @@
+package com.clickhouse.kafka.connect.sink.hashing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps a whole topic partition to a bucket, so all records of a partition land on the same shard.
+ * Uses jump consistent hashing (Lamping &amp; Veach), only ~1/n of the partitions move when a bucket is added.
+ */
+public class PartitionHash {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionHash.class);
+
+    private PartitionHash() {
+
+    }
+
+    /**
+     * String.hashCode is defined by the language spec, so the bucket is the same on every worker and restart.
+     */
+    public static int getBucketIndex(String topic, int partition, int n_buckets) {
+        if (n_buckets < 1) {
+            LOGGER.error("number of buckets needs to be a positive integer not: " + n_buckets);
+            return -1;
+        }
+        long key = ((long) topic.hashCode() << 32) ^ (partition & 0xffffffffL);
+        return jumpConsistentHash(key, n_buckets);
+    }
+
+    static int jumpConsistentHash(long key, int n_buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < n_buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+}
@@ -0,0 +1,34 @@
+package com.clickhouse.kafka.connect.sink.kafka;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Topic & partition packed into a long: the interned id of the topic in the high 32 bits, the partition in the low ones.
+ * Topic ids are only meaningful inside this JVM, never persist them.
+ */
+public final class TopicPartitionKey {
+
+    private static final Map<String, Integer> TOPIC_IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_TOPIC_ID = new AtomicInteger();
+
+    private TopicPartitionKey() {
+    }
+
+    public static int topicId(String topic) {
+        Integer id = TOPIC_IDS.get(topic);
+        if (id == null) {
+            id = TOPIC_IDS.computeIfAbsent(topic, t -> NEXT_TOPIC_ID.getAndIncrement());
+        }
+        return id;
+    }
+
+    public static long of(String topic, int partition) {
+        return ((long) topicId(topic) << 32) | (partition & 0xffffffffL);
+    }
+
+    public static int partition(long key) {
+        return (int) key;
+    }
+}
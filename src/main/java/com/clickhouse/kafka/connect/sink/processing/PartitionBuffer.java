@@ -0,0 +1,128 @@
+package com.clickhouse.kafka.connect.sink.processing;
+
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records of a single topic partition buffered across put calls while exactly once is enabled.
+ * Batches are only cut at offsets that a replay reproduces: the boundaries of a BEFORE_PROCESSING range
+ * persisted in the state, or every batchOffsets offsets ([0, N-1], [N, 2N-1], ...).
+ * A batch flushed early because of the timeout is persisted as BEFORE_PROCESSING before its insert,
+ * so it becomes a replayable boundary as well.
+ * Batches stay buffered until they are released once written, a failed insert is cut again from the same records
+ * when the put is retried (Connect only redelivers the records of the last put).
+ */
+public class PartitionBuffer {
+
+    private final long batchOffsets;
+    private final long timeoutMs;
+    private final List<Record> records = new ArrayList<>();
+    private long bufferedSince = -1;
+
+    public PartitionBuffer(long batchOffsets, long timeoutMs) {
+        this.batchOffsets = batchOffsets;
+        this.timeoutMs = timeoutMs;
+    }
+
+    private static long offset(Record record) {
+        return record.getRecordOffsetContainer().getOffset();
+    }
+
+    public void add(List<Record> newRecords, long now) {
+        List<Record> sorted = Processing.inOffsetOrder(newRecords);
+        long lastOffset = records.isEmpty() ? -1 : offset(records.get(records.size() - 1));
+        for (Record record : sorted) {
+            // Redelivered records are already buffered
+            if (offset(record) > lastOffset) {
+                records.add(record);
+                lastOffset = offset(record);
+            }
+        }
+        if (bufferedSince < 0 && !records.isEmpty()) {
+            bufferedSince = now;
+        }
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Returns the complete batches, plus whatever is left once the oldest buffered record timed out. Only the records
+     * the state says are written are removed, the batches are removed by release.
+     *
+     * @param stateRecord last persisted state of the topic partition
+     */
+    public List<List<Record>> cut(StateRecord stateRecord, long now) {
+        List<List<Record>> batches = new ArrayList<>();
+        // Skip what the state says is already (being) written, Processing would drop it anyway
+        long writtenUpTo = -1;
+        long pendingEnd = -1;
+        if (stateRecord.getState() == State.AFTER_PROCESSING) {
+            writtenUpTo = stateRecord.getMaxOffset();
+        } else if (stateRecord.getState() == State.BEFORE_PROCESSING) {
+            writtenUpTo = stateRecord.getMinOffset() - 1;
+            pendingEnd = stateRecord.getMaxOffset();
+        }
+        int start = 0;
+        while (start < records.size() && offset(records.get(start)) <= writtenUpTo) {
+            start++;
+        }
+        remove(start, now);
+        start = 0;
+
+        while (start < records.size()) {
+            long first = offset(records.get(start));
+            // An interrupted batch is replayed with its persisted boundaries
+            long end = pendingEnd >= first ? pendingEnd : (first / batchOffsets + 1) * batchOffsets - 1;
+            pendingEnd = -1;
+            int endIndex = start;
+            while (endIndex < records.size() && offset(records.get(endIndex)) <= end) {
+                endIndex++;
+            }
+            // Complete once we saw the last offset of the batch or anything past it (offsets may have gaps)
+            if (endIndex == records.size() && offset(records.get(endIndex - 1)) != end) {
+                break;
+            }
+            batches.add(new ArrayList<>(records.subList(start, endIndex)));
+            start = endIndex;
+        }
+
+        if (start < records.size() && now - bufferedSince >= timeoutMs) {
+            batches.add(new ArrayList<>(records.subList(start, records.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * Removes the records up to offset, once the batch ending there was written.
+     */
+    public void release(long offset, long now) {
+        int end = 0;
+        while (end < records.size() && offset(records.get(end)) <= offset) {
+            end++;
+        }
+        remove(end, now);
+    }
+
+    private void remove(int end, long now) {
+        if (end > 0) {
+            records.subList(0, end).clear();
+            // We don't track per record arrival, restart the clock for the remaining records
+            bufferedSince = records.isEmpty() ? -1 : now;
+        }
+    }
+
+    public void clear() {
+        records.clear();
+        bufferedSince = -1;
+    }
+}
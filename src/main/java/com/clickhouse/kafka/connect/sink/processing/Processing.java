@@ -5,18 +5,23 @@ import com.clickhouse.kafka.connect.sink.data.Record;
 import com.clickhouse.kafka.connect.sink.db.DBWriter;
 import com.clickhouse.kafka.connect.sink.dlq.DuplicateException;
 import com.clickhouse.kafka.connect.sink.dlq.ErrorReporter;
+import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
 import com.clickhouse.kafka.connect.sink.kafka.RangeContainer;
 import com.clickhouse.kafka.connect.sink.state.State;
 import com.clickhouse.kafka.connect.sink.state.StateProvider;
 import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.util.jfr.StateTransitionEvent;
+import com.clickhouse.kafka.connect.util.jmx.PartitionStatistics;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTaskContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 public class Processing {
     private static final Logger LOGGER = LoggerFactory.getLogger(Processing.class);
@@ -24,17 +29,21 @@ public class Processing {
     private DBWriter dbWriter = null;
 
     private ErrorReporter errorReporter = null;
+    private SinkTaskStatistics statistics = null;
 
     public Processing(StateProvider stateProvider, DBWriter dbWriter) {
-        this.stateProvider = stateProvider;
-        this.dbWriter = dbWriter;
-        this.errorReporter = null;
+        this(stateProvider, dbWriter, null);
     }
 
     public Processing(StateProvider stateProvider, DBWriter dbWriter, ErrorReporter errorReporter) {
+        this(stateProvider, dbWriter, errorReporter, new SinkTaskStatistics());
+    }
+
+    public Processing(StateProvider stateProvider, DBWriter dbWriter, ErrorReporter errorReporter, SinkTaskStatistics statistics) {
         this.stateProvider = stateProvider;
         this.dbWriter = dbWriter;
         this.errorReporter = errorReporter;
+        this.statistics = statistics;
     }
     /**
      * the logic is only for topic partition scoop
@@ -43,35 +52,94 @@ public class Processing {
      */
     private void doInsert(List<Record> records) {
         dbWriter.doInsert(records);
+        recordFreshness(records);
+    }
+
+    /**
+     * Once ClickHouse acknowledged the insert, records the time since the Kafka timestamp of every record.
+     */
+    private void recordFreshness(List<Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        OffsetContainer first = records.get(0).getRecordOffsetContainer();
+        PartitionStatistics partitionStatistics = statistics.partition(first.getTopic(), first.getPartition());
+        long now = System.currentTimeMillis();
+        long oldest = Long.MAX_VALUE;
+        for (Record record : records) {
+            long timestamp = record.getTimestamp();
+            if (timestamp != Record.NO_TIMESTAMP) {
+                partitionStatistics.freshness(TimeUnit.MILLISECONDS.toNanos(now - timestamp));
+                oldest = Math.min(oldest, timestamp);
+            }
+        }
+        if (oldest != Long.MAX_VALUE) {
+            statistics.freshness(TimeUnit.MILLISECONDS.toNanos(now - oldest));
+        }
     }
 
 
+    /**
+     * Records are in offset order, so the range is given by the first and the last one.
+     */
     private RangeContainer extractRange(List<Record> records, String topic, int partition) {
-        RangeContainer rangeContainer = new RangeContainer(topic, partition);
-        records.stream().forEach(record -> rangeContainer.defineInRange(record.getRecordOffsetContainer().getOffset()));
-        return rangeContainer;
+        return new RangeContainer(topic, partition, offset(records.get(records.size() - 1)), offset(records.get(0)));
+    }
+
+    private static long offset(Record record) {
+        return record.getRecordOffsetContainer().getOffset();
     }
 
     /**
-     * Filters out all the records below the fromOffset.
+     * @return the index of the first record with an offset >= the given one (records.size() if there is none)
+     */
+    private static int lowerBound(List<Record> records, long offset) {
+        int low = 0;
+        int high = records.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offset(records.get(mid)) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Drops all the records below the fromOffset, returns a view of the remaining ones.
      */
     private List<Record> dropRecords(long fromOffset, List<Record> records) {
-        return records.stream().filter(data -> data.getRecordOffsetContainer().getOffset() >= fromOffset).collect(Collectors.toList());
+        return records.subList(lowerBound(records, fromOffset), records.size());
     }
 
     /**
-     * Splits a list of records into two lists, one from the min offset up to the provided offset (inclusive).
+     * Splits a list of records into two views, the first from the min offset up to the provided offset (inclusive).
      * The second from offset (exclusive) to the max offset (inclusive).
      * This method will not return records below the minOffset.
      */
     private List<List<Record>> splitRecordsByOffset(List<Record> records, long offset, long minOffset) {
-        return new ArrayList<>(
-                records.stream()
-                        .filter(record -> record.getRecordOffsetContainer().getOffset() >= minOffset)
-                        .collect(Collectors.partitioningBy(record -> record.getRecordOffsetContainer().getOffset() <= offset))
-                        .values()
-        );
+        int from = lowerBound(records, minOffset);
+        int split = Math.max(from, lowerBound(records, offset + 1));
+        return List.of(records.subList(from, split), records.subList(split, records.size()));
+    }
+
+    /**
+     * Processing expects the records of a partition in offset order, they only need sorting if they were
+     * spread over threads before (e.g. record hashing).
+     */
+    public static List<Record> inOffsetOrder(List<Record> records) {
+        for (int i = 1; i < records.size(); i++) {
+            if (offset(records.get(i - 1)) > offset(records.get(i))) {
+                List<Record> sorted = new ArrayList<>(records);
+                sorted.sort(Comparator.comparingLong(Processing::offset));
+                return sorted;
+            }
+        }
+        return records;
     }
+
     private void sendTODlq(Record record, Exception exception) {
         if (errorReporter != null && record.getSinkRecord() != null) {
             errorReporter.report(record.getSinkRecord(), exception);
@@ -79,6 +147,17 @@ public class Processing {
     }
 
     public void doLogic(List<Record> records) {
+        Record record = records.get(0);
+        doLogic(records, stateProvider.getStateRecord(record.getRecordOffsetContainer().getTopic(), record.getRecordOffsetContainer().getPartition()));
+    }
+
+    /**
+     * Same as doLogic(records) with the last state of the topic partition already fetched,
+     * so the caller can read the state of all its partitions in a single batch.
+     */
+    public void doLogic(List<Record> records, StateRecord stateRecord) {
+        StateTransitionEvent stateTransitionEvent = new StateTransitionEvent();
+        stateTransitionEvent.begin();
         List<Record> trimmedRecords;
         Record record = records.get(0);
 
@@ -93,8 +172,7 @@ public class Processing {
         // [10 , 19]              [10, 15] ==> contains
 
 
-        // first, let get last topic partition range & state
-        StateRecord stateRecord = stateProvider.getStateRecord(topic, partition);
+        // the last topic partition range & state
         switch (stateRecord.getState()) {
             case NONE:
                 // this is the first time we see this topic and partition; or we had a previous failure setting the state.
@@ -124,7 +202,7 @@ public class Processing {
                         LOGGER.warn(String.format("Records seemingly missing compared to prior batch for topic [%s] partition [%s].", topic, partition));
                         // Do nothing - write to dead letter queue
                         records.forEach( r ->
-                                sendTODlq(record, new DuplicateException(String.format(record.getTopicAndPartition())))
+                                sendTODlq(r, new DuplicateException(String.format(r.getTopicAndPartition())))
                         );
                         break;
                     case OVER_LAPPING:
@@ -144,6 +222,7 @@ public class Processing {
                         LOGGER.warn(String.format("State mismatch for topic [%s] partition [%s].", topic, partition));
                         break;
                 }
+                break;
             case AFTER_PROCESSING:
                 int apBeforeDrop = records.size();
                 trimmedRecords = dropRecords(stateRecord.getMinOffset(), records);
@@ -177,6 +256,16 @@ public class Processing {
                         LOGGER.warn(String.format("State mismatch for topic [%s] partition [%s]", topic, partition));
                 }
         }
+        if (stateTransitionEvent.shouldCommit()) {
+            stateTransitionEvent.topic = topic;
+            stateTransitionEvent.partition = partition;
+            stateTransitionEvent.state = stateRecord.getState().name();
+            stateTransitionEvent.rangeState = stateRecord.getState() == State.NONE ? "" : stateRecord.getOverLappingState(rangeContainer).name();
+            stateTransitionEvent.minOffset = rangeContainer.getMinOffset();
+            stateTransitionEvent.maxOffset = rangeContainer.getMaxOffset();
+            stateTransitionEvent.records = records.size();
+            stateTransitionEvent.commit();
+        }
     }
 
 }
@@ -1,10 +1,49 @@
 package com.clickhouse.kafka.connect.sink.state;
 
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public interface StateProvider {
 
     public StateRecord getStateRecord(String topic, int partition );
 
 
+    /**
+     * Reads the state of several topic partitions at once, providers with a round-trip per read should override this.
+     */
+    public default Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, StateRecord> stateRecords = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            stateRecords.put(partition, getStateRecord(partition.topic(), partition.partition()));
+        }
+        return stateRecords;
+    }
+
     public void setStateRecord(StateRecord stateRecord);
 
+    /**
+     * Writes several state transitions at once, providers with a round-trip per write should override this.
+     * Records are applied in iteration order, so the last record of a topic partition wins.
+     */
+    public default void setStateRecords(Collection<StateRecord> stateRecords) {
+        for (StateRecord stateRecord : stateRecords) {
+            setStateRecord(stateRecord);
+        }
+    }
+
+    /**
+     * Makes the state written so far durable, called once at the end of every put.
+     */
+    public default void flush() {
+    }
+
+    /**
+     * Releases connections or sessions held by the provider.
+     */
+    public default void stop() {
+    }
+
 }
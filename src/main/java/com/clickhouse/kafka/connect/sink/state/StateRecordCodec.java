@@ -0,0 +1,43 @@
+package com.clickhouse.kafka.connect.sink.state;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary value of a state record, shared by the key/value state providers.
+ * Topic & partition are part of the key and not encoded, the layout is
+ * [format version:1][state:1][minOffset:8][maxOffset:8].
+ */
+public final class StateRecordCodec {
+
+    private static final byte FORMAT_VERSION = 1;
+    public static final int ENCODED_SIZE = 18;
+    private static final State[] STATES = State.values();
+
+    private StateRecordCodec() {
+    }
+
+    public static byte[] encode(StateRecord stateRecord) {
+        return ByteBuffer.allocate(ENCODED_SIZE)
+                .put(FORMAT_VERSION)
+                .put((byte) stateRecord.getState().ordinal())
+                .putLong(stateRecord.getMinOffset())
+                .putLong(stateRecord.getMaxOffset())
+                .array();
+    }
+
+    /**
+     * @return the decoded record or a NONE state record if there is no value
+     */
+    public static StateRecord decode(String topic, int partition, byte[] value) {
+        if (value == null || value.length == 0) {
+            return new StateRecord(topic, partition, -1, -1, State.NONE);
+        }
+        if (value.length != ENCODED_SIZE || value[0] != FORMAT_VERSION || value[1] < 0 || value[1] >= STATES.length) {
+            throw new IllegalArgumentException(String.format("Invalid state value for topic %s partition %d", topic, partition));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value, 2, ENCODED_SIZE - 2);
+        long minOffset = buffer.getLong();
+        long maxOffset = buffer.getLong();
+        return new StateRecord(topic, partition, maxOffset, minOffset, STATES[value[1]]);
+    }
+}
@@ -0,0 +1,103 @@
+package com.clickhouse.kafka.connect.sink.state.provider;
+
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-through cache in front of a remote state provider.
+ * While the task owns a partition it is the only writer of its state, so after the first load reads are
+ * served from memory. Partitions must be invalidated when they are assigned or revoked.
+ */
+public class CachingStateProvider implements StateProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingStateProvider.class);
+    private final StateProvider stateProvider;
+    private final Map<TopicPartition, StateRecord> cache = new ConcurrentHashMap<>();
+
+    public CachingStateProvider(StateProvider stateProvider) {
+        this.stateProvider = stateProvider;
+    }
+
+    @Override
+    public StateRecord getStateRecord(String topic, int partition) {
+        TopicPartition key = new TopicPartition(topic, partition);
+        StateRecord stateRecord = cache.get(key);
+        if (stateRecord == null) {
+            stateRecord = stateProvider.getStateRecord(topic, partition);
+            cache.put(key, stateRecord);
+        }
+        return stateRecord;
+    }
+
+    @Override
+    public Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, StateRecord> stateRecords = new HashMap<>();
+        List<TopicPartition> missing = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            StateRecord stateRecord = cache.get(partition);
+            if (stateRecord == null) {
+                missing.add(partition);
+            } else {
+                stateRecords.put(partition, stateRecord);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<TopicPartition, StateRecord> loaded = stateProvider.getStateRecords(missing);
+            cache.putAll(loaded);
+            stateRecords.putAll(loaded);
+        }
+        return stateRecords;
+    }
+
+    @Override
+    public void setStateRecord(StateRecord stateRecord) {
+        TopicPartition key = new TopicPartition(stateRecord.getTopic(), stateRecord.getPartition());
+        try {
+            stateProvider.setStateRecord(stateRecord);
+        } catch (RuntimeException e) {
+            // We don't know whether the write landed, reload on the next read
+            cache.remove(key);
+            throw e;
+        }
+        cache.put(key, stateRecord);
+    }
+
+    @Override
+    public void setStateRecords(Collection<StateRecord> stateRecords) {
+        try {
+            stateProvider.setStateRecords(stateRecords);
+        } catch (RuntimeException e) {
+            stateRecords.forEach(stateRecord -> cache.remove(new TopicPartition(stateRecord.getTopic(), stateRecord.getPartition())));
+            throw e;
+        }
+        stateRecords.forEach(stateRecord -> cache.put(new TopicPartition(stateRecord.getTopic(), stateRecord.getPartition()), stateRecord));
+    }
+
+    /**
+     * Drops the cached state, called on partition open/close since another task may have written it meanwhile.
+     */
+    public void invalidate(Collection<TopicPartition> partitions) {
+        LOGGER.debug(String.format("Invalidating cached state of %d partitions", partitions.size()));
+        partitions.forEach(cache::remove);
+    }
+
+    @Override
+    public void flush() {
+        stateProvider.flush();
+    }
+
+    @Override
+    public void stop() {
+        stateProvider.stop();
+    }
+}
@@ -0,0 +1,92 @@
+package com.clickhouse.kafka.connect.sink.state.provider;
+
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit in front of a state provider, used when partitions are processed in parallel.
+ * Writers arriving while a batch is in flight join the next group, the first of them to get the
+ * commit lock writes the whole group with a single setStateRecords call.
+ * Each caller only returns once its own records are written (or throws if that write failed).
+ */
+public class GroupCommitStateProvider implements StateProvider {
+
+    private static class Group {
+        private final List<StateRecord> stateRecords = new ArrayList<>();
+        private boolean done = false;
+        private RuntimeException failure = null;
+    }
+
+    private final StateProvider stateProvider;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Object monitor = new Object();
+    private Group current = new Group();
+
+    public GroupCommitStateProvider(StateProvider stateProvider) {
+        this.stateProvider = stateProvider;
+    }
+
+    @Override
+    public StateRecord getStateRecord(String topic, int partition) {
+        return stateProvider.getStateRecord(topic, partition);
+    }
+
+    @Override
+    public Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        return stateProvider.getStateRecords(partitions);
+    }
+
+    @Override
+    public void setStateRecord(StateRecord stateRecord) {
+        setStateRecords(Collections.singletonList(stateRecord));
+    }
+
+    @Override
+    public void setStateRecords(Collection<StateRecord> stateRecords) {
+        Group group;
+        synchronized (monitor) {
+            group = current;
+            group.stateRecords.addAll(stateRecords);
+        }
+        commitLock.lock();
+        try {
+            // done & failure are only touched under the commit lock
+            if (!group.done) {
+                synchronized (monitor) {
+                    if (current == group) {
+                        current = new Group();
+                    }
+                }
+                try {
+                    stateProvider.setStateRecords(group.stateRecords);
+                } catch (RuntimeException e) {
+                    group.failure = e;
+                }
+                group.done = true;
+            }
+            if (group.failure != null) {
+                throw group.failure;
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        stateProvider.flush();
+    }
+
+    @Override
+    public void stop() {
+        stateProvider.stop();
+    }
+}
@@ -1,34 +1,35 @@
 package com.clickhouse.kafka.connect.sink.state.provider;
 
 import com.clickhouse.kafka.connect.sink.kafka.RangeContainer;
+import com.clickhouse.kafka.connect.sink.kafka.TopicPartitionKey;
 import com.clickhouse.kafka.connect.sink.state.State;
 import com.clickhouse.kafka.connect.sink.state.StateProvider;
 import com.clickhouse.kafka.connect.sink.state.StateRecord;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class InMemoryState implements StateProvider {
 
-    private Map<String, StateRecord> stateDB = null;
+    private Map<Long, StateRecord> stateDB = null;
     public InMemoryState() {
-        this.stateDB = new HashMap<>(10);
+        this.stateDB = new ConcurrentHashMap<>(10);
     }
 
-    private String genKey(String topic, int partition) {
-        return String.format("%s-%d", topic, partition);
+    private long genKey(String topic, int partition) {
+        return TopicPartitionKey.of(topic, partition);
     }
     @Override
     public StateRecord getStateRecord(String topic, int partition) {
-        String key = genKey(topic, partition);
-        if ( !stateDB.containsKey(key))
+        StateRecord stateRecord = stateDB.get(genKey(topic, partition));
+        if (stateRecord == null)
             return new StateRecord(topic, partition, -1 , -1, State.NONE);
-        return stateDB.get(key);
+        return stateRecord;
     }
 
     @Override
     public void setStateRecord(StateRecord stateRecord) {
-        String key = genKey(stateRecord.getTopic(), stateRecord.getPartition());
+        long key = genKey(stateRecord.getTopic(), stateRecord.getPartition());
         stateDB.put(key, stateRecord);
     }
 }
@@ -9,10 +9,13 @@ import com.clickhouse.kafka.connect.sink.state.State;
 import com.clickhouse.kafka.connect.sink.state.StateProvider;
 import com.clickhouse.kafka.connect.sink.state.StateRecord;
 import com.clickhouse.kafka.connect.util.Mask;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -97,6 +100,50 @@ public class KeeperStateProvider implements StateProvider {
         }
     }
 
+    /**
+     * Reads the state of all partitions with a single {@code key IN (...)} select instead of a round-trip per partition.
+     */
+    @Override
+    public Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, StateRecord> stateRecords = new HashMap<>();
+        if (partitions.isEmpty())
+            return stateRecords;
+        Map<String, TopicPartition> keys = new LinkedHashMap<>();
+        for (TopicPartition topicPartition : partitions) {
+            keys.put(String.format("%s-%d", topicPartition.topic(), topicPartition.partition()), topicPartition);
+        }
+        StringBuilder sb = new StringBuilder("SELECT * from connect_state where `key` IN (");
+        String delimiter = "";
+        for (String key : keys.keySet()) {
+            sb.append(delimiter).append('\'').append(key).append('\'');
+            delimiter = ", ";
+        }
+        sb.append(')');
+        try (ClickHouseClient client = ClickHouseClient.newInstance(ClickHouseProtocol.HTTP);
+             ClickHouseResponse response = client.connect(chc.getServer())
+                     .format(ClickHouseFormat.RowBinaryWithNamesAndTypes)
+                     .query(sb.toString())
+                     .executeAndWait()) {
+            for (ClickHouseRecord r : response.records()) {
+                TopicPartition topicPartition = keys.get(r.getValue(0).asString());
+                if (topicPartition == null)
+                    continue;
+                long minOffset = r.getValue(1).asLong();
+                long maxOffset = r.getValue(2).asLong();
+                State state = State.valueOf(r.getValue(3).asString());
+                stateRecords.put(topicPartition, new StateRecord(topicPartition.topic(), topicPartition.partition(), maxOffset, minOffset, state));
+            }
+        } catch (ClickHouseException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        for (TopicPartition topicPartition : keys.values()) {
+            stateRecords.computeIfAbsent(topicPartition, tp -> new StateRecord(tp.topic(), tp.partition(), 0, 0, State.NONE));
+        }
+        LOGGER.debug(String.format("read %d state records in one batch", stateRecords.size()));
+        return stateRecords;
+    }
+
     @Override
     public void setStateRecord(StateRecord stateRecord) {
         long minOffset = stateRecord.getMinOffset();
@@ -108,4 +155,28 @@ public class KeeperStateProvider implements StateProvider {
         LOGGER.info(String.format("write state record: topic %s partition %s with %s state max %d min %d", stateRecord.getTopic(), stateRecord.getPartition(), state, maxOffset, minOffset));
         LOGGER.debug(String.format("Number of written rows [%d]", response.getSummary().getWrittenRows()));
     }
+
+    /**
+     * Writes all transitions with a single multi-row insert instead of a round-trip per record.
+     */
+    @Override
+    public void setStateRecords(Collection<StateRecord> stateRecords) {
+        if (stateRecords.isEmpty())
+            return;
+        // Only the latest transition of a key matters, don't rely on the row order inside the block
+        Map<String, StateRecord> latest = new LinkedHashMap<>();
+        for (StateRecord stateRecord : stateRecords) {
+            latest.put(stateRecord.getTopicAndPartitionKey(), stateRecord);
+        }
+        StringBuilder sb = new StringBuilder("INSERT INTO connect_state values ");
+        String delimiter = "";
+        for (StateRecord stateRecord : latest.values()) {
+            sb.append(delimiter).append(String.format("('%s', %d, %d, '%s')",
+                    stateRecord.getTopicAndPartitionKey(), stateRecord.getMinOffset(), stateRecord.getMaxOffset(), stateRecord.getState().toString()));
+            delimiter = ", ";
+        }
+        ClickHouseResponse response = this.chc.query(sb.toString());
+        LOGGER.info(String.format("write %d state records in one batch", latest.size()));
+        LOGGER.debug(String.format("Number of written rows [%d]", response.getSummary().getWrittenRows()));
+    }
 }
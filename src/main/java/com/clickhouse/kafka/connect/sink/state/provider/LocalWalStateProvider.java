@@ -0,0 +1,246 @@
+package com.clickhouse.kafka.connect.sink.state.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * State provider for single node (standalone) deployments, backed by a local append-only log.
+ * Every transition is appended as a fixed size entry to a memory-mapped file and kept in memory, the log is
+ * forced to disk once per put (flush). When the log is full its content is compacted into a snapshot,
+ * which replaces the previous one with an atomic rename.
+ * Entry layout: [crc:4][sequence:8][state:1][partition:4][minOffset:8][maxOffset:8][topic length:1][topic:249][padding]
+ * On recovery the snapshot is loaded and the log is replayed until the first entry with a bad crc or a sequence
+ * that doesn't follow the previous one (a torn write or the tail of the log before the last compaction).
+ * All tasks of the worker share one instance per directory, so partitions can move between them.
+ */
+public class LocalWalStateProvider implements StateProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalWalStateProvider.class);
+    static final int ENTRY_SIZE = 288;
+    private static final int MAX_TOPIC_LENGTH = 249;
+    private static final String LOG_FILE = "state.log";
+    private static final String SNAPSHOT_FILE = "state.snapshot";
+    private static final State[] STATES = State.values();
+    private static final Map<Path, LocalWalStateProvider> INSTANCES = new HashMap<>();
+
+    private final Path directory;
+    private final int capacity;
+    private final Map<TopicPartition, StateRecord> stateRecords = new HashMap<>();
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel logChannel;
+    private MappedByteBuffer log;
+    private long sequence = 0;
+    private boolean dirty = false;
+    private int references = 0;
+
+    /**
+     * @param directory where the log & snapshot are kept
+     * @param capacity number of log entries before the log is compacted into a snapshot
+     */
+    public static LocalWalStateProvider open(Path directory, int capacity) {
+        Path key = directory.toAbsolutePath().normalize();
+        synchronized (INSTANCES) {
+            LocalWalStateProvider provider = INSTANCES.get(key);
+            if (provider == null) {
+                provider = new LocalWalStateProvider(key, capacity);
+                INSTANCES.put(key, provider);
+            }
+            provider.references++;
+            return provider;
+        }
+    }
+
+    private LocalWalStateProvider(Path directory, int capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+        try {
+            Files.createDirectories(directory);
+            recover();
+            // Start with an empty log
+            compact();
+        } catch (IOException e) {
+            throw new ConnectException(String.format("Unable to open state log in %s", directory), e);
+        }
+        LOGGER.info(String.format("Opened state log in %s with %d topic partitions", directory, stateRecords.size()));
+    }
+
+    private void recover() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+            sequence = buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                if (readEntry(buffer, -1) == null) {
+                    throw new IOException(String.format("Corrupted snapshot %s", snapshot));
+                }
+            }
+        }
+        logChannel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * ENTRY_SIZE);
+        int replayed = 0;
+        while (log.remaining() >= ENTRY_SIZE) {
+            Long entrySequence = readEntry(log, sequence + 1);
+            if (entrySequence == null) {
+                break;
+            }
+            sequence = entrySequence;
+            replayed++;
+        }
+        LOGGER.info(String.format("Replayed %d state log entries up to sequence %d", replayed, sequence));
+    }
+
+    /**
+     * Reads one entry and applies it to the in-memory state.
+     *
+     * @param expectedSequence sequence the entry must have, -1 to accept any
+     * @return the sequence of the entry or null if it is not valid
+     */
+    private Long readEntry(ByteBuffer buffer, long expectedSequence) {
+        int start = buffer.position();
+        int expectedCrc = buffer.getInt();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 4).limit(start + ENTRY_SIZE);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+        long entrySequence = buffer.getLong();
+        int state = buffer.get();
+        int partition = buffer.getInt();
+        long minOffset = buffer.getLong();
+        long maxOffset = buffer.getLong();
+        int topicLength = buffer.get() & 0xff;
+        if ((expectedSequence >= 0 && entrySequence != expectedSequence) || state < 0 || state >= STATES.length || topicLength > MAX_TOPIC_LENGTH) {
+            return null;
+        }
+        byte[] topic = new byte[topicLength];
+        buffer.get(topic);
+        buffer.position(start + ENTRY_SIZE);
+        String topicName = new String(topic, StandardCharsets.UTF_8);
+        stateRecords.put(new TopicPartition(topicName, partition), new StateRecord(topicName, partition, maxOffset, minOffset, STATES[state]));
+        return entrySequence;
+    }
+
+    private ByteBuffer encode(StateRecord stateRecord, long entrySequence) {
+        byte[] topic = stateRecord.getTopic().getBytes(StandardCharsets.UTF_8);
+        if (topic.length > MAX_TOPIC_LENGTH) {
+            throw new ConnectException(String.format("Topic name %s is too long for the state log", stateRecord.getTopic()));
+        }
+        entry.clear();
+        entry.putInt(0)
+                .putLong(entrySequence)
+                .put((byte) stateRecord.getState().ordinal())
+                .putInt(stateRecord.getPartition())
+                .putLong(stateRecord.getMinOffset())
+                .putLong(stateRecord.getMaxOffset())
+                .put((byte) topic.length)
+                .put(topic);
+        while (entry.hasRemaining()) {
+            entry.put((byte) 0);
+        }
+        crc.reset();
+        crc.update(entry.array(), 4, ENTRY_SIZE - 4);
+        entry.putInt(0, (int) crc.getValue());
+        entry.flip();
+        return entry;
+    }
+
+    /**
+     * Writes the current state to a new snapshot, switches to it with an atomic rename and restarts the log.
+     * Entries left in the log have a lower sequence than the snapshot and are ignored on recovery.
+     */
+    private void compact() throws IOException {
+        ByteBuffer snapshot = ByteBuffer.allocate(12 + stateRecords.size() * ENTRY_SIZE);
+        snapshot.putLong(sequence).putInt(stateRecords.size());
+        for (StateRecord stateRecord : stateRecords.values()) {
+            snapshot.put(encode(stateRecord, sequence));
+        }
+        snapshot.flip();
+        Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.clear();
+        dirty = false;
+        LOGGER.debug(String.format("Compacted state log into a snapshot of %d topic partitions at sequence %d", stateRecords.size(), sequence));
+    }
+
+    @Override
+    public synchronized StateRecord getStateRecord(String topic, int partition) {
+        StateRecord stateRecord = stateRecords.get(new TopicPartition(topic, partition));
+        if (stateRecord == null) {
+            return new StateRecord(topic, partition, -1, -1, State.NONE);
+        }
+        return stateRecord;
+    }
+
+    @Override
+    public synchronized void setStateRecord(StateRecord stateRecord) {
+        try {
+            if (log.remaining() < ENTRY_SIZE) {
+                compact();
+            }
+            log.put(encode(stateRecord, sequence + 1));
+        } catch (IOException e) {
+            throw new ConnectException("Unable to compact the state log", e);
+        }
+        sequence++;
+        dirty = true;
+        stateRecords.put(new TopicPartition(stateRecord.getTopic(), stateRecord.getPartition()), stateRecord);
+    }
+
+    /**
+     * Entries are in the page cache as soon as they are written (they survive a crash of the worker), forcing
+     * them once per put makes them survive a crash of the host as well.
+     */
+    @Override
+    public synchronized void flush() {
+        if (dirty) {
+            log.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (INSTANCES) {
+            if (--references > 0) {
+                return;
+            }
+            INSTANCES.remove(directory);
+        }
+        synchronized (this) {
+            flush();
+            try {
+                logChannel.close();
+            } catch (IOException e) {
+                LOGGER.warn(String.format("Unable to close state log in %s", directory), e);
+            }
+        }
+    }
+}
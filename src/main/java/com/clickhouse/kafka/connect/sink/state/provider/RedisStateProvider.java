@@ -1,47 +1,156 @@
 package com.clickhouse.kafka.connect.sink.state.provider;
 
-import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.ClickHouseSinkConfig;
 import com.clickhouse.kafka.connect.sink.state.StateProvider;
 import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.StateRecordCodec;
 import io.lettuce.core.*;
+import io.lettuce.core.api.StatefulConnection;
 import io.lettuce.core.api.StatefulRedisConnection;
-import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.api.async.RedisStringAsyncCommands;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Redis (standalone or cluster) state provider.
+ * Values are StateRecordCodec encoded, batches are read with a single MGET and written with a single MSET
+ * (split per hash slot by the cluster client).
+ */
 public class RedisStateProvider implements StateProvider {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RedisStateProvider.class);
+    private static final RedisCodec<String, byte[]> CODEC = RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE);
+
     private RedisClient redisClient = null;
-    private RedisCommands<String, String> syncCommands = null;
+    private RedisClusterClient redisClusterClient = null;
+    private StatefulConnection<String, byte[]> connection = null;
+    private RedisStringAsyncCommands<String, byte[]> asyncCommands = null;
+    private final long timeoutMs;
+
     public RedisStateProvider(String host, int port, Optional<String> password) {
         String url = null;
         if (password.isPresent())
             url = String.format("redis://%s@%s:%d/0", password.get(), host, port);
         else
             url = String.format("redis://%s:%d/0", host, port);
+        this.timeoutMs = ClickHouseSinkConfig.timeoutSecondsDefault * ClickHouseSinkConfig.MILLI_IN_A_SEC;
+        connect(List.of(url), false);
+    }
 
-        redisClient = RedisClient.create(url);
-        StatefulRedisConnection<String, String> connection = redisClient.connect();
-        syncCommands = connection.sync();
+    public RedisStateProvider(ClickHouseSinkConfig csc) {
+        this.timeoutMs = csc.getTimeout();
+        List<String> uris = new ArrayList<>();
+        for (String uri : csc.getRedisUri().split(",")) {
+            if (!uri.isBlank())
+                uris.add(uri.strip());
+        }
+        connect(uris, csc.isRedisCluster());
     }
 
-    @Override
-    public StateRecord getStateRecord(String topic, int partition) {
-        String value = syncCommands.get(String.format("%s-%d", topic, partition));
+    private void connect(List<String> uris, boolean cluster) {
+        LOGGER.info(String.format("connecting to %d redis %s node(s)", uris.size(), cluster ? "cluster" : "standalone"));
+        if (cluster) {
+            List<RedisURI> redisURIs = new ArrayList<>(uris.size());
+            uris.forEach(uri -> redisURIs.add(RedisURI.create(uri)));
+            redisClusterClient = RedisClusterClient.create(redisURIs);
+            StatefulRedisClusterConnection<String, byte[]> clusterConnection = redisClusterClient.connect(CODEC);
+            connection = clusterConnection;
+            asyncCommands = clusterConnection.async();
+        } else {
+            redisClient = RedisClient.create(uris.get(0));
+            StatefulRedisConnection<String, byte[]> redisConnection = redisClient.connect(CODEC);
+            connection = redisConnection;
+            asyncCommands = redisConnection.async();
+        }
+    }
 
-        String [] values = value.split("-");
+    private static String key(String topic, int partition) {
+        return String.format("%s-%d", topic, partition);
+    }
 
-        long maxOffset = Long.valueOf(values[0]).longValue();
-        long minOffset = Long.valueOf(values[1]).longValue();
-        State state = State.valueOf(values[2]);
-        return new StateRecord(topic, partition, maxOffset, minOffset, state);
+    private <T> T await(RedisFuture<T> future) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new RetriableException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RetriableException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectException(e);
+        }
+    }
 
+    @Override
+    public StateRecord getStateRecord(String topic, int partition) {
+        byte[] value = await(asyncCommands.get(key(topic, partition)));
+        return StateRecordCodec.decode(topic, partition, value);
     }
+
+    @Override
+    public Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, StateRecord> stateRecords = new HashMap<>();
+        if (partitions.isEmpty())
+            return stateRecords;
+        List<TopicPartition> ordered = new ArrayList<>(partitions);
+        String[] keys = new String[ordered.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(ordered.get(i).topic(), ordered.get(i).partition());
+        }
+        // MGET returns the values in the order of the keys
+        List<KeyValue<String, byte[]>> values = await(asyncCommands.mget(keys));
+        for (int i = 0; i < keys.length; i++) {
+            TopicPartition topicPartition = ordered.get(i);
+            KeyValue<String, byte[]> value = values.get(i);
+            stateRecords.put(topicPartition, StateRecordCodec.decode(topicPartition.topic(), topicPartition.partition(), value.hasValue() ? value.getValue() : null));
+        }
+        LOGGER.debug(String.format("read %d state records in one batch", keys.length));
+        return stateRecords;
+    }
+
     @Override
     public void setStateRecord(StateRecord stateRecord) {
-        String key = String.format("%s-%d", stateRecord.getTopic(), stateRecord.getPartition());
-        String value = String.format("%d-%d-%s", stateRecord.getMaxOffset(), stateRecord.getMinOffset(), stateRecord.getState().toString());
-        syncCommands.set(key,value);
+        await(asyncCommands.set(key(stateRecord.getTopic(), stateRecord.getPartition()), StateRecordCodec.encode(stateRecord)));
     }
 
+    @Override
+    public void setStateRecords(Collection<StateRecord> stateRecords) {
+        if (stateRecords.isEmpty())
+            return;
+        // Only the latest transition of a key matters
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        for (StateRecord stateRecord : stateRecords) {
+            values.put(key(stateRecord.getTopic(), stateRecord.getPartition()), StateRecordCodec.encode(stateRecord));
+        }
+        await(asyncCommands.mset(values));
+        LOGGER.debug(String.format("write %d state records in one batch", values.size()));
+    }
+
+    @Override
+    public void stop() {
+        connection.close();
+        if (redisClient != null)
+            redisClient.shutdown();
+        if (redisClusterClient != null)
+            redisClusterClient.shutdown();
+    }
 }
@@ -0,0 +1,107 @@
+package com.clickhouse.kafka.connect.sink.state.provider;
+
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.util.jfr.StateProviderEvent;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import com.clickhouse.kafka.connect.util.jmx.Stage;
+import com.clickhouse.kafka.connect.util.jmx.Timer;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Records the latency of the state reads & writes of the providers it wraps (including caching and group commit),
+ * and emits them as JFR events when recorded.
+ */
+public class TimedStateProvider implements StateProvider {
+
+    private final StateProvider stateProvider;
+    private final SinkTaskStatistics statistics;
+
+    public TimedStateProvider(StateProvider stateProvider, SinkTaskStatistics statistics) {
+        this.stateProvider = stateProvider;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public StateRecord getStateRecord(String topic, int partition) {
+        Timer timer = Timer.start();
+        StateProviderEvent event = new StateProviderEvent();
+        event.begin();
+        try {
+            return stateProvider.getStateRecord(topic, partition);
+        } finally {
+            statistics.stage(Stage.STATE_READ, timer);
+            commit(event, "getStateRecord", topic, partition, 1);
+        }
+    }
+
+    @Override
+    public Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        Timer timer = Timer.start();
+        StateProviderEvent event = new StateProviderEvent();
+        event.begin();
+        try {
+            return stateProvider.getStateRecords(partitions);
+        } finally {
+            statistics.stage(Stage.STATE_READ, timer);
+            commit(event, "getStateRecords", "", -1, partitions.size());
+        }
+    }
+
+    @Override
+    public void setStateRecord(StateRecord stateRecord) {
+        Timer timer = Timer.start();
+        StateProviderEvent event = new StateProviderEvent();
+        event.begin();
+        try {
+            stateProvider.setStateRecord(stateRecord);
+        } finally {
+            statistics.stage(Stage.STATE_WRITE, timer);
+            commit(event, "setStateRecord", stateRecord.getTopic(), stateRecord.getPartition(), 1);
+        }
+    }
+
+    @Override
+    public void setStateRecords(Collection<StateRecord> stateRecords) {
+        Timer timer = Timer.start();
+        StateProviderEvent event = new StateProviderEvent();
+        event.begin();
+        try {
+            stateProvider.setStateRecords(stateRecords);
+        } finally {
+            statistics.stage(Stage.STATE_WRITE, timer);
+            commit(event, "setStateRecords", "", -1, stateRecords.size());
+        }
+    }
+
+    @Override
+    public void flush() {
+        Timer timer = Timer.start();
+        StateProviderEvent event = new StateProviderEvent();
+        event.begin();
+        try {
+            stateProvider.flush();
+        } finally {
+            statistics.stage(Stage.STATE_WRITE, timer);
+            commit(event, "flush", "", -1, 0);
+        }
+    }
+
+    private static void commit(StateProviderEvent event, String operation, String topic, int partition, int partitions) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.topic = topic;
+            event.partition = partition;
+            event.partitions = partitions;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stateProvider.stop();
+    }
+}
@@ -0,0 +1,90 @@
+package com.clickhouse.kafka.connect.sink.state.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batches the state writes of a serial put, the counterpart of {@link GroupCommitStateProvider}.
+ * A BEFORE_PROCESSING transition has to be stored before its insert and is written right away, but
+ * AFTER_PROCESSING transitions are held back and go out with the next write (the BEFORE of the next
+ * partition) or on flush, at the end of the put. A put over N partitions costs N + 1 writes instead of 2N.
+ * Losing a held back transition leaves the partition in BEFORE_PROCESSING with the same range, which
+ * redelivery already handles like a failure between the insert and the AFTER write.
+ */
+public class WriteBehindStateProvider implements StateProvider {
+
+    private final StateProvider stateProvider;
+    private final Map<String, StateRecord> pending = new LinkedHashMap<>();
+
+    public WriteBehindStateProvider(StateProvider stateProvider) {
+        this.stateProvider = stateProvider;
+    }
+
+    @Override
+    public synchronized StateRecord getStateRecord(String topic, int partition) {
+        StateRecord stateRecord = pending.get(String.format("%s-%d", topic, partition));
+        return stateRecord != null ? stateRecord : stateProvider.getStateRecord(topic, partition);
+    }
+
+    @Override
+    public synchronized Map<TopicPartition, StateRecord> getStateRecords(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, StateRecord> stateRecords = stateProvider.getStateRecords(partitions);
+        for (TopicPartition topicPartition : partitions) {
+            StateRecord stateRecord = pending.get(String.format("%s-%d", topicPartition.topic(), topicPartition.partition()));
+            if (stateRecord != null) {
+                stateRecords.put(topicPartition, stateRecord);
+            }
+        }
+        return stateRecords;
+    }
+
+    @Override
+    public void setStateRecord(StateRecord stateRecord) {
+        setStateRecords(Collections.singletonList(stateRecord));
+    }
+
+    @Override
+    public synchronized void setStateRecords(Collection<StateRecord> stateRecords) {
+        boolean hold = true;
+        for (StateRecord stateRecord : stateRecords) {
+            pending.put(stateRecord.getTopicAndPartitionKey(), stateRecord);
+            hold &= stateRecord.getState() == State.AFTER_PROCESSING;
+        }
+        if (!hold) {
+            writePending();
+        }
+    }
+
+    private void writePending() {
+        if (pending.isEmpty())
+            return;
+        List<StateRecord> stateRecords = new ArrayList<>(pending.values());
+        // Dropped even if the write fails, a retried put starts from the stored state again
+        pending.clear();
+        stateProvider.setStateRecords(stateRecords);
+    }
+
+    @Override
+    public synchronized void flush() {
+        writePending();
+        stateProvider.flush();
+    }
+
+    @Override
+    public synchronized void stop() {
+        try {
+            writePending();
+        } finally {
+            stateProvider.stop();
+        }
+    }
+}
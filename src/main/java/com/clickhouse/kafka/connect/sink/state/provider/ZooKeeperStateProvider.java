@@ -0,0 +1,295 @@
+package com.clickhouse.kafka.connect.sink.state.provider;
+
+import com.clickhouse.kafka.connect.sink.ClickHouseSinkConfig;
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.StateRecordCodec;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * State provider talking the ZooKeeper protocol directly to ClickHouse Keeper (or ZooKeeper).
+ * Every topic partition has its own znode at [root]/[topic]/[partition] holding a StateRecordCodec value.
+ * Writes are conditional on the znode version we last read or wrote, so a task that lost the partition
+ * to another task is fenced instead of overwriting the newer state. A partition has to be read with getStateRecord
+ * before it is written, and again after a write that failed.
+ */
+public class ZooKeeperStateProvider implements StateProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZooKeeperStateProvider.class);
+    // The znode doesn't exist yet, the next write has to create it
+    private static final int NO_NODE = -1;
+
+    private final String connectString;
+    private final String rootPath;
+    private final int sessionTimeoutMs;
+    private volatile ZooKeeper zk;
+    // Version of each partition znode as we last saw it
+    private final Map<String, Integer> versions = new ConcurrentHashMap<>();
+    private final Set<String> topicPaths = ConcurrentHashMap.newKeySet();
+
+    public ZooKeeperStateProvider(ClickHouseSinkConfig csc) {
+        this(csc.getZooKeeperConnect(), csc.getZooKeeperPath(), csc.getTimeout());
+    }
+
+    public ZooKeeperStateProvider(String connectString, String rootPath, int sessionTimeoutMs) {
+        this.connectString = connectString;
+        this.rootPath = rootPath.endsWith("/") ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+        this.sessionTimeoutMs = sessionTimeoutMs;
+        LOGGER.info(String.format("connect [%s] path [%s] session timeout [%d]", connectString, this.rootPath, sessionTimeoutMs));
+        this.zk = connect();
+        createPath(this.rootPath);
+    }
+
+    private ZooKeeper connect() {
+        CountDownLatch connected = new CountDownLatch(1);
+        try {
+            ZooKeeper zooKeeper = new ZooKeeper(connectString, sessionTimeoutMs, event -> {
+                if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                } else if (event.getState() == Watcher.Event.KeeperState.Expired) {
+                    LOGGER.warn("Keeper session expired, a new one is opened on the next request");
+                }
+            });
+            if (!connected.await(sessionTimeoutMs, TimeUnit.MILLISECONDS)) {
+                zooKeeper.close();
+                throw new RetriableException(String.format("Unable to connect to Keeper at %s", connectString));
+            }
+            return zooKeeper;
+        } catch (IOException e) {
+            throw new RetriableException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectException(e);
+        }
+    }
+
+    /**
+     * The session survives connection loss, only an expired session needs a new client.
+     */
+    private ZooKeeper zooKeeper() {
+        ZooKeeper current = zk;
+        if (!current.getState().isAlive()) {
+            synchronized (this) {
+                if (zk == current) {
+                    zk = connect();
+                }
+            }
+        }
+        return zk;
+    }
+
+    private String partitionPath(String topic, int partition) {
+        String topicPath = rootPath + "/" + topic;
+        if (!topicPaths.contains(topicPath)) {
+            createPath(topicPath);
+            topicPaths.add(topicPath);
+        }
+        return topicPath + "/" + partition;
+    }
+
+    private void createPath(String path) {
+        StringBuilder current = new StringBuilder();
+        for (String node : path.split("/")) {
+            if (node.isEmpty()) {
+                continue;
+            }
+            current.append('/').append(node);
+            try {
+                zooKeeper().create(current.toString(), new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } catch (KeeperException.NodeExistsException e) {
+                // Already there
+            } catch (KeeperException e) {
+                throw toConnectException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectException(e);
+            }
+        }
+    }
+
+    @Override
+    public StateRecord getStateRecord(String topic, int partition) {
+        String path = partitionPath(topic, partition);
+        try {
+            Stat stat = new Stat();
+            byte[] value = zooKeeper().getData(path, false, stat);
+            versions.put(path, stat.getVersion());
+            StateRecord stateRecord = StateRecordCodec.decode(topic, partition, value);
+            LOGGER.debug(String.format("read state record: topic %s partition %s with %s state max %d min %d version %d", topic, partition, stateRecord.getState(), stateRecord.getMaxOffset(), stateRecord.getMinOffset(), stat.getVersion()));
+            return stateRecord;
+        } catch (KeeperException.NoNodeException e) {
+            versions.put(path, NO_NODE);
+            LOGGER.info(String.format("read state record: topic %s partition %s with NONE state", topic, partition));
+            return StateRecordCodec.decode(topic, partition, null);
+        } catch (KeeperException e) {
+            throw toConnectException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectException(e);
+        }
+    }
+
+    @Override
+    public void setStateRecord(StateRecord stateRecord) {
+        String path = partitionPath(stateRecord.getTopic(), stateRecord.getPartition());
+        int version = expectedVersion(path, stateRecord);
+        byte[] value = StateRecordCodec.encode(stateRecord);
+        try {
+            if (version == NO_NODE) {
+                zooKeeper().create(path, value, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                versions.put(path, 0);
+            } else {
+                Stat stat = zooKeeper().setData(path, value, version);
+                versions.put(path, stat.getVersion());
+            }
+        } catch (KeeperException.BadVersionException | KeeperException.NodeExistsException e) {
+            // Keep the stale version, writes keep failing until the state is read again
+            throw fenced(stateRecord);
+        } catch (KeeperException e) {
+            // The write may or may not have been applied, read the version again before the next one
+            versions.remove(path);
+            throw toConnectException(e);
+        } catch (InterruptedException e) {
+            versions.remove(path);
+            Thread.currentThread().interrupt();
+            throw new ConnectException(e);
+        }
+        LOGGER.debug(String.format("write state record: topic %s partition %s with %s state max %d min %d", stateRecord.getTopic(), stateRecord.getPartition(), stateRecord.getState(), stateRecord.getMaxOffset(), stateRecord.getMinOffset()));
+    }
+
+    /**
+     * Writes all transitions in one atomic multi-op, either every partition moves to its new state or none does.
+     */
+    @Override
+    public void setStateRecords(Collection<StateRecord> stateRecords) {
+        if (stateRecords.isEmpty())
+            return;
+        // A multi-op can only update a znode once
+        Map<String, StateRecord> latest = new LinkedHashMap<>();
+        for (StateRecord stateRecord : stateRecords) {
+            latest.put(partitionPath(stateRecord.getTopic(), stateRecord.getPartition()), stateRecord);
+        }
+        List<Op> ops = new ArrayList<>(latest.size());
+        for (Map.Entry<String, StateRecord> entry : latest.entrySet()) {
+            int version = expectedVersion(entry.getKey(), entry.getValue());
+            byte[] value = StateRecordCodec.encode(entry.getValue());
+            if (version == NO_NODE) {
+                ops.add(Op.create(entry.getKey(), value, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            } else {
+                ops.add(Op.setData(entry.getKey(), value, version));
+            }
+        }
+
+        CompletableFuture<List<OpResult>> future = new CompletableFuture<>();
+        zooKeeper().multi(ops, (rc, path, ctx, opResults) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                future.complete(opResults);
+            } else {
+                // The multi-op fails as a whole, the op that failed is the error result that is neither OK nor rolled back
+                String failedPath = null;
+                for (int i = 0; opResults != null && i < opResults.size() && failedPath == null; i++) {
+                    OpResult result = opResults.get(i);
+                    if (result instanceof OpResult.ErrorResult) {
+                        int err = ((OpResult.ErrorResult) result).getErr();
+                        if (err != KeeperException.Code.OK.intValue() && err != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+                            failedPath = ops.get(i).getPath();
+                        }
+                    }
+                }
+                future.completeExceptionally(KeeperException.create(KeeperException.Code.get(rc), failedPath));
+            }
+        }, null);
+
+        List<OpResult> results;
+        try {
+            results = future.get(sessionTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            KeeperException cause = (KeeperException) e.getCause();
+            if (cause.code() == KeeperException.Code.BADVERSION || cause.code() == KeeperException.Code.NODEEXISTS) {
+                StateRecord failed = cause.getPath() != null ? latest.get(cause.getPath()) : null;
+                throw fenced(failed != null ? failed : latest.values().iterator().next());
+            }
+            latest.keySet().forEach(versions::remove);
+            throw toConnectException(cause);
+        } catch (TimeoutException e) {
+            latest.keySet().forEach(versions::remove);
+            throw new RetriableException(e);
+        } catch (InterruptedException e) {
+            latest.keySet().forEach(versions::remove);
+            Thread.currentThread().interrupt();
+            throw new ConnectException(e);
+        }
+
+        int i = 0;
+        for (String path : latest.keySet()) {
+            OpResult result = results.get(i++);
+            if (result instanceof OpResult.SetDataResult) {
+                versions.put(path, ((OpResult.SetDataResult) result).getStat().getVersion());
+            } else {
+                versions.put(path, 0);
+            }
+        }
+        LOGGER.debug(String.format("write %d state records in one multi-op", latest.size()));
+    }
+
+    private int expectedVersion(String path, StateRecord stateRecord) {
+        Integer version = versions.get(path);
+        if (version == null) {
+            // Never read by this task (or the last write failed). Reading the version now would accept whatever
+            // another task just wrote, the state has to go through getStateRecord first
+            throw new ConnectException(String.format("State of topic %s partition %d has to be read before it is written, this task is fenced",
+                    stateRecord.getTopic(), stateRecord.getPartition()));
+        }
+        return version;
+    }
+
+    private ConnectException fenced(StateRecord stateRecord) {
+        return new ConnectException(String.format("State of topic %s partition %d was changed by another task, this task is fenced",
+                stateRecord.getTopic(), stateRecord.getPartition()));
+    }
+
+    private ConnectException toConnectException(KeeperException e) {
+        switch (e.code()) {
+            case CONNECTIONLOSS:
+            case OPERATIONTIMEOUT:
+            case SESSIONEXPIRED:
+                return new RetriableException(e);
+            default:
+                return new ConnectException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            zk.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -64,6 +64,7 @@ public class Utils {
                 case 203: // NO_FREE_CONNECTION
                 case 209: // SOCKET_TIMEOUT
                 case 210: // NETWORK_ERROR
+                case 216: // QUERY_WITH_SAME_ID_IS_ALREADY_RUNNING, the previous attempt of the insert is still running
                 case 252: // TOO_MANY_PARTS
                 case 285: // TOO_FEW_LIVE_REPLICAS
                 case 425: // SYSTEM_ERROR
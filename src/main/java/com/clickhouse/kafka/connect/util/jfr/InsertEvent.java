@@ -0,0 +1,36 @@
+package com.clickhouse.kafka.connect.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One insert into ClickHouse, from the first encoded row to the response. Rows & bytes are the ones reported by
+ * ClickHouse.
+ */
+@Name("com.clickhouse.kafka.connect.Insert")
+@Label("ClickHouse Insert")
+@Description("Insert of a batch of records into ClickHouse")
+@Category({"ClickHouse", "Kafka Connect"})
+@StackTrace(false)
+public class InsertEvent extends Event {
+    @Label("Table")
+    public String table;
+
+    @Label("Format")
+    public String format;
+
+    @Label("Records")
+    public int records;
+
+    @Label("Rows")
+    public long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
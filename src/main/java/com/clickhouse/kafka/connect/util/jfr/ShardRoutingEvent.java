@@ -0,0 +1,38 @@
+package com.clickhouse.kafka.connect.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Records of a put routed to one shard.
+ */
+@Name("com.clickhouse.kafka.connect.ShardRouting")
+@Label("Shard Routing")
+@Description("Records of a put routed to a shard")
+@Category({"ClickHouse", "Kafka Connect"})
+@StackTrace(false)
+public class ShardRoutingEvent extends Event {
+    @Label("Routing")
+    public String routing;
+
+    @Label("Shard")
+    public int shard;
+
+    @Label("Shards")
+    public int shards;
+
+    @Label("Records")
+    public int records;
+
+    @Label("Queued")
+    @Description("Whether the records went to the queue of a shard writer")
+    public boolean queued;
+
+    @Label("Paused")
+    @Description("Whether the partitions of the shard got paused, its queue being full")
+    public boolean paused;
+}
@@ -0,0 +1,32 @@
+package com.clickhouse.kafka.connect.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Read or write of the state of one or more topic partitions, through the caching & group commit providers.
+ */
+@Name("com.clickhouse.kafka.connect.StateProvider")
+@Label("State Provider Call")
+@Description("Read or write of partition states")
+@Category({"ClickHouse", "Kafka Connect"})
+@StackTrace(false)
+public class StateProviderEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Topic")
+    @Description("Topic of the partition, empty when several partitions are involved")
+    public String topic;
+
+    @Label("Partition")
+    public int partition;
+
+    @Label("Partitions")
+    @Description("Number of partitions read or written")
+    public int partitions;
+}
@@ -0,0 +1,41 @@
+package com.clickhouse.kafka.connect.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Processing of a batch of a topic partition, from its last state to the new one, inserts included.
+ */
+@Name("com.clickhouse.kafka.connect.StateTransition")
+@Label("State Transition")
+@Description("Processing of a batch of records against the last state of its topic partition")
+@Category({"ClickHouse", "Kafka Connect"})
+@StackTrace(false)
+public class StateTransitionEvent extends Event {
+    @Label("Topic")
+    public String topic;
+
+    @Label("Partition")
+    public int partition;
+
+    @Label("State")
+    @Description("State of the partition before the batch")
+    public String state;
+
+    @Label("Range State")
+    @Description("Offsets of the batch compared to the ones of the state, empty when there was no state")
+    public String rangeState;
+
+    @Label("Min Offset")
+    public long minOffset;
+
+    @Label("Max Offset")
+    public long maxOffset;
+
+    @Label("Records")
+    public int records;
+}
@@ -0,0 +1,89 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encoding cost of the columns of a table, accumulated over the sampled rows: bytes written and nanoseconds spent
+ * per column, to find the columns (maps, arrays, long strings...) that make inserts slow.
+ */
+public class ColumnProfile implements ColumnProfileMBean {
+    private final String table;
+    private final List<String> columns;
+    private final LongAdder sampledRows = new LongAdder();
+    private final LongAdder[] bytes;
+    private final LongAdder[] nanos;
+
+    public ColumnProfile(String table, List<String> columns) {
+        this.table = table;
+        this.columns = List.copyOf(columns);
+        this.bytes = new LongAdder[columns.size()];
+        this.nanos = new LongAdder[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            bytes[i] = new LongAdder();
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    public List<String> getColumnNames() {
+        return columns;
+    }
+
+    public void sampledRow() {
+        sampledRows.increment();
+    }
+
+    /**
+     * @param column index of the column in the table
+     */
+    public void column(int column, long nanos, long bytes) {
+        this.nanos[column].add(nanos);
+        this.bytes[column].add(bytes);
+    }
+
+    @Override
+    public long getSampledRows() {
+        return sampledRows.sum();
+    }
+
+    /**
+     * @return one line per column, the most expensive first
+     */
+    @Override
+    public String[] getColumns() {
+        long rows = Math.max(1, sampledRows.sum());
+        long totalNanos = Math.max(1, Arrays.stream(nanos).mapToLong(LongAdder::sum).sum());
+        Integer[] order = new Integer[columns.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> nanos[i].sum()).reversed());
+        String[] lines = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int column = order[i];
+            long columnNanos = nanos[column].sum();
+            lines[i] = String.format(Locale.ROOT, "%s time %.1f%% %.1f ns/row %.1f bytes/row", columns.get(column),
+                    100.0 * columnNanos / totalNanos, (double) columnNanos / rows, (double) bytes[column].sum() / rows);
+        }
+        return lines;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder(String.format("table %s sampled rows %d", table, getSampledRows()));
+        for (String line : getColumns()) {
+            builder.append("\n  ").append(line);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        sampledRows.reset();
+        Arrays.stream(bytes).forEach(LongAdder::reset);
+        Arrays.stream(nanos).forEach(LongAdder::reset);
+    }
+}
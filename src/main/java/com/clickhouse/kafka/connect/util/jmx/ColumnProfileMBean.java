@@ -0,0 +1,13 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+public interface ColumnProfileMBean {
+
+    long getSampledRows();
+
+    String[] getColumns();
+
+    String dump();
+
+    void reset();
+
+}
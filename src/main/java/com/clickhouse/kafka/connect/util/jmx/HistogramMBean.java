@@ -0,0 +1,17 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+public interface HistogramMBean {
+
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP99();
+
+    long getP999();
+
+}
@@ -0,0 +1,147 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders the numeric attributes of the connector MBeans as OpenMetrics gauges.
+ * <p>
+ * A family is named after the kind of MBean (task, topic, partition, table, profile or histogram) and the attribute, e.g.
+ * InsertedRows of a table becomes clickhouse_kafka_connect_table_inserted_rows{task="SinkTask0",table="t"}.
+ * Values are read through the MBean server like any JMX client does, the tasks are never locked.
+ */
+public final class OpenMetricsFormat {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenMetricsFormat.class);
+    public static final String DOMAIN_PATTERN = "com.clickhouse:type=ClickHouseKafkaConnector,*";
+    private static final String PREFIX = "clickhouse_kafka_connect_";
+    private static final String[] CHILD_KINDS = {"histogram", "partition", "profile", "table", "topic"};
+
+    private OpenMetricsFormat() {
+
+    }
+
+    public static String render(MBeanServer server) {
+        Map<String, List<String>> families = new TreeMap<>();
+        for (ObjectName name : server.queryNames(pattern(), null)) {
+            try {
+                collect(server, name, families);
+            } catch (Exception e) {
+                // Unregistered while scraping (task stopped, partition revoked)
+                LOGGER.debug("Unable to read MBean " + name, e);
+            }
+        }
+        StringBuilder builder = new StringBuilder(families.size() * 128);
+        for (Map.Entry<String, List<String>> family : families.entrySet()) {
+            builder.append("# TYPE ").append(family.getKey()).append(" gauge\n");
+            for (String sample : family.getValue()) {
+                builder.append(sample).append('\n');
+            }
+        }
+        return builder.append("# EOF\n").toString();
+    }
+
+    private static ObjectName pattern() {
+        try {
+            return new ObjectName(DOMAIN_PATTERN);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void collect(MBeanServer server, ObjectName name, Map<String, List<String>> families) throws Exception {
+        String kind = "task";
+        for (String childKind : CHILD_KINDS) {
+            if (name.getKeyProperty(childKind) != null) {
+                kind = childKind;
+                break;
+            }
+        }
+        String labels = labels(name);
+        for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes()) {
+            if (!attribute.isReadable()) {
+                continue;
+            }
+            Object value = server.getAttribute(name, attribute.getName());
+            if (!(value instanceof Number)) {
+                continue;
+            }
+            String family = PREFIX + kind + "_" + snakeCase(attribute.getName());
+            families.computeIfAbsent(family, f -> new ArrayList<>()).add(family + labels + " " + format((Number) value));
+        }
+    }
+
+    /**
+     * The key properties of the name but its type, name being the task.
+     */
+    private static String labels(ObjectName name) {
+        Map<String, String> labels = new TreeMap<>();
+        for (Map.Entry<String, String> property : name.getKeyPropertyList().entrySet()) {
+            String key = property.getKey();
+            String value = property.getValue();
+            if (!"type".equals(key)) {
+                labels.put("name".equals(key) ? "task" : key, value.startsWith("\"") ? ObjectName.unquote(value) : value);
+            }
+        }
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(label.getKey()).append("=\"");
+            escape(label.getValue(), builder);
+            builder.append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    static void escape(String value, StringBuilder builder) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    static String snakeCase(String attribute) {
+        StringBuilder builder = new StringBuilder(attribute.length() + 8);
+        for (int i = 0; i < attribute.length(); i++) {
+            char c = attribute.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0 && !Character.isUpperCase(attribute.charAt(i - 1))) {
+                    builder.append('_');
+                }
+                builder.append(Character.toLowerCase(c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String format(Number value) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            return Double.isNaN(d) ? "NaN" : Double.isInfinite(d) ? (d > 0 ? "+Inf" : "-Inf") : Double.toString(d);
+        }
+        return Long.toString(value.longValue());
+    }
+}
@@ -0,0 +1,115 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the connector MBeans in OpenMetrics text format on /metrics, one server per worker JVM shared by its tasks.
+ * Scrapes are answered by a single daemon thread and rendered at most once per second, whatever the number of
+ * scrapers.
+ */
+public final class OpenMetricsServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenMetricsServer.class);
+    private static final String OPEN_METRICS_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final String TEXT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final long MIN_RENDER_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static OpenMetricsServer instance = null;
+    private static int references = 0;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private byte[] rendered = null;
+    private long renderedAt;
+
+    private OpenMetricsServer(int port) throws IOException {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "clickhouse-metrics-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Starts the server on the first call, the following ones share it (the port of the first call wins).
+     *
+     * @return false if the server couldn't be started
+     */
+    public static synchronized boolean acquire(int port) {
+        if (instance == null) {
+            try {
+                instance = new OpenMetricsServer(port);
+                LOGGER.info("Serving metrics on port {}", port);
+            } catch (IOException e) {
+                // Metrics are optional, the tasks run without them
+                LOGGER.warn("Unable to serve metrics on port " + port, e);
+                return false;
+            }
+        } else if (instance.server.getAddress().getPort() != port) {
+            LOGGER.warn("Metrics are already served on port {}, not on {}", instance.server.getAddress().getPort(), port);
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Stops the server once every task that acquired it released it.
+     */
+    public static synchronized void release() {
+        if (instance == null || --references > 0) {
+            return;
+        }
+        instance.server.stop(0);
+        instance.executor.shutdownNow();
+        instance = null;
+        references = 0;
+    }
+
+    // Always called on the single server thread
+    private byte[] render() {
+        long now = System.nanoTime();
+        if (rendered == null || now - renderedAt >= MIN_RENDER_INTERVAL_NANOS) {
+            rendered = OpenMetricsFormat.render(ManagementFactory.getPlatformMBeanServer()).getBytes(StandardCharsets.UTF_8);
+            renderedAt = now;
+        }
+        return rendered;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+            byte[] body = render();
+            exchange.getResponseHeaders().set("Content-Type", openMetrics ? OPEN_METRICS_TYPE : TEXT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
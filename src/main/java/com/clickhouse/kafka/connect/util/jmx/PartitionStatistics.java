@@ -0,0 +1,81 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Freshness & offset lag of one topic partition. The freshness of a record is the time from its Kafka timestamp to
+ * the acknowledgement of its insert by ClickHouse, in nanoseconds. The offset lag is the number of offsets received
+ * by the task but not processed yet (buffered, being inserted or failed).
+ */
+public class PartitionStatistics implements PartitionStatisticsMBean {
+    private final LongAccumulator receivedOffset = new LongAccumulator(Math::max, -1);
+    private final LongAccumulator firstReceivedOffset = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator committedOffset = new LongAccumulator(Math::max, -1);
+    private final Histogram freshness = new Histogram();
+
+    @Override
+    public long getReceivedOffset() {
+        return receivedOffset.get();
+    }
+
+    @Override
+    public long getCommittedOffset() {
+        return committedOffset.get();
+    }
+
+    @Override
+    public long getOffsetLag() {
+        long received = receivedOffset.get();
+        if (received < 0) {
+            return 0;
+        }
+        // Until something is committed, everything received since the start of the task is lagging
+        return Math.max(0, received - Math.max(committedOffset.get(), firstReceivedOffset.get() - 1));
+    }
+
+    @Override
+    public long getFreshnessCount() {
+        return freshness.getCount();
+    }
+
+    @Override
+    public double getFreshnessMean() {
+        return freshness.getMean();
+    }
+
+    @Override
+    public long getFreshnessMax() {
+        return freshness.getMax();
+    }
+
+    @Override
+    public long getFreshnessP50() {
+        return freshness.getP50();
+    }
+
+    @Override
+    public long getFreshnessP99() {
+        return freshness.getP99();
+    }
+
+    @Override
+    public long getFreshnessP999() {
+        return freshness.getP999();
+    }
+
+    public void received(long minOffset, long maxOffset) {
+        firstReceivedOffset.accumulate(minOffset);
+        receivedOffset.accumulate(maxOffset);
+    }
+
+    /**
+     * @param offset the highest offset either inserted or skipped as already inserted
+     */
+    public void committed(long offset) {
+        committedOffset.accumulate(offset);
+    }
+
+    public void freshness(long nanos) {
+        freshness.record(nanos);
+    }
+}
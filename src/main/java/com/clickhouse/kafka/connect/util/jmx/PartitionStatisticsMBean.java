@@ -0,0 +1,23 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+public interface PartitionStatisticsMBean {
+
+    long getReceivedOffset();
+
+    long getCommittedOffset();
+
+    long getOffsetLag();
+
+    long getFreshnessCount();
+
+    double getFreshnessMean();
+
+    long getFreshnessMax();
+
+    long getFreshnessP50();
+
+    long getFreshnessP99();
+
+    long getFreshnessP999();
+
+}
@@ -0,0 +1,60 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stage timings of one sampled put. The threads working on the put attach the trace, so the stages are added to it
+ * without passing it around. Partitions processed in parallel add up, stages can exceed the total.
+ */
+public final class PipelineTrace {
+    private static final ThreadLocal<PipelineTrace> CURRENT = new ThreadLocal<>();
+    private static final Stage[] STAGES = Stage.values();
+
+    private final long put;
+    private final int records;
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES.length);
+
+    PipelineTrace(long put, int records) {
+        this.put = put;
+        this.records = records;
+    }
+
+    static PipelineTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stages recorded by this thread go to the trace until detach, a null trace is ignored.
+     */
+    public static void attach(PipelineTrace trace) {
+        if (trace != null) {
+            CURRENT.set(trace);
+        }
+    }
+
+    public static void detach(PipelineTrace trace) {
+        if (trace != null) {
+            CURRENT.remove();
+        }
+    }
+
+    void add(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    public long getStageNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    String format(long totalNanos) {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(String.format("put %d records %d total %.3f ms", put, records, totalNanos / 1e6));
+        for (Stage stage : STAGES) {
+            long nanos = stageNanos.get(stage.ordinal());
+            if (nanos > 0) {
+                builder.append(String.format(" %s %.3f", stage.getMetricName(), nanos / 1e6));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -1,34 +1,332 @@
 package com.clickhouse.kafka.connect.util.jmx;
 
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a sink task, updated concurrently by the partition threads. Times are in nanoseconds.
+ * Once registered, the stage latency, freshness & batch size histograms and the statistics of every topic, partition
+ * and table are registered as MBeans under the name of the task. Sampled puts are traced stage by stage.
+ */
 public class SinkTaskStatistics implements SinkTaskStatisticsMBean {
-    private volatile long receivedRecords;
-    private volatile long recordProcessingTime;
-    private volatile long taskProcessingTime;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SinkTaskStatistics.class);
+    private static final int RECENT_TRACES = 16;
+    private final LongAdder receivedRecords = new LongAdder();
+    private final LongAdder recordProcessingTime = new LongAdder();
+    private final LongAdder taskProcessingTime = new LongAdder();
+    private final LongAdder insertedRows = new LongAdder();
+    private final LongAdder insertedBytes = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder failedInserts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder dlqRecords = new LongAdder();
+    private final Histogram[] stageTimes = new Histogram[Stage.values().length];
+    private final Histogram batchSize = new Histogram();
+    // Freshness of the oldest record of every insert, the partitions have the freshness of every record
+    private final Histogram freshness = new Histogram();
+    private final Map<String, TopicStatistics> topics = new ConcurrentHashMap<>();
+    private final Map<String, TableStatistics> tables = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, PartitionStatistics> partitions = new ConcurrentHashMap<>();
+    // Only filled when column profiling is enabled
+    private final Map<String, ColumnProfile> columnProfiles = new ConcurrentHashMap<>();
+    // Set while registered
+    private volatile String mBeanName;
+    // One put out of traceSampleInterval is traced, 0 to disable
+    private final int traceSampleInterval;
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicReferenceArray<String> recentTraces = new AtomicReferenceArray<>(RECENT_TRACES);
+    private final AtomicInteger nextTrace = new AtomicInteger();
+
+    public SinkTaskStatistics() {
+        this(0);
+    }
+
+    public SinkTaskStatistics(int traceSampleInterval) {
+        this.traceSampleInterval = traceSampleInterval;
+        for (int i = 0; i < stageTimes.length; i++) {
+            stageTimes[i] = new Histogram();
+        }
+    }
+
     @Override
     public long getReceivedRecords() {
-        return receivedRecords;
+        return receivedRecords.sum();
     }
 
     @Override
     public long getRecordProcessingTime() {
-        return recordProcessingTime;
+        return recordProcessingTime.sum();
     }
 
     @Override
     public long getTaskProcessingTime() {
-        return taskProcessingTime;
+        return taskProcessingTime.sum();
+    }
+
+    @Override
+    public long getInsertedRows() {
+        return insertedRows.sum();
+    }
+
+    @Override
+    public long getInsertedBytes() {
+        return insertedBytes.sum();
+    }
+
+    @Override
+    public long getInsertCount() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getFailedInsertCount() {
+        return failedInserts.sum();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getDlqRecords() {
+        return dlqRecords.sum();
+    }
+
+    @Override
+    public String[] getRecentTraces() {
+        List<String> traces = new ArrayList<>(RECENT_TRACES);
+        int next = nextTrace.get();
+        // Oldest first
+        for (int i = 0; i < RECENT_TRACES; i++) {
+            String trace = recentTraces.get(Math.floorMod(next + i, RECENT_TRACES));
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        return traces.toArray(new String[0]);
     }
 
     public void receivedRecords(final int n ) {
-        this.receivedRecords += n;
+        this.receivedRecords.add(n);
+    }
+
+    public void receivedRecords(String topic, int n) {
+        topic(topic).receivedRecords(n);
     }
 
     public void recordProcessingTime(Timer timer) {
-        this.recordProcessingTime += timer.nanosElapsed();
+        this.recordProcessingTime.add(timer.nanosElapsed());
     }
 
     public void taskProcessingTime(Timer timer) {
-        this.taskProcessingTime += timer.nanosElapsed();
+        this.taskProcessingTime.add(timer.nanosElapsed());
+    }
+
+    /**
+     * @param sendNanos from the last row to the response of ClickHouse
+     * @param rows rows written by ClickHouse
+     * @param bytes bytes written by ClickHouse
+     */
+    public void insert(String table, int records, long sendNanos, long rows, long bytes) {
+        inserts.increment();
+        batchSize.record(records);
+        insertedRows.add(rows);
+        insertedBytes.add(bytes);
+        table(table).insert(records, sendNanos, rows, bytes);
+    }
+
+    public void failedInsert(String table) {
+        failedInserts.increment();
+        table(table).failedInsert();
+    }
+
+    public void retry() {
+        retries.increment();
+    }
+
+    public void dlqRecord(String topic) {
+        dlqRecords.increment();
+        topic(topic).dlqRecord();
+    }
+
+    public void freshness(long nanos) {
+        freshness.record(nanos);
+    }
+
+    public void stage(Stage stage, Timer timer) {
+        stage(stage, timer.nanosElapsed());
+    }
+
+    public void stage(Stage stage, long nanos) {
+        stageTimes[stage.ordinal()].record(nanos);
+        PipelineTrace trace = PipelineTrace.current();
+        if (trace != null) {
+            trace.add(stage, nanos);
+        }
+    }
+
+    /**
+     * @return a trace for one put out of traceSampleInterval, null for the others
+     */
+    public PipelineTrace startTrace(int records) {
+        if (traceSampleInterval <= 0) {
+            return null;
+        }
+        long put = puts.incrementAndGet();
+        return put % traceSampleInterval == 0 ? new PipelineTrace(put, records) : null;
+    }
+
+    public void finishTrace(PipelineTrace trace, Timer timer) {
+        if (trace == null) {
+            return;
+        }
+        String formatted = trace.format(timer.nanosElapsed());
+        recentTraces.set(Math.floorMod(nextTrace.getAndIncrement(), RECENT_TRACES), formatted);
+        LOGGER.info(formatted);
+    }
+
+    public TopicStatistics topic(String topic) {
+        TopicStatistics statistics = topics.get(topic);
+        if (statistics == null) {
+            statistics = topics.computeIfAbsent(topic, t -> registerChild(topicProperties(t), new TopicStatistics()));
+        }
+        return statistics;
+    }
+
+    public TableStatistics table(String table) {
+        TableStatistics statistics = tables.get(table);
+        if (statistics == null) {
+            statistics = tables.computeIfAbsent(table, t -> registerChild(tableProperties(t), new TableStatistics()));
+        }
+        return statistics;
+    }
+
+    public PartitionStatistics partition(String topic, int partition) {
+        TopicPartition topicPartition = new TopicPartition(topic, partition);
+        PartitionStatistics statistics = partitions.get(topicPartition);
+        if (statistics == null) {
+            statistics = partitions.computeIfAbsent(topicPartition, tp -> registerChild(partitionProperties(tp), new PartitionStatistics()));
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the column profile of the table, a new one if its columns changed
+     */
+    public ColumnProfile columnProfile(String table, List<String> columns) {
+        ColumnProfile profile = columnProfiles.get(table);
+        if (profile == null || !profile.getColumnNames().equals(columns)) {
+            profile = columnProfiles.compute(table, (t, previous) -> {
+                if (previous != null && previous.getColumnNames().equals(columns)) {
+                    return previous;
+                }
+                String name = mBeanName;
+                if (previous != null && name != null) {
+                    MBeanServerUtils.unregisterMBean(name + "," + profileProperties(t));
+                }
+                return registerChild(profileProperties(t), new ColumnProfile(t, columns));
+            });
+        }
+        return profile;
+    }
+
+    /**
+     * @return the column profiles of the tables, empty when profiling is disabled
+     */
+    public String dumpColumnProfiles() {
+        StringBuilder builder = new StringBuilder();
+        for (ColumnProfile profile : columnProfiles.values()) {
+            builder.append(builder.length() == 0 ? "" : "\n").append(profile.dump());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Drops a revoked partition, its offsets would otherwise report a lag that never goes away.
+     */
+    public void removePartition(TopicPartition topicPartition) {
+        String name = mBeanName;
+        if (partitions.remove(topicPartition) != null && name != null) {
+            MBeanServerUtils.unregisterMBean(name + "," + partitionProperties(topicPartition));
+        }
+    }
+
+    private Map<String, Histogram> histograms() {
+        Map<String, Histogram> histograms = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage.getMetricName(), stageTimes[stage.ordinal()]);
+        }
+        histograms.put("batchSize", batchSize);
+        histograms.put("freshness", freshness);
+        return histograms;
+    }
+
+    private static String histogramProperties(String histogram) {
+        return "histogram=" + histogram;
+    }
+
+    private static String topicProperties(String topic) {
+        return "topic=" + topic;
+    }
+
+    private static String tableProperties(String table) {
+        return "table=" + table;
+    }
+
+    private static String profileProperties(String table) {
+        return "profile=" + table;
+    }
+
+    private static String partitionProperties(TopicPartition topicPartition) {
+        return String.format("topic=%s,partition=%d", topicPartition.topic(), topicPartition.partition());
+    }
+
+    private <T> T registerChild(String properties, T mBean) {
+        String name = mBeanName;
+        if (name != null) {
+            MBeanServerUtils.registerMBean(mBean, name + "," + properties);
+        }
+        return mBean;
+    }
+
+    /**
+     * Registers the task MBean, its histograms and the topics, partitions, tables & column profiles seen so far.
+     */
+    public SinkTaskStatistics register(String mBeanName) {
+        this.mBeanName = mBeanName;
+        MBeanServerUtils.registerMBean(this, mBeanName);
+        histograms().forEach((key, histogram) -> registerChild(histogramProperties(key), histogram));
+        topics.forEach((topic, statistics) -> registerChild(topicProperties(topic), statistics));
+        partitions.forEach((topicPartition, statistics) -> registerChild(partitionProperties(topicPartition), statistics));
+        tables.forEach((table, statistics) -> registerChild(tableProperties(table), statistics));
+        columnProfiles.forEach((table, profile) -> registerChild(profileProperties(table), profile));
+        return this;
+    }
+
+    public void unregister() {
+        String name = mBeanName;
+        if (name == null) {
+            return;
+        }
+        mBeanName = null;
+        histograms().keySet().forEach(key -> MBeanServerUtils.unregisterMBean(name + "," + histogramProperties(key)));
+        topics.keySet().forEach(topic -> MBeanServerUtils.unregisterMBean(name + "," + topicProperties(topic)));
+        partitions.keySet().forEach(topicPartition -> MBeanServerUtils.unregisterMBean(name + "," + partitionProperties(topicPartition)));
+        tables.keySet().forEach(table -> MBeanServerUtils.unregisterMBean(name + "," + tableProperties(table)));
+        columnProfiles.keySet().forEach(table -> MBeanServerUtils.unregisterMBean(name + "," + profileProperties(table)));
+        MBeanServerUtils.unregisterMBean(name);
     }
 
 }
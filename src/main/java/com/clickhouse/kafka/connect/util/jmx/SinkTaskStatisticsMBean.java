@@ -8,4 +8,18 @@ public interface SinkTaskStatisticsMBean {
 
     long getTaskProcessingTime();
 
+    long getInsertedRows();
+
+    long getInsertedBytes();
+
+    long getInsertCount();
+
+    long getFailedInsertCount();
+
+    long getRetryCount();
+
+    long getDlqRecords();
+
+    String[] getRecentTraces();
+
 }
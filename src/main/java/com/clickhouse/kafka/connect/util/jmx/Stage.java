@@ -0,0 +1,32 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+/**
+ * Stages of the pipeline a put goes through, each one has a latency histogram (nanoseconds).
+ */
+public enum Stage {
+    // SinkRecord to Record
+    CONVERSION("conversionTime"),
+    // Records into per partition batches, in offset order
+    GROUPING("groupingTime"),
+    STATE_READ("stateReadTime"),
+    STATE_WRITE("stateWriteTime"),
+    // Records against the table columns
+    VALIDATION("validationTime"),
+    // Rows written into the request stream, blocks when the network is behind
+    ENCODING("encodeTime"),
+    // From the last row until the HTTP client has read all the data
+    SEND("sendTime"),
+    // From the end of the data to the response of ClickHouse
+    RESPONSE_WAIT("responseWaitTime"),
+    DLQ("dlqTime");
+
+    private final String metricName;
+
+    Stage(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
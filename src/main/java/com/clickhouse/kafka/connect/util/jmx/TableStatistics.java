@@ -0,0 +1,77 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Inserts into one table, rows & bytes are the ones reported by ClickHouse. Times are in nanoseconds.
+ */
+public class TableStatistics implements TableStatisticsMBean {
+    private final LongAdder insertedRows = new LongAdder();
+    private final LongAdder insertedBytes = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder failedInserts = new LongAdder();
+    private final Histogram batchSize = new Histogram();
+    private final Histogram sendTime = new Histogram();
+
+    @Override
+    public long getInsertedRows() {
+        return insertedRows.sum();
+    }
+
+    @Override
+    public long getInsertedBytes() {
+        return insertedBytes.sum();
+    }
+
+    @Override
+    public long getInsertCount() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getFailedInsertCount() {
+        return failedInserts.sum();
+    }
+
+    @Override
+    public long getBatchSizeP50() {
+        return batchSize.getP50();
+    }
+
+    @Override
+    public long getBatchSizeP99() {
+        return batchSize.getP99();
+    }
+
+    @Override
+    public long getBatchSizeMax() {
+        return batchSize.getMax();
+    }
+
+    @Override
+    public long getSendTimeP50() {
+        return sendTime.getP50();
+    }
+
+    @Override
+    public long getSendTimeP99() {
+        return sendTime.getP99();
+    }
+
+    @Override
+    public long getSendTimeP999() {
+        return sendTime.getP999();
+    }
+
+    void insert(int records, long sendNanos, long rows, long bytes) {
+        inserts.increment();
+        batchSize.record(records);
+        sendTime.record(sendNanos);
+        insertedRows.add(rows);
+        insertedBytes.add(bytes);
+    }
+
+    void failedInsert() {
+        failedInserts.increment();
+    }
+}
@@ -0,0 +1,25 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+public interface TableStatisticsMBean {
+
+    long getInsertedRows();
+
+    long getInsertedBytes();
+
+    long getInsertCount();
+
+    long getFailedInsertCount();
+
+    long getBatchSizeP50();
+
+    long getBatchSizeP99();
+
+    long getBatchSizeMax();
+
+    long getSendTimeP50();
+
+    long getSendTimeP99();
+
+    long getSendTimeP999();
+
+}
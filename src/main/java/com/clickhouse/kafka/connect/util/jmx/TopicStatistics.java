@@ -0,0 +1,71 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records of one topic. The server statistics are the cost of its inserts as logged by ClickHouse, only sampled
+ * when enabled. Times are in nanoseconds, memory in bytes.
+ */
+public class TopicStatistics implements TopicStatisticsMBean {
+    private final LongAdder receivedRecords = new LongAdder();
+    private final LongAdder dlqRecords = new LongAdder();
+    private final LongAdder serverInserts = new LongAdder();
+    private final LongAdder serverParts = new LongAdder();
+    private final Histogram serverElapsedTime = new Histogram();
+    private final Histogram serverMemoryUsage = new Histogram();
+
+    @Override
+    public long getReceivedRecords() {
+        return receivedRecords.sum();
+    }
+
+    @Override
+    public long getDlqRecords() {
+        return dlqRecords.sum();
+    }
+
+    @Override
+    public long getServerInsertCount() {
+        return serverInserts.sum();
+    }
+
+    @Override
+    public long getServerPartsCreated() {
+        return serverParts.sum();
+    }
+
+    @Override
+    public long getServerElapsedTimeP50() {
+        return serverElapsedTime.getP50();
+    }
+
+    @Override
+    public long getServerElapsedTimeP99() {
+        return serverElapsedTime.getP99();
+    }
+
+    @Override
+    public long getServerMemoryUsageP50() {
+        return serverMemoryUsage.getP50();
+    }
+
+    @Override
+    public long getServerMemoryUsageMax() {
+        return serverMemoryUsage.getMax();
+    }
+
+    void receivedRecords(int n) {
+        receivedRecords.add(n);
+    }
+
+    void dlqRecord() {
+        dlqRecords.increment();
+    }
+
+    public void serverInsert(long elapsedNanos, long memoryUsage, long parts) {
+        serverInserts.increment();
+        serverParts.add(parts);
+        serverElapsedTime.record(elapsedNanos);
+        serverMemoryUsage.record(memoryUsage);
+    }
+}
@@ -0,0 +1,21 @@
+package com.clickhouse.kafka.connect.util.jmx;
+
+public interface TopicStatisticsMBean {
+
+    long getReceivedRecords();
+
+    long getDlqRecords();
+
+    long getServerInsertCount();
+
+    long getServerPartsCreated();
+
+    long getServerElapsedTimeP50();
+
+    long getServerElapsedTimeP99();
+
+    long getServerMemoryUsageP50();
+
+    long getServerMemoryUsageMax();
+
+}
@@ -0,0 +1,82 @@
+package com.clickhouse.kafka.connect.sink;
+
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.db.InMemoryDBWriter;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ProxySinkTaskTest {
+
+    @TempDir
+    File stateDir;
+
+    private static List<SinkRecord> createRecords(long from, long to) {
+        List<SinkRecord> records = new ArrayList<>();
+        for (long n = from; n <= to; n++) {
+            records.add(new SinkRecord("buffered", 0, null, null, null, Collections.singletonMap("off", n), n));
+        }
+        return records;
+    }
+
+    @Test
+    @DisplayName("PublicConstructorStartsItsOwnWriter")
+    public void PublicConstructorStartsItsOwnWriter() {
+        Map<String, String> props = new HashMap<>();
+        props.put(ClickHouseSinkConfig.HOSTNAME, "localhost");
+        // Nothing listens there, the writer created by the task fails to ping
+        props.put(ClickHouseSinkConfig.PORT, "1");
+        RuntimeException e = assertThrows(RuntimeException.class, () -> new ProxySinkTask(new ClickHouseSinkConfig(props), null));
+        assertEquals("Connection to ClickHouse is not active.", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("BufferedBatchIsInsertedWhenThePutIsRetried")
+    public void BufferedBatchIsInsertedWhenThePutIsRetried() {
+        Map<String, String> props = new HashMap<>();
+        props.put(ClickHouseSinkConfig.EXACTLY_ONCE, "true");
+        props.put(ClickHouseSinkConfig.STATE_STORE, "LOCAL_WAL");
+        props.put(ClickHouseSinkConfig.STATE_WAL_DIR, stateDir.getAbsolutePath());
+        props.put(ClickHouseSinkConfig.EXACTLY_ONCE_BATCH_OFFSETS, "10");
+        List<Long> inserted = new ArrayList<>();
+        int[] failures = {1};
+        InMemoryDBWriter dbWriter = new InMemoryDBWriter() {
+            @Override
+            public void doInsert(List<Record> records) {
+                if (failures[0]-- > 0) {
+                    throw new RetriableException("insert failed");
+                }
+                records.forEach(r -> inserted.add(r.getRecordOffsetContainer().getOffset()));
+                super.doInsert(records);
+            }
+        };
+        ProxySinkTask task = new ProxySinkTask(new ClickHouseSinkConfig(props), null, dbWriter);
+        try {
+            TopicPartition topicPartition = new TopicPartition("buffered", 0);
+            task.put(createRecords(0, 5));
+            List<SinkRecord> secondPut = createRecords(6, 14);
+            // Cuts [0, 9] out of both puts, its insert fails
+            assertThrows(RetriableException.class, () -> task.put(secondPut));
+            assertEquals(-1, task.getFlushedOffset(topicPartition));
+            // Connect redelivers the second put only
+            task.put(secondPut);
+            assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), inserted);
+            assertEquals(9, task.getFlushedOffset(topicPartition));
+        } finally {
+            task.stop();
+        }
+    }
+}
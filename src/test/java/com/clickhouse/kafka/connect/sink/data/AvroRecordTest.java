@@ -0,0 +1,52 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import com.clickhouse.kafka.connect.sink.data.convert.AvroRecordConvertor;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AvroRecordTest {
+
+    private static final String SCHEMA = "{\"type\": \"record\", \"name\": \"Row\", \"fields\": [{\"name\": \"off\", \"type\": \"long\"}]}";
+
+    @Test
+    @DisplayName("ResolveSchemaByTopicOrSchemaId")
+    public void ResolveSchemaByTopicOrSchemaId() throws IOException {
+        Path schemaPath = Files.createTempDirectory("avro-schemas");
+        Files.write(schemaPath.resolve("plain_topic.avsc"), SCHEMA.getBytes(StandardCharsets.UTF_8));
+        Files.write(schemaPath.resolve("258.avsc"), SCHEMA.getBytes(StandardCharsets.UTF_8));
+        AvroRecordConvertor convertor = new AvroRecordConvertor(schemaPath);
+
+        Record plain = convertor.convert(new SinkRecord("plain_topic", 0, null, null, null, new byte[]{2}, 1), null, false);
+        assertEquals(SchemaType.AVRO, plain.getSchemaType());
+        AvroValue plainValue = (AvroValue) plain.getValue();
+        assertEquals("Row", plainValue.getSchema().getName());
+        assertEquals(0, plainValue.getOffset());
+
+        Record framed = convertor.convert(new SinkRecord("registry_topic", 0, null, null, null, new byte[]{0, 0, 0, 1, 2, 4}, 2), null, false);
+        AvroValue framedValue = (AvroValue) framed.getValue();
+        assertEquals(5, framedValue.getOffset());
+        // Schema files are parsed once
+        AvroValue again = (AvroValue) convertor.convert(new SinkRecord("registry_topic", 0, null, null, null, new byte[]{0, 0, 0, 1, 2, 6}, 3), null, false).getValue();
+        assertSame(framedValue.getSchema(), again.getSchema());
+
+        assertThrows(DataException.class, () -> convertor.convert(new SinkRecord("registry_topic", 0, null, null, null, new byte[]{0, 0, 0, 0, 9, 2}, 4), null, false));
+
+        // Other values are converted as usual, raw JSON bytes included
+        Record json = convertor.convert(new SinkRecord("registry_topic", 0, null, null, null, "{\"off\": 1}".getBytes(StandardCharsets.UTF_8), 5), null, false);
+        assertEquals(SchemaType.RAW, json.getSchemaType());
+        Record schemaless = convertor.convert(new SinkRecord("plain_topic", 0, null, null, null, Map.of("off", 1), 6), null, false);
+        assertEquals(SchemaType.SCHEMA_LESS, schemaless.getSchemaType());
+    }
+}
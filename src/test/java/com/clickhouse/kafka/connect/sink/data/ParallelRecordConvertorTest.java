@@ -0,0 +1,29 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import com.clickhouse.kafka.connect.sink.data.convert.ParallelRecordConvertor;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelRecordConvertorTest {
+
+    @Test
+    @DisplayName("ConvertKeepsInputOrder")
+    public void ConvertKeepsInputOrder() {
+        SinkRecord[] sinkRecords = new SinkRecord[10000];
+        for (int n = 0; n < sinkRecords.length; n++) {
+            sinkRecords[n] = new SinkRecord(n % 2 == 0 ? "even" : "odd", n % 7, null, null, null, Map.of("off", n), n);
+        }
+        Record[] records = ParallelRecordConvertor.convert(sinkRecords, topic -> null, false);
+        assertEquals(sinkRecords.length, records.length);
+        for (int n = 0; n < records.length; n++) {
+            assertEquals(n, records[n].getRecordOffsetContainer().getOffset());
+            assertEquals(n % 7, records[n].getRecordOffsetContainer().getPartition());
+            assertEquals(n, records[n].getValue(records[n].getLayout().ordinal("off")));
+        }
+    }
+}
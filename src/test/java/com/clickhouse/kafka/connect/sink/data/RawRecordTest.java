@@ -0,0 +1,39 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RawRecordTest {
+
+    @Test
+    @DisplayName("ConvertStringAndBytesAsRaw")
+    public void ConvertStringAndBytesAsRaw() {
+        String json = " {\"off\": 1, \"str\": \"abc\"}\n";
+        Record fromString = Record.convert(new SinkRecord("raw_table", 0, null, null, null, json, 1));
+        assertEquals(SchemaType.RAW, fromString.getSchemaType());
+        assertTrue(fromString.hasValue());
+        assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), (byte[]) fromString.getValue());
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        Record fromBytes = Record.convert(new SinkRecord("raw_table", 0, null, null, null, bytes, 2));
+        assertEquals(SchemaType.RAW, fromBytes.getSchemaType());
+        assertArrayEquals(bytes, (byte[]) fromBytes.getValue());
+    }
+
+    @Test
+    @DisplayName("RejectRawValueThatIsNotAJsonObject")
+    public void RejectRawValueThatIsNotAJsonObject() {
+        assertThrows(DataException.class, () -> Record.convert(new SinkRecord("raw_table", 0, null, null, null, "[1, 2]", 1)));
+        assertThrows(DataException.class, () -> Record.convert(new SinkRecord("raw_table", 0, null, null, null, "  ", 1)));
+        assertThrows(DataException.class, () -> Record.convert(new SinkRecord("raw_table", 0, null, null, null, new byte[]{'{'}, 1)));
+    }
+}
@@ -0,0 +1,108 @@
+package com.clickhouse.kafka.connect.sink.data;
+
+import com.clickhouse.kafka.connect.sink.db.ClickHouseWriter;
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class RecordProjectionTest {
+
+    private static Table createTable() {
+        Table table = new Table("projection_table");
+        table.addColumn(Column.extractColumn("off16", "Int16", false));
+        table.addColumn(Column.extractColumn("str", "Nullable(String)", true));
+        table.addColumn(Column.extractColumn("missing", "Nullable(String)", true));
+        return table;
+    }
+
+    // Values of the fields the record has, by name
+    private static Map<String, Object> row(Record record) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < record.getLayout().size(); i++) {
+            if (record.getValue(i) != RowLayout.MISSING) {
+                row.put(record.getLayout().getName(i), record.getValue(i));
+            }
+        }
+        return row;
+    }
+
+    @Test
+    @DisplayName("ConvertSchemaRecordOnlyTableColumns")
+    public void ConvertSchemaRecordOnlyTableColumns() {
+        Schema nestedSchema = SchemaBuilder.struct()
+                .field("inner", Schema.STRING_SCHEMA)
+                .build();
+        Schema schema = SchemaBuilder.struct()
+                .field("off16", Schema.INT16_SCHEMA)
+                .field("str", Schema.OPTIONAL_STRING_SCHEMA)
+                .field("p_int64", Schema.INT64_SCHEMA)
+                .field("nested", nestedSchema)
+                .build();
+        Struct struct = new Struct(schema)
+                .put("off16", (short) 7)
+                .put("str", null)
+                .put("p_int64", 8L)
+                .put("nested", new Struct(nestedSchema).put("inner", "abc"));
+        SinkRecord sinkRecord = new SinkRecord("projection_table", 0, null, null, schema, struct, 1);
+
+        Table table = createTable();
+        Record record = Record.convert(sinkRecord, table, false);
+        assertEquals(2, row(record).size());
+        assertSame(record.getLayout(), Record.convert(sinkRecord, table, false).getLayout());
+        assertNull(record.getSinkRecord());
+        assertEquals((short) 7, row(record).get("off16"));
+        assertNull(row(record).get("str"));
+        assertFalse(row(record).containsKey("nested"));
+        // Inserted from the row, the struct isn't kept
+        assertNull(record.getValue());
+        table.setHasDefaults(true);
+        assertSame(struct, Record.convert(sinkRecord, table, false).getValue());
+
+        assertEquals(4, row(Record.convert(sinkRecord)).size());
+    }
+
+    @Test
+    @DisplayName("ConvertSchemalessRecordOnlyTableColumns")
+    public void ConvertSchemalessRecordOnlyTableColumns() throws IOException {
+        Map<String, Object> value = new HashMap<>();
+        value.put("off16", 7);
+        value.put("str", null);
+        value.put("p_int64", 8L);
+        value.put("nested", Map.of("inner", "abc"));
+        SinkRecord sinkRecord = new SinkRecord("projection_table", 0, null, null, null, value, 1);
+
+        Table table = createTable();
+        Record record = Record.convert(sinkRecord, table, false);
+        assertEquals(2, row(record).size());
+        assertEquals(3, record.getFields().size());
+        assertSame(record.getLayout(), Record.convert(sinkRecord, table, false).getLayout());
+        assertNull(record.getSinkRecord());
+        assertEquals(7, row(record).get("off16"));
+        assertNull(row(record).get("str"));
+        assertFalse(row(record).containsKey("nested"));
+        assertNull(record.getValue());
+        // Only the columns are inserted, Gson leaves out the null one
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new ClickHouseWriter().writeJson(List.of(record), json);
+        assertEquals("{\"off16\":7}", json.toString(StandardCharsets.UTF_8));
+
+        assertEquals(4, row(Record.convert(sinkRecord)).size());
+    }
+}
@@ -0,0 +1,86 @@
+package com.clickhouse.kafka.connect.sink.db;
+
+import com.clickhouse.client.data.BinaryStreamUtils;
+import com.clickhouse.kafka.connect.sink.data.AvroValue;
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.RowLayout;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.db.transcode.AvroRowBinaryTranscoder;
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import com.clickhouse.kafka.connect.sink.kafka.OffsetContainer;
+import org.apache.avro.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClickHouseWriterTest {
+
+    private static final Schema AVRO_SCHEMA = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"Row\", \"fields\": ["
+            + "{\"name\": \"v\", \"type\": \"long\"},"
+            + "{\"name\": \"s\", \"type\": \"string\"}"
+            + "]}");
+
+    // An empty record first, then {"v": 7, "s": "ab"}
+    private static List<Record> avroRecords() {
+        byte[] avro = {14, 4, 'a', 'b'};
+        return List.of(
+                Record.convert(new SinkRecord("avro_table", 0, null, null, null, null, 0)),
+                new Record(SchemaType.AVRO, new OffsetContainer("avro_table", 0, 1), RowLayout.EMPTY, new Object[0], new AvroValue(AVRO_SCHEMA, avro, 0), null, Record.NO_TIMESTAMP));
+    }
+
+    @Test
+    @DisplayName("RawRowBinarySkipsEmptyRecords")
+    public void RawRowBinarySkipsEmptyRecords() throws IOException {
+        Table table = new Table("raw_table");
+        table.addColumn(Column.extractColumn("s", "String", false));
+        List<Record> records = List.of(
+                Record.convert(new SinkRecord("raw_table", 0, null, null, null, null, 0)),
+                Record.convert(new SinkRecord("raw_table", 0, null, null, null, "{\"s\": \"a\"}".getBytes(StandardCharsets.UTF_8), 1)),
+                Record.convert(new SinkRecord("raw_table", 0, null, null, null, null, 2)));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeString(expected, "a".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ClickHouseWriter().writeRawJsonBinary(table, records, out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("AvroRowBinarySkipsEmptyRecords")
+    public void AvroRowBinarySkipsEmptyRecords() throws IOException {
+        Table table = new Table("avro_table");
+        table.addColumn(Column.extractColumn("v", "Int64", false));
+        assertTrue(AvroRowBinaryTranscoder.supports(table, avroRecords()));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeInt64(expected, 7L);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ClickHouseWriter().writeAvroBinary(table, avroRecords(), out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("AvroFallsBackToJson")
+    public void AvroFallsBackToJson() throws IOException {
+        Table table = new Table("avro_table");
+        table.addColumn(Column.extractColumn("v", "Int64", false));
+        // Not nullable & missing from the schema, filled in by its DEFAULT
+        table.addColumn(Column.extractColumn("other", "Int32", false));
+        assertFalse(AvroRowBinaryTranscoder.supports(table, avroRecords()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ClickHouseWriter().writeJson(avroRecords(), out);
+        assertEquals("{\"v\":7,\"s\":\"ab\"}", out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,81 @@
+package com.clickhouse.kafka.connect.sink.db;
+
+import com.clickhouse.client.ClickHouseException;
+import com.clickhouse.client.ClickHouseNode;
+import com.clickhouse.kafka.connect.sink.data.Data;
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import com.clickhouse.kafka.connect.util.jmx.TopicStatistics;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ServerStatsSamplerTest {
+
+    @Test
+    @DisplayName("QueryIdOfBatch")
+    public void QueryIdOfBatch() {
+        List<Record> records = new ArrayList<>();
+        for (long n = 7; n >= 3; n--) {
+            SinkRecord sr = new SinkRecord("orders", 4, null, null, null, null, n);
+            records.add(Record.newRecord(SchemaType.SCHEMA, "orders", 4, n, null, Collections.singletonMap("off", new Data(Schema.Type.INT64, n)), sr));
+        }
+        ClickHouseWriter writer = new ClickHouseWriter(new SinkTaskStatistics(), "orders-sink-1");
+        String queryId = writer.queryId(records);
+        assertEquals("clickhouse-kafka-connect:orders-sink-1:orders:4:3-7", queryId);
+        ServerStatsSampler sampler = new ServerStatsSampler(null, "clickhouse-kafka-connect:orders-sink-1", new SinkTaskStatistics(), 10000);
+        assertEquals("orders", sampler.topic(queryId));
+    }
+
+    @Test
+    @DisplayName("RecordServerInsertsOnce")
+    public void RecordServerInsertsOnce() {
+        SinkTaskStatistics statistics = new SinkTaskStatistics();
+        ServerStatsSampler sampler = new ServerStatsSampler(null, "clickhouse-kafka-connect:orders-sink-1", statistics, 10000);
+        assertTrue(sampler.record("clickhouse-kafka-connect:orders-sink-1:orders:4:0-99", 12, 4096, 1));
+        assertTrue(sampler.record("clickhouse-kafka-connect:orders-sink-1:orders:4:100-199", 20, 8192, 2));
+        // Overlapping sample windows
+        assertFalse(sampler.record("clickhouse-kafka-connect:orders-sink-1:orders:4:0-99", 12, 4096, 1));
+        // Another task, same prefix
+        assertFalse(sampler.record("clickhouse-kafka-connect:orders-sink-10:orders:4:0-99", 12, 4096, 1));
+        assertNull(sampler.topic("clickhouse-kafka-connect:orders-sink-1"));
+
+        TopicStatistics topic = statistics.topic("orders");
+        assertEquals(2, topic.getServerInsertCount());
+        assertEquals(3, topic.getServerPartsCreated());
+        assertEquals(8192, topic.getServerMemoryUsageMax());
+        assertTrue(sampler.query().contains("startsWith(q.query_id, 'clickhouse-kafka-connect:orders-sink-1:')"));
+    }
+
+    @Test
+    @DisplayName("QuoteConnectorNameInQuery")
+    public void QuoteConnectorNameInQuery() {
+        ServerStatsSampler sampler = new ServerStatsSampler(null, "clickhouse-kafka-connect:bob's-sink-0", new SinkTaskStatistics(), 10000);
+        assertTrue(sampler.query().contains("startsWith(q.query_id, 'clickhouse-kafka-connect:bob\\'s-sink-0:')"));
+    }
+
+    @Test
+    @DisplayName("PartLogIsOnlyDroppedWhenMissing")
+    public void PartLogIsOnlyDroppedWhenMissing() throws ClickHouseException {
+        ServerStatsSampler sampler = new ServerStatsSampler(null, "clickhouse-kafka-connect:orders-sink-1", new SinkTaskStatistics(), 10000);
+        // Timeout
+        assertThrows(ClickHouseException.class, () -> sampler.failed(new ClickHouseException(159, "Timeout", (ClickHouseNode) null)));
+        assertTrue(sampler.query().contains("system.part_log"));
+        // UNKNOWN_TABLE
+        sampler.failed(new ClickHouseException(60, "Table system.part_log doesn't exist", (ClickHouseNode) null));
+        assertFalse(sampler.query().contains("system.part_log"));
+        assertThrows(ClickHouseException.class, () -> sampler.failed(new ClickHouseException(60, "Table system.query_log doesn't exist", (ClickHouseNode) null)));
+    }
+}
@@ -31,4 +31,14 @@ class ColumnTest {
         assertEquals(Type.STRING, col.getSubType().getType());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testExtractMapOfArrayColumn() {
+        Column col = Column.extractColumn("columnName", "Map(String, Array(Nullable(Int32)))", false);
+        assertEquals(Type.MAP, col.getType());
+        assertEquals(Type.STRING, col.getMapKeyType());
+        assertEquals(Type.ARRAY, col.getSubType().getType());
+        assertEquals(Type.INT32, col.getSubType().getSubType().getType());
+        assertTrue(col.getSubType().getSubType().isNullable());
+    }
+
+}
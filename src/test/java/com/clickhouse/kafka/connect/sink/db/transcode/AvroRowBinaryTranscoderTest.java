@@ -0,0 +1,223 @@
+package com.clickhouse.kafka.connect.sink.db.transcode;
+
+import com.clickhouse.client.data.BinaryStreamUtils;
+import com.clickhouse.kafka.connect.sink.data.AvroValue;
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import org.apache.avro.Schema;
+import org.apache.kafka.connect.errors.DataException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AvroRowBinaryTranscoderTest {
+
+    private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"Row\", \"fields\": ["
+            + "{\"name\": \"unmapped\", \"type\": {\"type\": \"map\", \"values\": {\"type\": \"array\", \"items\": \"string\"}}},"
+            + "{\"name\": \"str\", \"type\": \"string\"},"
+            + "{\"name\": \"i64\", \"type\": \"long\"},"
+            + "{\"name\": \"i8\", \"type\": \"int\"},"
+            + "{\"name\": \"f64\", \"type\": \"double\"},"
+            + "{\"name\": \"f32\", \"type\": \"float\"},"
+            + "{\"name\": \"flag\", \"type\": \"boolean\"},"
+            + "{\"name\": \"opt\", \"type\": [\"null\", \"string\"]},"
+            + "{\"name\": \"id\", \"type\": {\"type\": \"string\", \"logicalType\": \"uuid\"}},"
+            + "{\"name\": \"ts\", \"type\": {\"type\": \"long\", \"logicalType\": \"timestamp-millis\"}},"
+            + "{\"name\": \"arr\", \"type\": {\"type\": \"array\", \"items\": [\"null\", \"int\"]}},"
+            + "{\"name\": \"m\", \"type\": {\"type\": \"map\", \"values\": \"long\"}},"
+            + "{\"name\": \"color\", \"type\": {\"type\": \"enum\", \"name\": \"Color\", \"symbols\": [\"RED\", \"GREEN\"]}}"
+            + "]}");
+
+    private static Table createTable() {
+        Table table = new Table("avro_table");
+        table.addColumn(Column.extractColumn("i8", "Int8", false));
+        table.addColumn(Column.extractColumn("i64", "Int64", false));
+        table.addColumn(Column.extractColumn("f64", "Float64", false));
+        table.addColumn(Column.extractColumn("f32", "Float32", false));
+        table.addColumn(Column.extractColumn("flag", "Bool", false));
+        table.addColumn(Column.extractColumn("str", "String", false));
+        table.addColumn(Column.extractColumn("opt", "Nullable(String)", true));
+        table.addColumn(Column.extractColumn("id", "UUID", false));
+        table.addColumn(Column.extractColumn("ts", "DateTime", false));
+        table.addColumn(Column.extractColumn("arr", "Array(Nullable(Int32))", false));
+        table.addColumn(Column.extractColumn("m", "Map(String, Int64)", false));
+        table.addColumn(Column.extractColumn("color", "String", false));
+        table.addColumn(Column.extractColumn("missing", "Nullable(Int32)", true));
+        return table;
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.write((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] encodeRow(String uuid) {
+        ByteArrayOutputStream avro = new ByteArrayOutputStream();
+        // unmapped: one block of 1 entry, then a block with its size in bytes
+        writeLong(avro, 1);
+        writeString(avro, "a");
+        writeLong(avro, 1);
+        writeString(avro, "x");
+        writeLong(avro, 0);
+        writeLong(avro, -1);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        writeString(block, "b");
+        writeLong(block, 0);
+        writeLong(avro, block.size());
+        avro.write(block.toByteArray(), 0, block.size());
+        writeLong(avro, 0);
+        // str, i64, i8
+        writeString(avro, "h\u00e9llo");
+        writeLong(avro, -9007199254740993L);
+        writeLong(avro, -5);
+        // f64 & f32, little endian
+        avro.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(1.25e-3).array(), 0, 8);
+        avro.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(-0.5f).array(), 0, 4);
+        // flag, opt (null branch)
+        avro.write(1);
+        writeLong(avro, 0);
+        writeString(avro, uuid);
+        writeLong(avro, 1700000000123L);
+        // arr: [1, null] in two blocks, the second one with its size in bytes
+        writeLong(avro, 1);
+        writeLong(avro, 1);
+        writeLong(avro, 1);
+        writeLong(avro, -1);
+        writeLong(avro, 1);
+        writeLong(avro, 0);
+        writeLong(avro, 0);
+        // m
+        writeLong(avro, 2);
+        writeString(avro, "k1");
+        writeLong(avro, 1);
+        writeString(avro, "k2");
+        writeLong(avro, -1);
+        writeLong(avro, 0);
+        // color
+        writeLong(avro, 1);
+        return avro.toByteArray();
+    }
+
+    @Test
+    @DisplayName("TranscodeMatchesRowBinary")
+    public void TranscodeMatchesRowBinary() throws IOException {
+        String uuid = "123e4567-e89b-12d3-a456-426614174000";
+        byte[] avro = encodeRow(uuid);
+        // A schema registry header is skipped through the offset
+        byte[] framed = new byte[avro.length + 5];
+        System.arraycopy(avro, 0, framed, 5, avro.length);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeInt8(expected, (byte) -5);
+        BinaryStreamUtils.writeInt64(expected, -9007199254740993L);
+        BinaryStreamUtils.writeFloat64(expected, 1.25e-3);
+        BinaryStreamUtils.writeFloat32(expected, -0.5f);
+        BinaryStreamUtils.writeBoolean(expected, true);
+        BinaryStreamUtils.writeString(expected, "h\u00e9llo".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeNull(expected);
+        BinaryStreamUtils.writeUuid(expected, UUID.fromString(uuid));
+        BinaryStreamUtils.writeUnsignedInt32(expected, 1700000000L);
+        BinaryStreamUtils.writeVarInt(expected, 2);
+        BinaryStreamUtils.writeNonNull(expected);
+        BinaryStreamUtils.writeInt32(expected, 1);
+        BinaryStreamUtils.writeNull(expected);
+        BinaryStreamUtils.writeVarInt(expected, 2);
+        BinaryStreamUtils.writeString(expected, "k1".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeInt64(expected, 1L);
+        BinaryStreamUtils.writeString(expected, "k2".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeInt64(expected, -1L);
+        BinaryStreamUtils.writeString(expected, "GREEN".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeNull(expected);
+
+        AvroRowBinaryTranscoder transcoder = new AvroRowBinaryTranscoder(createTable());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transcoder.transcode(new AvroValue(SCHEMA, avro, 0), out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+        out.reset();
+        transcoder.transcode(new AvroValue(SCHEMA, framed, 5), out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("TranscodeMapOfArrays")
+    public void TranscodeMapOfArrays() throws IOException {
+        Table table = new Table("map_of_arrays");
+        table.addColumn(Column.extractColumn("unmapped", "Map(String, Array(String))", false));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeVarInt(expected, 2);
+        BinaryStreamUtils.writeString(expected, "a".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeVarInt(expected, 1);
+        BinaryStreamUtils.writeString(expected, "x".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeString(expected, "b".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeVarInt(expected, 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AvroRowBinaryTranscoder(table).transcode(new AvroValue(SCHEMA, encodeRow("123e4567-e89b-12d3-a456-426614174000"), 0), out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("TranscodeRecursiveSchema")
+    public void TranscodeRecursiveSchema() throws IOException {
+        Schema node = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"Node\", \"fields\": ["
+                + "{\"name\": \"next\", \"type\": [\"null\", \"Node\"]},"
+                + "{\"name\": \"v\", \"type\": \"long\"}"
+                + "]}");
+        Table table = new Table("recursive");
+        table.addColumn(Column.extractColumn("v", "Int64", false));
+        // {next: {next: null, v: 5}, v: 7}
+        ByteArrayOutputStream avro = new ByteArrayOutputStream();
+        writeLong(avro, 1);
+        writeLong(avro, 0);
+        writeLong(avro, 5);
+        writeLong(avro, 7);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeInt64(expected, 7L);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AvroRowBinaryTranscoder(table).transcode(new AvroValue(node, avro.toByteArray(), 0), out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    @DisplayName("CompileRejectsSchemaThatDoesNotFitTable")
+    public void CompileRejectsSchemaThatDoesNotFitTable() {
+        Table missing = new Table("missing");
+        missing.addColumn(Column.extractColumn("other", "Int32", false));
+        assertThrows(DataException.class, () -> AvroRowBinaryTranscoder.compile(SCHEMA, missing));
+        Table mismatch = new Table("mismatch");
+        mismatch.addColumn(Column.extractColumn("str", "Int32", false));
+        assertThrows(DataException.class, () -> AvroRowBinaryTranscoder.compile(SCHEMA, mismatch));
+    }
+
+    @Test
+    @DisplayName("TruncatedValueLeavesNothingBehind")
+    public void TruncatedValueLeavesNothingBehind() {
+        byte[] avro = encodeRow("123e4567-e89b-12d3-a456-426614174000");
+        byte[] truncated = new byte[avro.length - 3];
+        System.arraycopy(avro, 0, truncated, 0, truncated.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(DataException.class, () -> new AvroRowBinaryTranscoder(createTable()).transcode(new AvroValue(SCHEMA, truncated, 0), out));
+        assertEquals(0, out.size());
+    }
+}
@@ -0,0 +1,162 @@
+package com.clickhouse.kafka.connect.sink.db.transcode;
+
+import com.clickhouse.client.data.BinaryStreamUtils;
+import com.clickhouse.kafka.connect.sink.db.mapping.Column;
+import com.clickhouse.kafka.connect.sink.db.mapping.Table;
+import org.apache.kafka.connect.errors.DataException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonRowBinaryTranscoderTest {
+
+    private static Table createTable() {
+        Table table = new Table("transcode_table");
+        table.addColumn(Column.extractColumn("i8", "Int8", false));
+        table.addColumn(Column.extractColumn("i64", "Int64", false));
+        table.addColumn(Column.extractColumn("u32", "UInt32", false));
+        table.addColumn(Column.extractColumn("f64", "Float64", false));
+        table.addColumn(Column.extractColumn("f32", "Float32", false));
+        table.addColumn(Column.extractColumn("flag", "Bool", false));
+        table.addColumn(Column.extractColumn("str", "String", false));
+        table.addColumn(Column.extractColumn("opt", "Nullable(String)", true));
+        table.addColumn(Column.extractColumn("id", "UUID", false));
+        table.addColumn(Column.extractColumn("arr", "Array(Int32)", false));
+        table.addColumn(Column.extractColumn("m", "Map(String, Int64)", false));
+        return table;
+    }
+
+    private static byte[] transcode(Table table, String json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonRowBinaryTranscoder(table).transcode(json.getBytes(StandardCharsets.UTF_8), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    @DisplayName("TranscodeMatchesRowBinary")
+    public void TranscodeMatchesRowBinary() throws IOException {
+        String uuid = "123e4567-e89b-12d3-a456-426614174000";
+        String json = "{ \"unmapped\": {\"nested\": [1, {\"a\": \"}\"}]}, \"i8\": -5, \"i64\": 9007199254740993, \"u32\": \"4000000000\","
+                + " \"f64\": 1.25e-3, \"f32\": -0.5, \"flag\": true, \"str\": \"a\\\"b\\u00e9\\ud83d\\ude00\", \"opt\": null,"
+                + " \"id\": \"" + uuid + "\", \"arr\": [1, -2, 3], \"m\": {\"k\\n1\": 1, \"k2\": -1} }";
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeInt8(expected, (byte) -5);
+        BinaryStreamUtils.writeInt64(expected, 9007199254740993L);
+        BinaryStreamUtils.writeUnsignedInt32(expected, 4000000000L);
+        BinaryStreamUtils.writeFloat64(expected, 1.25e-3);
+        BinaryStreamUtils.writeFloat32(expected, -0.5f);
+        BinaryStreamUtils.writeBoolean(expected, true);
+        BinaryStreamUtils.writeString(expected, "a\"b\u00e9\ud83d\ude00".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeNull(expected);
+        BinaryStreamUtils.writeUuid(expected, UUID.fromString(uuid));
+        BinaryStreamUtils.writeVarInt(expected, 3);
+        BinaryStreamUtils.writeInt32(expected, 1);
+        BinaryStreamUtils.writeInt32(expected, -2);
+        BinaryStreamUtils.writeInt32(expected, 3);
+        BinaryStreamUtils.writeVarInt(expected, 2);
+        BinaryStreamUtils.writeString(expected, "k\n1".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeInt64(expected, 1L);
+        BinaryStreamUtils.writeString(expected, "k2".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeInt64(expected, -1L);
+
+        assertArrayEquals(expected.toByteArray(), transcode(createTable(), json));
+    }
+
+    @Test
+    @DisplayName("TranscodeDoubles")
+    public void TranscodeDoubles() throws IOException {
+        Table table = new Table("doubles");
+        table.addColumn(Column.extractColumn("f64", "Float64", false));
+        String[] values = {"0", "-0.0", "3.141592653589793", "1e300", "123456789012345678", "2.5E-10", "0.1", "1E22"};
+        for (String value : values) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            BinaryStreamUtils.writeFloat64(expected, Double.parseDouble(value));
+            assertArrayEquals(expected.toByteArray(), transcode(table, "{\"f64\":" + value + "}"), value);
+        }
+    }
+
+    @Test
+    @DisplayName("TranscodeRejectsInvalidRows")
+    public void TranscodeRejectsInvalidRows() {
+        Table table = createTable();
+        // Missing non nullable column
+        assertThrows(DataException.class, () -> transcode(table, "{\"i8\": 1}"));
+        Table single = new Table("single");
+        single.addColumn(Column.extractColumn("i32", "Int32", false));
+        assertThrows(DataException.class, () -> transcode(single, "{\"i32\": 1.5}"));
+        assertThrows(DataException.class, () -> transcode(single, "{\"i32\": 1"));
+        assertThrows(DataException.class, () -> transcode(single, "{\"i32\" 1}"));
+        assertThrows(DataException.class, () -> transcode(single, "[1]"));
+    }
+
+    @Test
+    @DisplayName("TranscodeRejectsOutOfRangeIntegers")
+    public void TranscodeRejectsOutOfRangeIntegers() throws IOException {
+        Table table = new Table("integers");
+        table.addColumn(Column.extractColumn("i8", "Int8", false));
+        table.addColumn(Column.extractColumn("u8", "UInt8", false));
+        table.addColumn(Column.extractColumn("u64", "UInt64", false));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeInt8(expected, (byte) -128);
+        BinaryStreamUtils.writeUnsignedInt8(expected, 255);
+        BinaryStreamUtils.writeUnsignedInt64(expected, -1L);
+        assertArrayEquals(expected.toByteArray(), transcode(table, "{\"i8\": -128, \"u8\": 255, \"u64\": 18446744073709551615}"));
+
+        assertThrows(DataException.class, () -> transcode(table, "{\"i8\": 128, \"u8\": 0, \"u64\": 0}"));
+        assertThrows(DataException.class, () -> transcode(table, "{\"i8\": 0, \"u8\": 256, \"u64\": 0}"));
+        assertThrows(DataException.class, () -> transcode(table, "{\"i8\": 0, \"u8\": -1, \"u64\": 0}"));
+        assertThrows(DataException.class, () -> transcode(table, "{\"i8\": 0, \"u8\": 0, \"u64\": 18446744073709551616}"));
+    }
+
+    @Test
+    @DisplayName("TranscodeMapOfArrays")
+    public void TranscodeMapOfArrays() throws IOException {
+        Table table = new Table("map_of_arrays");
+        table.addColumn(Column.extractColumn("m", "Map(String, Array(Nullable(Int32)))", false));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryStreamUtils.writeVarInt(expected, 2);
+        BinaryStreamUtils.writeString(expected, "a".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeVarInt(expected, 2);
+        BinaryStreamUtils.writeNonNull(expected);
+        BinaryStreamUtils.writeInt32(expected, 1);
+        BinaryStreamUtils.writeNull(expected);
+        BinaryStreamUtils.writeString(expected, "b".getBytes(StandardCharsets.UTF_8));
+        BinaryStreamUtils.writeVarInt(expected, 0);
+        assertArrayEquals(expected.toByteArray(), transcode(table, "{\"m\": {\"a\": [1, null], \"b\": []}}"));
+    }
+
+    @Test
+    @DisplayName("SupportsOnlyTranscodedTypes")
+    public void SupportsOnlyTranscodedTypes() {
+        assertTrue(JsonRowBinaryTranscoder.supports(createTable()));
+        for (String type : new String[] {"Int128", "UInt256", "Date", "DateTime", "DateTime64(3)", "Array(Date32)", "Map(String, Int256)"}) {
+            Table table = new Table("unsupported");
+            table.addColumn(Column.extractColumn("c", type, false));
+            assertFalse(JsonRowBinaryTranscoder.supports(table), type);
+            assertThrows(DataException.class, () -> new JsonRowBinaryTranscoder(table));
+        }
+    }
+
+    @Test
+    @DisplayName("FailedRowLeavesNothingBehind")
+    public void FailedRowLeavesNothingBehind() throws IOException {
+        Table single = new Table("single");
+        single.addColumn(Column.extractColumn("s", "String", false));
+        single.addColumn(Column.extractColumn("i32", "Int32", false));
+        JsonRowBinaryTranscoder transcoder = new JsonRowBinaryTranscoder(single);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(DataException.class, () -> transcoder.transcode("{\"s\": \"abc\", \"i32\": \"x\"}".getBytes(StandardCharsets.UTF_8), out));
+        assertEquals(0, out.size());
+    }
+}
@@ -0,0 +1,43 @@
+package com.clickhouse.kafka.connect.sink.hashing;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartitionHashTest {
+
+    @Test
+    @DisplayName("Same partition always lands in the same bucket")
+    public void stableBucketTest() {
+        for (int partition = 0; partition < 100; partition++) {
+            int index = PartitionHash.getBucketIndex("test", partition, 3);
+            assertTrue(index >= 0 && index < 3);
+            assertEquals(index, PartitionHash.getBucketIndex("test", partition, 3));
+        }
+    }
+
+    @Test
+    @DisplayName("Adding a bucket only moves partitions to the new bucket")
+    public void minimalMovementTest() {
+        int moved = 0;
+        for (int partition = 0; partition < 1000; partition++) {
+            int before = PartitionHash.getBucketIndex("test", partition, 4);
+            int after = PartitionHash.getBucketIndex("test", partition, 5);
+            if (before != after) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        // ~1/5 of the partitions are expected to move
+        assertTrue(moved > 100 && moved < 300);
+    }
+
+    @Test
+    @DisplayName("Invalid number of buckets")
+    public void invalidBucketsTest() {
+        assertEquals(-1, PartitionHash.getBucketIndex("test", 1, 0));
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.clickhouse.kafka.connect.sink.processing;
+
+import com.clickhouse.kafka.connect.sink.data.Data;
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PartitionBufferTest {
+
+    private static final StateRecord NONE = new StateRecord("test", 1, -1, -1, State.NONE);
+
+    private List<Record> createRecords(long from, long to) {
+        List<Record> records = new ArrayList<>();
+        for (long n = from; n <= to; n++) {
+            SinkRecord sr = new SinkRecord("test", 1, null, null, null, null, n);
+            records.add(Record.newRecord(SchemaType.SCHEMA, "test", 1, n, null, Collections.singletonMap("off", new Data(Schema.Type.INT64, n)), sr));
+        }
+        return records;
+    }
+
+    private static long first(List<Record> batch) {
+        return batch.get(0).getRecordOffsetContainer().getOffset();
+    }
+
+    private static long last(List<Record> batch) {
+        return batch.get(batch.size() - 1).getRecordOffsetContainer().getOffset();
+    }
+
+    @Test
+    @DisplayName("Batches are cut at aligned offsets whatever the put boundaries are")
+    public void alignedCutTest() {
+        PartitionBuffer buffer = new PartitionBuffer(100, 60000);
+        buffer.add(createRecords(0, 42), 0);
+        assertTrue(buffer.cut(NONE, 0).isEmpty());
+        buffer.add(createRecords(43, 250), 0);
+        List<List<Record>> batches = buffer.cut(NONE, 0);
+        assertEquals(2, batches.size());
+        assertEquals(0, first(batches.get(0)));
+        assertEquals(99, last(batches.get(0)));
+        assertEquals(100, first(batches.get(1)));
+        assertEquals(199, last(batches.get(1)));
+        // Kept until written
+        assertEquals(251, buffer.size());
+        buffer.release(last(batches.get(0)), 0);
+        assertEquals(151, buffer.size());
+        buffer.release(last(batches.get(1)), 0);
+        assertEquals(51, buffer.size());
+    }
+
+    @Test
+    @DisplayName("A batch that wasn't released is cut again on the retry")
+    public void retryTest() {
+        PartitionBuffer buffer = new PartitionBuffer(100, 60000);
+        buffer.add(createRecords(0, 120), 0);
+        List<List<Record>> batches = buffer.cut(NONE, 0);
+        assertEquals(1, batches.size());
+        // The insert failed after BEFORE_PROCESSING was persisted, Connect redelivers the last put only
+        buffer.add(createRecords(90, 120), 0);
+        batches = buffer.cut(new StateRecord("test", 1, 99, 0, State.BEFORE_PROCESSING), 0);
+        assertEquals(1, batches.size());
+        assertEquals(0, first(batches.get(0)));
+        assertEquals(99, last(batches.get(0)));
+        assertEquals(121, buffer.size());
+    }
+
+    @Test
+    @DisplayName("A replay rebuilds the interrupted batch and skips what was written")
+    public void replayTest() {
+        PartitionBuffer buffer = new PartitionBuffer(100, 60000);
+        // [100, 130] was flushed on timeout and interrupted before AFTER_PROCESSING
+        buffer.add(createRecords(50, 180), 0);
+        List<List<Record>> batches = buffer.cut(new StateRecord("test", 1, 130, 100, State.BEFORE_PROCESSING), 0);
+        assertEquals(1, batches.size());
+        assertEquals(100, first(batches.get(0)));
+        assertEquals(130, last(batches.get(0)));
+
+        buffer = new PartitionBuffer(100, 60000);
+        buffer.add(createRecords(50, 250), 0);
+        batches = buffer.cut(new StateRecord("test", 1, 130, 100, State.AFTER_PROCESSING), 0);
+        assertEquals(1, batches.size());
+        assertEquals(131, first(batches.get(0)));
+        assertEquals(199, last(batches.get(0)));
+    }
+
+    @Test
+    @DisplayName("Incomplete batches are flushed after the timeout")
+    public void timeoutTest() {
+        PartitionBuffer buffer = new PartitionBuffer(100, 1000);
+        buffer.add(createRecords(0, 10), 0);
+        assertTrue(buffer.cut(NONE, 999).isEmpty());
+        List<List<Record>> batches = buffer.cut(NONE, 1000);
+        assertEquals(1, batches.size());
+        assertEquals(10, last(batches.get(0)));
+        buffer.release(10, 1000);
+        assertTrue(buffer.isEmpty());
+    }
+
+}
@@ -2,6 +2,7 @@ package com.clickhouse.kafka.connect.sink.processing;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.clickhouse.kafka.connect.sink.ClickHouseSinkTask;
 import com.clickhouse.kafka.connect.sink.data.Data;
@@ -15,6 +16,9 @@ import com.clickhouse.kafka.connect.sink.state.State;
 import com.clickhouse.kafka.connect.sink.state.StateProvider;
 import com.clickhouse.kafka.connect.sink.state.StateRecord;
 import com.clickhouse.kafka.connect.sink.state.provider.InMemoryState;
+import com.clickhouse.kafka.connect.util.jmx.PartitionStatistics;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.junit.jupiter.api.DisplayName;
@@ -23,6 +27,7 @@ import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.LongStream;
 
 public class ProcessingTest {
@@ -45,6 +50,28 @@ public class ProcessingTest {
         return records;
     }
 
+    @Test
+    @DisplayName("RecordFreshnessOfInsertedRecords")
+    public void RecordFreshnessOfInsertedRecords() {
+        long now = System.currentTimeMillis();
+        List<Record> records = new ArrayList<>();
+        for (long n = 0; n < 10; n++) {
+            // One record without timestamp, the others from 10 minutes ago to now
+            SinkRecord sr = new SinkRecord("test", 1, null, null, null, null, n, n == 0 ? null : now - TimeUnit.MINUTES.toMillis(10 - n), TimestampType.CREATE_TIME);
+            records.add(Record.newRecord(SchemaType.SCHEMA, "test", 1, n, null, Collections.singletonMap("off", new Data(Schema.Type.INT8, n)), sr));
+        }
+        SinkTaskStatistics statistics = new SinkTaskStatistics();
+        Processing processing = new Processing(new InMemoryState(), new InMemoryDBWriter(), null, statistics);
+        processing.doLogic(records);
+        PartitionStatistics partitionStatistics = statistics.partition("test", 1);
+        assertEquals(9, partitionStatistics.getFreshnessCount());
+        long max = TimeUnit.NANOSECONDS.toMinutes(partitionStatistics.getFreshnessMax());
+        assertTrue(max >= 9 && max < 11, String.valueOf(max));
+        // Already inserted records aren't inserted again
+        processing.doLogic(records);
+        assertEquals(9, partitionStatistics.getFreshnessCount());
+    }
+
     @Test
     @DisplayName("ProcessAllAtOnceNewTest")
     public void ProcessAllAtOnceNewTest() {
@@ -151,6 +178,45 @@ public class ProcessingTest {
 
     }
 
+    @Test
+    @DisplayName("ProcessOverlappingAfterProcessingTest")
+    public void ProcessOverlappingAfterProcessingTest() {
+        List<Record> records = createRecords("test", 1);
+        List<Record> recordsHead = records.subList(0, 500);
+        StateProvider stateProvider = new InMemoryState();
+        DBWriter dbWriter = new InMemoryDBWriter();
+        Processing processing = new Processing(stateProvider, dbWriter);
+        processing.doLogic(recordsHead);
+        assertEquals(recordsHead.size(), dbWriter.recordsInserted());
+        // Only the tail [500, 999] is new
+        processing.doLogic(records);
+        assertEquals(records.size(), dbWriter.recordsInserted());
+        StateRecord stateRecord = stateProvider.getStateRecord("test", 1);
+        assertEquals(State.AFTER_PROCESSING, stateRecord.getState());
+        assertEquals(500, stateRecord.getMinOffset());
+        assertEquals(999, stateRecord.getMaxOffset());
+    }
+
+    @Test
+    @DisplayName("ProcessOverlappingBeforeProcessingSplitTest")
+    public void ProcessOverlappingBeforeProcessingSplitTest() {
+        List<Record> records = createRecords("test", 1);
+        List<Record> recordsHead = records.subList(0, 500);
+        StateProvider stateProvider = new InMemoryState();
+        DBWriter dbWriter = new InMemoryDBWriter();
+        Processing processing = new Processing(stateProvider, dbWriter);
+        processing.doLogic(recordsHead);
+        StateRecord stateRecord = stateProvider.getStateRecord("test", 1);
+        stateRecord.setState(State.BEFORE_PROCESSING);
+        // [0, 499] is inserted again as the same block (deduplicated by ClickHouse), then [500, 999]
+        processing.doLogic(records);
+        assertEquals(records.size(), dbWriter.recordsInserted());
+        stateRecord = stateProvider.getStateRecord("test", 1);
+        assertEquals(State.AFTER_PROCESSING, stateRecord.getState());
+        assertEquals(500, stateRecord.getMinOffset());
+        assertEquals(999, stateRecord.getMaxOffset());
+    }
+
     @Test
     @DisplayName("ProcessSplitNewWithBeforeProcessingTest")
     public void ProcessSplitNewWithBeforeProcessingTest() {
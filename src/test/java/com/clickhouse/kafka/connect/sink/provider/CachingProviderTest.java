@@ -0,0 +1,67 @@
+package com.clickhouse.kafka.connect.sink.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.provider.CachingStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.InMemoryState;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CachingProviderTest {
+
+    private static class CountingState extends InMemoryState {
+        private final AtomicInteger reads = new AtomicInteger();
+        private boolean failWrites = false;
+
+        @Override
+        public StateRecord getStateRecord(String topic, int partition) {
+            reads.incrementAndGet();
+            return super.getStateRecord(topic, partition);
+        }
+
+        @Override
+        public void setStateRecord(StateRecord stateRecord) {
+            if (failWrites) {
+                throw new RuntimeException("keeper is down");
+            }
+            super.setStateRecord(stateRecord);
+        }
+    }
+
+    @Test
+    @DisplayName("Reads are served from the cache after the first load and writes go through")
+    public void writeThroughTest() {
+        CountingState delegate = new CountingState();
+        CachingStateProvider stateProvider = new CachingStateProvider(delegate);
+        assertEquals(State.NONE, stateProvider.getStateRecord("test", 1).getState());
+        stateProvider.setStateRecord(new StateRecord("test", 1, 10, 0, State.AFTER_PROCESSING));
+        assertEquals(State.AFTER_PROCESSING, stateProvider.getStateRecord("test", 1).getState());
+        assertEquals(State.AFTER_PROCESSING, delegate.getStateRecord("test", 1).getState());
+        assertEquals(2, delegate.reads.get());
+    }
+
+    @Test
+    @DisplayName("Invalidated partitions and failed writes are reloaded from the provider")
+    public void invalidateTest() {
+        CountingState delegate = new CountingState();
+        CachingStateProvider stateProvider = new CachingStateProvider(delegate);
+        stateProvider.setStateRecord(new StateRecord("test", 1, 10, 0, State.AFTER_PROCESSING));
+        // Another task took over the partition in the meantime
+        delegate.setStateRecord(new StateRecord("test", 1, 20, 11, State.AFTER_PROCESSING));
+        assertEquals(10, stateProvider.getStateRecord("test", 1).getMaxOffset());
+        stateProvider.invalidate(Collections.singletonList(new TopicPartition("test", 1)));
+        assertEquals(20, stateProvider.getStateRecord("test", 1).getMaxOffset());
+
+        delegate.failWrites = true;
+        assertThrows(RuntimeException.class, () -> stateProvider.setStateRecord(new StateRecord("test", 1, 30, 21, State.BEFORE_PROCESSING)));
+        assertEquals(20, stateProvider.getStateRecord("test", 1).getMaxOffset());
+    }
+
+}
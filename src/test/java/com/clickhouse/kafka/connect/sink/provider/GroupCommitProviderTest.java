@@ -0,0 +1,82 @@
+package com.clickhouse.kafka.connect.sink.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.provider.GroupCommitStateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.InMemoryState;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class GroupCommitProviderTest {
+
+    private static class BatchCountingState extends InMemoryState {
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public void setStateRecords(Collection<StateRecord> stateRecords) {
+            batchSizes.add(stateRecords.size());
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            super.setStateRecords(stateRecords);
+        }
+    }
+
+    @Test
+    @DisplayName("Writers arriving during a commit are grouped into the next one")
+    public void groupConcurrentWrites() throws InterruptedException {
+        BatchCountingState delegate = new BatchCountingState();
+        StateProvider stateProvider = new GroupCommitStateProvider(delegate);
+        List<Thread> threads = new ArrayList<>();
+        for (int partition = 0; partition < 5; partition++) {
+            int p = partition;
+            threads.add(new Thread(() -> stateProvider.setStateRecord(new StateRecord("test", p, 10, 0, State.AFTER_PROCESSING))));
+        }
+        threads.get(0).start();
+        delegate.entered.await();
+        for (Thread thread : threads.subList(1, threads.size())) {
+            thread.start();
+        }
+        for (Thread thread : threads.subList(1, threads.size())) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        delegate.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(List.of(1, 4), delegate.batchSizes);
+        for (int partition = 0; partition < 5; partition++) {
+            assertEquals(State.AFTER_PROCESSING, stateProvider.getStateRecord("test", partition).getState());
+        }
+    }
+
+    @Test
+    @DisplayName("A failed group commit is reported to the writer")
+    public void failedWrite() {
+        StateProvider stateProvider = new GroupCommitStateProvider(new InMemoryState() {
+            @Override
+            public void setStateRecords(Collection<StateRecord> stateRecords) {
+                throw new RuntimeException("keeper is down");
+            }
+        });
+        assertThrows(RuntimeException.class, () -> stateProvider.setStateRecord(new StateRecord("test", 1, 10, 0, State.BEFORE_PROCESSING)));
+    }
+
+}
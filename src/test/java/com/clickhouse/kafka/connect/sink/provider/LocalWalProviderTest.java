@@ -0,0 +1,86 @@
+package com.clickhouse.kafka.connect.sink.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.provider.LocalWalStateProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class LocalWalProviderTest {
+
+    @TempDir
+    Path stateDir;
+
+    @Test
+    @DisplayName("State is recovered from the log after a restart")
+    public void recoverTest() {
+        LocalWalStateProvider stateProvider = LocalWalStateProvider.open(stateDir, 16);
+        assertEquals(State.NONE, stateProvider.getStateRecord("test", 1).getState());
+        stateProvider.setStateRecord(new StateRecord("test", 1, 10, 0, State.BEFORE_PROCESSING));
+        stateProvider.setStateRecord(new StateRecord("test", 1, 10, 0, State.AFTER_PROCESSING));
+        stateProvider.setStateRecord(new StateRecord("test", 2, 5, 0, State.BEFORE_PROCESSING));
+        stateProvider.flush();
+        stateProvider.stop();
+
+        stateProvider = LocalWalStateProvider.open(stateDir, 16);
+        assertEquals(State.AFTER_PROCESSING, stateProvider.getStateRecord("test", 1).getState());
+        assertEquals(10, stateProvider.getStateRecord("test", 1).getMaxOffset());
+        assertEquals(State.BEFORE_PROCESSING, stateProvider.getStateRecord("test", 2).getState());
+        stateProvider.stop();
+    }
+
+    @Test
+    @DisplayName("Compaction keeps the latest state and stale log entries are not replayed")
+    public void compactTest() {
+        LocalWalStateProvider stateProvider = LocalWalStateProvider.open(stateDir, 16);
+        for (int i = 0; i < 50; i++) {
+            stateProvider.setStateRecord(new StateRecord("test", i % 3, i * 10 + 9, i * 10, State.AFTER_PROCESSING));
+        }
+        stateProvider.stop();
+
+        stateProvider = LocalWalStateProvider.open(stateDir, 16);
+        assertEquals(489, stateProvider.getStateRecord("test", 0).getMaxOffset());
+        assertEquals(499, stateProvider.getStateRecord("test", 1).getMaxOffset());
+        assertEquals(479, stateProvider.getStateRecord("test", 2).getMaxOffset());
+        stateProvider.stop();
+    }
+
+    @Test
+    @DisplayName("Replay stops at a torn entry")
+    public void tornWriteTest() throws Exception {
+        LocalWalStateProvider stateProvider = LocalWalStateProvider.open(stateDir, 16);
+        stateProvider.setStateRecord(new StateRecord("test", 1, 10, 0, State.AFTER_PROCESSING));
+        stateProvider.setStateRecord(new StateRecord("test", 1, 20, 11, State.BEFORE_PROCESSING));
+        stateProvider.stop();
+        try (RandomAccessFile log = new RandomAccessFile(stateDir.resolve("state.log").toFile(), "rw")) {
+            // Corrupt the max offset of the second entry
+            log.seek(288 + 30);
+            log.writeLong(12345);
+        }
+
+        stateProvider = LocalWalStateProvider.open(stateDir, 16);
+        assertEquals(State.AFTER_PROCESSING, stateProvider.getStateRecord("test", 1).getState());
+        assertEquals(10, stateProvider.getStateRecord("test", 1).getMaxOffset());
+        stateProvider.stop();
+    }
+
+    @Test
+    @DisplayName("Tasks of the same worker share the state")
+    public void sharedTest() {
+        LocalWalStateProvider first = LocalWalStateProvider.open(stateDir, 16);
+        LocalWalStateProvider second = LocalWalStateProvider.open(stateDir, 16);
+        assertSame(first, second);
+        first.stop();
+        second.setStateRecord(new StateRecord("test", 1, 10, 0, State.AFTER_PROCESSING));
+        assertEquals(State.AFTER_PROCESSING, second.getStateRecord("test", 1).getState());
+        second.stop();
+    }
+
+}
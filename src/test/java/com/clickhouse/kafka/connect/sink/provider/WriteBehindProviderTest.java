@@ -0,0 +1,48 @@
+package com.clickhouse.kafka.connect.sink.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.provider.InMemoryState;
+import com.clickhouse.kafka.connect.sink.state.provider.WriteBehindStateProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WriteBehindProviderTest {
+
+    private static class BatchCountingState extends InMemoryState {
+        private final List<Integer> batchSizes = new ArrayList<>();
+
+        @Override
+        public void setStateRecords(Collection<StateRecord> stateRecords) {
+            batchSizes.add(stateRecords.size());
+            super.setStateRecords(stateRecords);
+        }
+    }
+
+    @Test
+    @DisplayName("AFTER transitions go out with the next BEFORE and on flush")
+    public void foldAfterIntoNextWrite() {
+        BatchCountingState delegate = new BatchCountingState();
+        StateProvider stateProvider = new WriteBehindStateProvider(delegate);
+        for (int partition = 0; partition < 3; partition++) {
+            stateProvider.setStateRecord(new StateRecord("test", partition, 10, 0, State.BEFORE_PROCESSING));
+            assertEquals(State.BEFORE_PROCESSING, delegate.getStateRecord("test", partition).getState());
+            stateProvider.setStateRecord(new StateRecord("test", partition, 10, 0, State.AFTER_PROCESSING));
+            assertEquals(State.AFTER_PROCESSING, stateProvider.getStateRecord("test", partition).getState());
+        }
+        assertEquals(State.BEFORE_PROCESSING, delegate.getStateRecord("test", 2).getState());
+        stateProvider.flush();
+        assertEquals(List.of(1, 2, 2, 1), delegate.batchSizes);
+        for (int partition = 0; partition < 3; partition++) {
+            assertEquals(State.AFTER_PROCESSING, delegate.getStateRecord("test", partition).getState());
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.clickhouse.kafka.connect.sink.provider;
+
+import com.clickhouse.kafka.connect.sink.state.State;
+import com.clickhouse.kafka.connect.sink.state.StateRecord;
+import com.clickhouse.kafka.connect.sink.state.provider.ZooKeeperStateProvider;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZooKeeperProviderTest {
+
+    @TempDir
+    File dataDir;
+    private ZooKeeperServer server;
+    private ServerCnxnFactory factory;
+    private String connectString;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = new ZooKeeperServer(dataDir, dataDir, 2000);
+        factory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 10);
+        factory.startup(server);
+        connectString = "127.0.0.1:" + factory.getLocalPort();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        factory.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    @DisplayName("Write & read state records")
+    public void setAndGetTest() {
+        ZooKeeperStateProvider stateProvider = new ZooKeeperStateProvider(connectString, "/setAndGetTest", 10000);
+        assertEquals(State.NONE, stateProvider.getStateRecord("test-topic", 1).getState());
+        stateProvider.setStateRecord(new StateRecord("test-topic", 1, 10, 0, State.BEFORE_PROCESSING));
+        stateProvider.setStateRecord(new StateRecord("test-topic", 1, 10, 0, State.AFTER_PROCESSING));
+        assertEquals(State.NONE, stateProvider.getStateRecord("test-topic", 2).getState());
+        stateProvider.setStateRecords(List.of(
+                new StateRecord("test-topic", 1, 20, 11, State.BEFORE_PROCESSING),
+                new StateRecord("test-topic", 2, 5, 0, State.BEFORE_PROCESSING)));
+        StateRecord stateRecord = stateProvider.getStateRecord("test-topic", 1);
+        assertEquals(State.BEFORE_PROCESSING, stateRecord.getState());
+        assertEquals(11, stateRecord.getMinOffset());
+        assertEquals(20, stateRecord.getMaxOffset());
+        assertEquals(5, stateProvider.getStateRecord("test-topic", 2).getMaxOffset());
+        stateProvider.stop();
+    }
+
+    @Test
+    @DisplayName("A task writing with a stale version is fenced")
+    public void fencingTest() {
+        ZooKeeperStateProvider zombie = new ZooKeeperStateProvider(connectString, "/fencingTest", 10000);
+        ZooKeeperStateProvider owner = new ZooKeeperStateProvider(connectString, "/fencingTest", 10000);
+        zombie.getStateRecord("test", 0);
+        zombie.setStateRecord(new StateRecord("test", 0, 10, 0, State.AFTER_PROCESSING));
+        owner.getStateRecord("test", 0);
+        owner.setStateRecord(new StateRecord("test", 0, 20, 11, State.BEFORE_PROCESSING));
+        assertThrows(ConnectException.class, () -> zombie.setStateRecord(new StateRecord("test", 0, 20, 11, State.AFTER_PROCESSING)));
+        assertThrows(ConnectException.class, () -> zombie.setStateRecords(List.of(new StateRecord("test", 0, 20, 11, State.AFTER_PROCESSING))));
+        assertEquals(State.BEFORE_PROCESSING, owner.getStateRecord("test", 0).getState());
+        zombie.stop();
+        owner.stop();
+    }
+
+    @Test
+    @DisplayName("A fenced batch names the partition whose version check failed")
+    public void fencedBatchTest() {
+        ZooKeeperStateProvider zombie = new ZooKeeperStateProvider(connectString, "/fencedBatchTest", 10000);
+        ZooKeeperStateProvider owner = new ZooKeeperStateProvider(connectString, "/fencedBatchTest", 10000);
+        for (int partition = 0; partition < 3; partition++) {
+            zombie.getStateRecord("test", partition);
+            zombie.setStateRecord(new StateRecord("test", partition, 10, 0, State.AFTER_PROCESSING));
+        }
+        owner.getStateRecord("test", 1);
+        owner.setStateRecord(new StateRecord("test", 1, 20, 11, State.BEFORE_PROCESSING));
+        ConnectException e = assertThrows(ConnectException.class, () -> zombie.setStateRecords(List.of(
+                new StateRecord("test", 0, 20, 11, State.BEFORE_PROCESSING),
+                new StateRecord("test", 1, 20, 11, State.BEFORE_PROCESSING),
+                new StateRecord("test", 2, 20, 11, State.BEFORE_PROCESSING))));
+        assertTrue(e.getMessage().contains("partition 1 "), e.getMessage());
+        assertEquals(State.AFTER_PROCESSING, owner.getStateRecord("test", 0).getState());
+        zombie.stop();
+        owner.stop();
+    }
+
+    @Test
+    @DisplayName("A partition written without reading it first is fenced")
+    public void unknownVersionTest() {
+        ZooKeeperStateProvider first = new ZooKeeperStateProvider(connectString, "/unknownVersionTest", 10000);
+        ZooKeeperStateProvider second = new ZooKeeperStateProvider(connectString, "/unknownVersionTest", 10000);
+        first.getStateRecord("test", 0);
+        first.setStateRecord(new StateRecord("test", 0, 10, 0, State.AFTER_PROCESSING));
+        assertThrows(ConnectException.class, () -> second.setStateRecord(new StateRecord("test", 0, 5, 0, State.BEFORE_PROCESSING)));
+        assertThrows(ConnectException.class, () -> second.setStateRecords(List.of(new StateRecord("test", 0, 5, 0, State.BEFORE_PROCESSING))));
+        assertEquals(10, first.getStateRecord("test", 0).getMaxOffset());
+        // Once read, the writes go through
+        assertEquals(State.AFTER_PROCESSING, second.getStateRecord("test", 0).getState());
+        second.setStateRecord(new StateRecord("test", 0, 20, 11, State.BEFORE_PROCESSING));
+        assertEquals(20, first.getStateRecord("test", 0).getMaxOffset());
+        first.stop();
+        second.stop();
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.clickhouse.kafka.connect.sink.util;
+
+import com.clickhouse.kafka.connect.util.jmx.ColumnProfile;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnProfileTest {
+
+    @Test
+    @DisplayName("MostExpensiveColumnsFirst")
+    public void MostExpensiveColumnsFirst() {
+        ColumnProfile profile = new ColumnProfile("t", List.of("id", "tags", "payload"));
+        for (int row = 0; row < 4; row++) {
+            profile.column(0, 10, 8);
+            profile.column(1, 300, 120);
+            profile.column(2, 90, 1000);
+            profile.sampledRow();
+        }
+        assertEquals(4, profile.getSampledRows());
+        String[] columns = profile.getColumns();
+        assertEquals("tags time 75.0% 300.0 ns/row 120.0 bytes/row", columns[0]);
+        assertEquals("payload time 22.5% 90.0 ns/row 1000.0 bytes/row", columns[1]);
+        assertEquals("id time 2.5% 10.0 ns/row 8.0 bytes/row", columns[2]);
+        assertTrue(profile.dump().startsWith("table t sampled rows 4\n  tags"), profile.dump());
+
+        profile.reset();
+        assertEquals(0, profile.getSampledRows());
+        assertEquals("id time 0.0% 0.0 ns/row 0.0 bytes/row", profile.getColumns()[0]);
+    }
+
+    @Test
+    @DisplayName("NewProfileWhenColumnsChange")
+    public void NewProfileWhenColumnsChange() {
+        SinkTaskStatistics statistics = new SinkTaskStatistics();
+        assertEquals("", statistics.dumpColumnProfiles());
+        ColumnProfile profile = statistics.columnProfile("t", List.of("a", "b"));
+        assertSame(profile, statistics.columnProfile("t", List.of("a", "b")));
+        ColumnProfile altered = statistics.columnProfile("t", List.of("a", "b", "c"));
+        assertNotSame(profile, altered);
+        assertEquals(altered.dump(), statistics.dumpColumnProfiles());
+    }
+}
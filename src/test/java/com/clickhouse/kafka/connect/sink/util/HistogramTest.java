@@ -0,0 +1,60 @@
+package com.clickhouse.kafka.connect.sink.util;
+
+import com.clickhouse.kafka.connect.util.jmx.Histogram;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    @DisplayName("PercentilesWithinBucketPrecision")
+    public void PercentilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(7);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // Latencies from a few microseconds to a few seconds
+            values[i] = (long) Math.exp(8 + random.nextDouble() * 14);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double quantile : new double[]{0.5, 0.99, 0.999}) {
+            long expected = values[(int) Math.ceil(quantile * values.length) - 1];
+            long actual = histogram.percentile(quantile);
+            assertTrue(actual >= expected && actual <= expected + expected / 16 + 1, quantile + ": " + actual + " vs " + expected);
+        }
+    }
+
+    @Test
+    @DisplayName("SmallValuesAreExact")
+    public void SmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getP99());
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(5, histogram.getP50());
+        assertEquals(10, histogram.getP99());
+        assertEquals(5.5, histogram.getMean());
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    @DisplayName("ConcurrentRecordsAreCounted")
+    public void ConcurrentRecordsAreCounted() {
+        Histogram histogram = new Histogram();
+        IntStream.range(0, 200000).parallel().forEach(i -> histogram.record(i % 1000));
+        assertEquals(200000, histogram.getCount());
+        assertEquals(999, histogram.getMax());
+    }
+}
@@ -0,0 +1,76 @@
+package com.clickhouse.kafka.connect.sink.util;
+
+import com.clickhouse.kafka.connect.sink.data.Data;
+import com.clickhouse.kafka.connect.sink.data.Record;
+import com.clickhouse.kafka.connect.sink.data.SchemaType;
+import com.clickhouse.kafka.connect.sink.db.InMemoryDBWriter;
+import com.clickhouse.kafka.connect.sink.processing.Processing;
+import com.clickhouse.kafka.connect.sink.state.StateProvider;
+import com.clickhouse.kafka.connect.sink.state.provider.InMemoryState;
+import com.clickhouse.kafka.connect.sink.state.provider.TimedStateProvider;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JfrEventsTest {
+
+    @Test
+    @DisplayName("RecordStateTransitionsAndStateProviderCalls")
+    public void RecordStateTransitionsAndStateProviderCalls() throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (long n = 0; n < 10; n++) {
+            SinkRecord sr = new SinkRecord("jfr_topic", 2, null, null, null, null, n);
+            records.add(Record.newRecord(SchemaType.SCHEMA, "jfr_topic", 2, n, null, Collections.singletonMap("off", new Data(Schema.Type.INT8, n)), sr));
+        }
+        SinkTaskStatistics statistics = new SinkTaskStatistics();
+        StateProvider stateProvider = new TimedStateProvider(new InMemoryState(), statistics);
+        Processing processing = new Processing(stateProvider, new InMemoryDBWriter(), null, statistics);
+
+        Path file = Files.createTempFile("connector", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.clickhouse.kafka.connect.StateTransition");
+            recording.enable("com.clickhouse.kafka.connect.StateProvider");
+            recording.start();
+            processing.doLogic(records);
+            processing.doLogic(records);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        List<RecordedEvent> transitions = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.clickhouse.kafka.connect.StateTransition"))
+                .collect(Collectors.toList());
+        assertEquals(2, transitions.size());
+        assertEquals("jfr_topic", transitions.get(0).getString("topic"));
+        assertEquals(2, transitions.get(0).getInt("partition"));
+        assertEquals("NONE", transitions.get(0).getString("state"));
+        assertEquals("AFTER_PROCESSING", transitions.get(1).getString("state"));
+        assertEquals("SAME", transitions.get(1).getString("rangeState"));
+        assertEquals(9, transitions.get(1).getLong("maxOffset"));
+
+        // Two reads, then the BEFORE & AFTER_PROCESSING writes of the first batch only
+        List<String> operations = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.clickhouse.kafka.connect.StateProvider"))
+                .map(e -> e.getString("operation"))
+                .sorted()
+                .collect(Collectors.toList());
+        assertEquals(List.of("getStateRecord", "getStateRecord", "setStateRecord", "setStateRecord"), operations);
+    }
+}
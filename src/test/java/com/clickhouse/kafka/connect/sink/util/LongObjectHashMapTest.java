@@ -0,0 +1,60 @@
+package com.clickhouse.kafka.connect.sink.util;
+
+import com.clickhouse.kafka.connect.sink.kafka.TopicPartitionKey;
+import com.clickhouse.kafka.connect.util.LongObjectHashMap;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    @DisplayName("PutGetRemoveTopicPartitionKeys")
+    public void PutGetRemoveTopicPartitionKeys() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(2);
+        for (int partition = 0; partition < 100; partition++) {
+            map.put(TopicPartitionKey.of("topic-a", partition), "a-" + partition);
+            map.put(TopicPartitionKey.of("topic-b", partition), "b-" + partition);
+        }
+        assertEquals(200, map.size());
+        assertEquals("a-42", map.get(TopicPartitionKey.of("topic-a", 42)));
+        assertEquals(42, TopicPartitionKey.partition(TopicPartitionKey.of("topic-b", 42)));
+        assertNull(map.get(TopicPartitionKey.of("topic-c", 42)));
+
+        for (int partition = 0; partition < 100; partition += 2) {
+            assertEquals("a-" + partition, map.remove(TopicPartitionKey.of("topic-a", partition)));
+        }
+        assertEquals(150, map.size());
+        for (int partition = 0; partition < 100; partition++) {
+            assertEquals(partition % 2 == 0 ? null : "a-" + partition, map.get(TopicPartitionKey.of("topic-a", partition)));
+            assertEquals("b-" + partition, map.get(TopicPartitionKey.of("topic-b", partition)));
+        }
+    }
+
+    @Test
+    @DisplayName("MatchesHashMapOnRandomOperations")
+    public void MatchesHashMapOnRandomOperations() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            // Small key space, so removals hit and probe sequences collide
+            long key = random.nextInt(512);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 512; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
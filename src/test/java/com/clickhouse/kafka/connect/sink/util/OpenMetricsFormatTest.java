@@ -0,0 +1,53 @@
+package com.clickhouse.kafka.connect.sink.util;
+
+import com.clickhouse.kafka.connect.util.jmx.OpenMetricsFormat;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OpenMetricsFormatTest {
+
+    @Test
+    @DisplayName("RenderRegisteredStatistics")
+    public void RenderRegisteredStatistics() {
+        SinkTaskStatistics statistics = new SinkTaskStatistics().register("com.clickhouse:type=ClickHouseKafkaConnector,name=OpenMetricsTask");
+        try {
+            statistics.insert("my_table", 10, 1000, 10, 2048);
+            statistics.receivedRecords("my_topic", 10);
+            statistics.partition("my_topic", 3).received(0, 9);
+            String rendered = OpenMetricsFormat.render(ManagementFactory.getPlatformMBeanServer());
+            assertTrue(rendered.contains("# TYPE clickhouse_kafka_connect_task_inserted_rows gauge\n"), rendered);
+            assertTrue(rendered.contains("clickhouse_kafka_connect_task_inserted_rows{task=\"OpenMetricsTask\"} 10\n"), rendered);
+            assertTrue(rendered.contains("clickhouse_kafka_connect_table_inserted_bytes{table=\"my_table\",task=\"OpenMetricsTask\"} 2048\n"), rendered);
+            assertTrue(rendered.contains("clickhouse_kafka_connect_topic_received_records{task=\"OpenMetricsTask\",topic=\"my_topic\"} 10\n"), rendered);
+            assertTrue(rendered.contains("clickhouse_kafka_connect_partition_offset_lag{partition=\"3\",task=\"OpenMetricsTask\",topic=\"my_topic\"} 10\n"), rendered);
+            assertTrue(rendered.contains("clickhouse_kafka_connect_histogram_p99{histogram=\"batchSize\",task=\"OpenMetricsTask\"} "), rendered);
+            // Traces aren't numbers
+            assertFalse(rendered.contains("recent_traces"), rendered);
+            assertTrue(rendered.endsWith("# EOF\n"));
+        } finally {
+            statistics.unregister();
+        }
+        assertFalse(OpenMetricsFormat.render(ManagementFactory.getPlatformMBeanServer()).contains("OpenMetricsTask"));
+    }
+
+    @Test
+    @DisplayName("EscapeLabelsAndNames")
+    public void EscapeLabelsAndNames() {
+        SinkTaskStatistics statistics = new SinkTaskStatistics().register("com.clickhouse:type=ClickHouseKafkaConnector,name=\"Quoted\\\\Task\"");
+        try {
+            String rendered = OpenMetricsFormat.render(ManagementFactory.getPlatformMBeanServer());
+            assertTrue(rendered.contains("clickhouse_kafka_connect_task_dlq_records{task=\"Quoted\\\\Task\"} 0\n"), rendered);
+            assertTrue(rendered.contains("clickhouse_kafka_connect_histogram_p999{histogram=\"sendTime\",task=\"Quoted\\\\Task\"} 0\n"), rendered);
+        } finally {
+            statistics.unregister();
+        }
+        assertEquals(1, OpenMetricsFormat.render(ManagementFactory.getPlatformMBeanServer()).split("\n").length);
+    }
+}
@@ -0,0 +1,76 @@
+package com.clickhouse.kafka.connect.sink.util;
+
+import com.clickhouse.kafka.connect.util.jmx.PartitionStatistics;
+import com.clickhouse.kafka.connect.util.jmx.PipelineTrace;
+import com.clickhouse.kafka.connect.util.jmx.SinkTaskStatistics;
+import com.clickhouse.kafka.connect.util.jmx.Stage;
+import com.clickhouse.kafka.connect.util.jmx.Timer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SinkTaskStatisticsTest {
+
+    @Test
+    @DisplayName("TraceSampledPuts")
+    public void TraceSampledPuts() {
+        SinkTaskStatistics statistics = new SinkTaskStatistics(3);
+        int traced = 0;
+        for (int i = 0; i < 9; i++) {
+            Timer timer = Timer.start();
+            PipelineTrace trace = statistics.startTrace(10);
+            PipelineTrace.attach(trace);
+            try {
+                statistics.stage(Stage.CONVERSION, 1000);
+                statistics.stage(Stage.CONVERSION, 500);
+                statistics.stage(Stage.SEND, 2000);
+            } finally {
+                PipelineTrace.detach(trace);
+                statistics.finishTrace(trace, timer);
+            }
+            if (trace != null) {
+                traced++;
+                assertEquals(1500, trace.getStageNanos(Stage.CONVERSION));
+                assertEquals(2000, trace.getStageNanos(Stage.SEND));
+                assertEquals(0, trace.getStageNanos(Stage.DLQ));
+            }
+        }
+        assertEquals(3, traced);
+        String[] traces = statistics.getRecentTraces();
+        assertEquals(3, traces.length);
+        assertTrue(traces[0].startsWith("put 3 records 10"), traces[0]);
+        assertTrue(traces[2].contains("sendTime"), traces[2]);
+        // Outside of a put, stages are only recorded in the histograms
+        statistics.stage(Stage.SEND, 1000);
+        assertEquals(3, statistics.getRecentTraces().length);
+    }
+
+    @Test
+    @DisplayName("NoTraceWhenDisabled")
+    public void NoTraceWhenDisabled() {
+        SinkTaskStatistics statistics = new SinkTaskStatistics();
+        for (int i = 0; i < 100; i++) {
+            assertNull(statistics.startTrace(1));
+        }
+        assertNotNull(statistics.getRecentTraces());
+        assertEquals(0, statistics.getRecentTraces().length);
+    }
+
+    @Test
+    @DisplayName("OffsetLagBetweenReceivedAndCommitted")
+    public void OffsetLagBetweenReceivedAndCommitted() {
+        PartitionStatistics partitionStatistics = new PartitionStatistics();
+        assertEquals(0, partitionStatistics.getOffsetLag());
+        partitionStatistics.received(100, 149);
+        assertEquals(50, partitionStatistics.getOffsetLag());
+        partitionStatistics.committed(119);
+        assertEquals(30, partitionStatistics.getOffsetLag());
+        partitionStatistics.received(150, 159);
+        partitionStatistics.committed(159);
+        assertEquals(0, partitionStatistics.getOffsetLag());
+    }
+}